@@ -0,0 +1,331 @@
+package codesum.lm.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codesum.lm.main.Settings;
+import codesum.lm.main.SourceBuffer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Cache of folded LOC keyed by the content of the folded file, the model it
+ * was folded with, the algorithm, compression ratio and settings, so that
+ * folding unchanged files again (e.g. by CI, code review tools or the editor)
+ * skips the parse, tree and unfolding pipeline.
+ *
+ * <p>
+ * The cache has a size-bounded in-memory LRU tier and an optional on-disk
+ * tier of compact binary entries (one file per entry) that persists between
+ * runs. It is safe for concurrent use: a file being folded by one thread is
+ * not folded again by another thread asking for the same key.
+ */
+public class FoldCache {
+
+	private static final int MAGIC = 0x54534643; // "TSFC"
+	private static final int VERSION = 1;
+
+	/** Default memory tier size in bytes */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	// Approximate per entry memory overhead in bytes
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final Cache<Key, int[]> memory;
+	private final File diskDir;
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxBytes
+	 *            approximate size bound of the memory tier
+	 * @param diskDir
+	 *            directory of the disk tier (or null for memory only)
+	 */
+	public FoldCache(final long maxBytes, final File diskDir) {
+		memory = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+				.weigher(new Weigher<Key, int[]>() {
+					@Override
+					public int weigh(final Key key, final int[] foldedLOC) {
+						return ENTRY_OVERHEAD + key.bytes.length + 4
+								* foldedLOC.length;
+					}
+				}).recordStats().build();
+		this.diskDir = diskDir;
+		if (diskDir != null)
+			diskDir.mkdirs();
+	}
+
+	/**
+	 * Get the folded LOC for the given key, folding the file (and caching the
+	 * result) on a miss
+	 *
+	 * @param folder
+	 *            folds the file on a miss
+	 */
+	public ArrayList<Integer> get(final Key key,
+			final Callable<ArrayList<Integer>> folder) {
+		lookups.incrementAndGet();
+		try {
+			return toList(memory.get(key, new Callable<int[]>() {
+				@Override
+				public int[] call() throws Exception {
+					final int[] cached = readEntry(key);
+					if (cached != null) {
+						diskHits.incrementAndGet();
+						return cached;
+					}
+					misses.incrementAndGet();
+					final int[] foldedLOC = toArray(folder.call());
+					try {
+						writeEntry(key, foldedLOC);
+					} catch (final IOException e) {
+						System.out.println("Unable to write fold cache entry: "
+								+ e);
+					}
+					return foldedLOC;
+				}
+			}));
+		} catch (final ExecutionException | UncheckedExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/** @return no. lookups */
+	public long lookupCount() {
+		return lookups.get();
+	}
+
+	/**
+	 * @return no. lookups served by the memory tier (incl. those that waited
+	 *         for another thread to fold the file)
+	 */
+	public long hitCount() {
+		return lookups.get() - diskHits.get() - misses.get();
+	}
+
+	/** @return no. lookups served by the disk tier */
+	public long diskHitCount() {
+		return diskHits.get();
+	}
+
+	/** @return no. lookups that had to fold the file */
+	public long missCount() {
+		return misses.get();
+	}
+
+	/** @return no. entries evicted from the memory tier */
+	public long evictionCount() {
+		return memory.stats().evictionCount();
+	}
+
+	@Override
+	public String toString() {
+		final long total = lookupCount();
+		final long misses = missCount();
+		return String.format("%d lookups, %d memory hits, %d disk hits, "
+				+ "%d misses (%.1f%% hit rate), %d entries in memory", total,
+				total - diskHitCount() - misses, diskHitCount(), misses,
+				total == 0 ? 0. : 100. * (total - misses) / total,
+				memory.size());
+	}
+
+	/** Read disk entry for key (or null if there is none) */
+	private int[] readEntry(final Key key) {
+		if (diskDir == null)
+			return null;
+		final File file = getEntryFile(key);
+		if (!file.exists())
+			return null;
+
+		try (final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+
+			// Check key in case of hash collisions
+			final byte[] keyBytes = new byte[in.readInt()];
+			in.readFully(keyBytes);
+			if (!Arrays.equals(keyBytes, key.bytes))
+				return null;
+
+			// Folded LOC are delta encoded varints
+			final int[] foldedLOC = new int[readVarint(in)];
+			int prev = 0;
+			for (int i = 0; i < foldedLOC.length; i++) {
+				final int delta = readVarint(in);
+				foldedLOC[i] = prev + ((delta >>> 1) ^ -(delta & 1));
+				prev = foldedLOC[i];
+			}
+			return foldedLOC;
+		} catch (final IOException e) {
+			// Treat unreadable (e.g. truncated) entries as missing
+			return null;
+		}
+	}
+
+	/**
+	 * Write disk entry for key, replacing any previous entry only once the
+	 * new one has been completely written
+	 */
+	private void writeEntry(final Key key, final int[] foldedLOC)
+			throws IOException {
+		if (diskDir == null)
+			return;
+		final File file = getEntryFile(key);
+		file.getParentFile().mkdirs();
+
+		final File tmpFile = File.createTempFile("entry", ".tmp",
+				file.getParentFile());
+		try {
+			try (final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(key.bytes.length);
+				out.write(key.bytes);
+				writeVarint(out, foldedLOC.length);
+				int prev = 0;
+				for (final int line : foldedLOC) {
+					final int delta = line - prev;
+					writeVarint(out, (delta << 1) ^ (delta >> 31));
+					prev = line;
+				}
+			}
+			Files.move(tmpFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	/** Entry files are sharded into subdirectories by hash prefix */
+	private File getEntryFile(final Key key) {
+		final String hash = Hashing.sha256().hashBytes(key.bytes).toString();
+		return new File(new File(diskDir, hash.substring(0, 2)), hash
+				+ ".fold");
+	}
+
+	private static void writeVarint(final DataOutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarint(final DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static int[] toArray(final List<Integer> list) {
+		final int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	private static ArrayList<Integer> toList(final int[] array) {
+		final ArrayList<Integer> list = new ArrayList<>(array.length);
+		for (final int i : array)
+			list.add(i);
+		return list;
+	}
+
+	/**
+	 * Cache key: hash of the file content, the model (and file path within
+	 * the project, which the topic model looks the file up by), algorithm,
+	 * compression ratio and the settings that affect folding
+	 */
+	public static class Key {
+
+		private final byte[] bytes;
+		private final int hashCode;
+
+		/**
+		 * @param source
+		 *            the file to fold
+		 * @param file
+		 *            path of the file the model looks it up by (or null if
+		 *            the model doesn't, e.g. the VSM)
+		 * @param modelId
+		 *            id and version of the model (see
+		 *            {@link FoldSourceFile#getModelId(String)})
+		 * @param algorithm
+		 *            folding algorithm
+		 * @param set
+		 *            settings used to fold the file (incl. compression ratio)
+		 */
+		public Key(final SourceBuffer source, final String file,
+				final String modelId, final String algorithm,
+				final Settings set) {
+			final ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+			try (final DataOutputStream out = new DataOutputStream(bytesOut)) {
+				out.write(source.getHash().asBytes());
+				out.writeUTF(file == null ? "" : file);
+				out.writeUTF(modelId == null ? "" : modelId);
+				out.writeUTF(algorithm);
+				out.writeInt(set.compressionRatio);
+				out.writeUTF(set.profitType == null ? "" : set.profitType);
+				out.writeInt(set.backoffTopicID);
+				out.writeUTF(set.curProj == null ? "" : set.curProj);
+				out.writeBoolean(set.splitTokens);
+				out.writeBoolean(set.tokenizeComments);
+				out.writeBoolean(set.foldLineComments);
+				out.writeBoolean(set.lazyGreedy);
+			} catch (final IOException e) {
+				throw new AssertionError(e);
+			}
+			bytes = bytesOut.toByteArray();
+			hashCode = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			return Arrays.equals(bytes, ((Key) obj).bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+	}
+
+}
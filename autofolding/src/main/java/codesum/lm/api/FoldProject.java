@@ -0,0 +1,361 @@
+package codesum.lm.api;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+
+import codesum.lm.api.FoldSourceFile.checkBackoffTopic;
+import codesum.lm.main.CodeUtils;
+import codesum.lm.main.SourceBuffer;
+import codesum.lm.topicsum.TopicModel;
+import codesum.lm.vsm.IdfTable;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+
+/**
+ * Fold every java file in a project directory, loading the topic model once
+ * and folding files concurrently. The folded LOC of each file are streamed to
+ * a JSON Lines file as they finish, one object per file:
+ *
+ * <pre>
+ * {"file":"src/Foo.java","folded":[3,4,5,12]}
+ * {"file":"src/Bar.java","error":"..."}
+ * </pre>
+ */
+public class FoldProject {
+
+	/** Command line parameters */
+	public static class Parameters {
+
+		@Parameter(names = { "-d", "--projectDir" }, description = "Directory of the project to fold", required = true)
+		File projectDir;
+
+		@Parameter(names = { "-w", "--workingDir" }, description = "Working directory where the topic model creates necessary files (uses the VSM if not given)")
+		String workingDir = null;
+
+		@Parameter(names = { "-p", "--project" }, description = "Project name in the topic model (default: name of project directory)")
+		String project = null;
+
+		@Parameter(names = { "-c", "--compression" }, description = "Desired compression ratio", required = true)
+		int compressionRatio;
+
+		@Parameter(names = { "-b", "--backoffTopic" }, description = "Background topic to back off to (0-2)", validateWith = checkBackoffTopic.class)
+		int backoffTopic = 2;
+
+		@Parameter(names = { "-o", "--outFile" }, description = "Where to save the folded LOC (JSON Lines)", required = true)
+		File outFile;
+
+		@Parameter(names = { "-t", "--threads" }, description = "No. threads to fold files on")
+		int nThreads = Runtime.getRuntime().availableProcessors();
+
+		@Parameter(names = { "-k", "--cacheDir" }, description = "Directory of the fold cache (unchanged files are not folded again)")
+		File cacheDir = null;
+
+		@Parameter(names = { "-l", "--lazyGreedy" }, description = "Only re-evaluate the best candidate node at each unfolding step (faster, but may unfold different nodes)")
+		boolean lazyGreedy = false;
+
+		@Parameter(names = { "-i", "--idfTable" }, description = "IDF table for tf-idf weighting with the VSM (see BuildIdfTable)")
+		File idfTable = null;
+	}
+
+	// Files in flight per thread (bounds memory use)
+	private static final int FILES_PER_THREAD = 4;
+
+	// Report progress every so many files
+	private static final int PROGRESS_INTERVAL = 100;
+
+	public static void main(final String[] args) throws IOException {
+
+		final Parameters params = new Parameters();
+		final JCommander jc = new JCommander(params);
+
+		try {
+			jc.parse(args);
+			final FoldCache cache = params.cacheDir != null ? new FoldCache(
+					FoldCache.DEFAULT_MAX_BYTES, params.cacheDir) : null;
+			final IdfTable idfTable = params.idfTable != null ? IdfTable
+					.read(params.idfTable) : null;
+			foldProject(params.workingDir, params.projectDir, params.project,
+					params.compressionRatio, params.backoffTopic,
+					params.lazyGreedy, idfTable, params.outFile,
+					params.nThreads, cache);
+		} catch (final ParameterException e) {
+			System.out.println(e.getMessage());
+			jc.usage();
+		}
+
+	}
+
+	/**
+	 * Fold all java files in given project directory, saving the folded LOC
+	 * of each file to outFile as JSON Lines
+	 *
+	 * @param workingDir
+	 *            working directory where the topic has created necessary files
+	 *            (or null to fold using the VSM)
+	 * @param projectDir
+	 *            directory of the project to fold
+	 * @param project
+	 *            project name in the topic model (or null for the name of the
+	 *            project directory)
+	 * @param compressionRatio
+	 *            (%) desired compression ratio
+	 * @param backoffTopic
+	 *            background topic to back off to (0-2)
+	 * @param outFile
+	 *            where to save the folded LOC
+	 * @param nThreads
+	 *            no. threads to fold files on
+	 *
+	 * @return no. files folded successfully
+	 */
+	public static int foldProject(final String workingDir,
+			final File projectDir, final String project,
+			final int compressionRatio, final int backoffTopic,
+			final File outFile, final int nThreads) throws IOException {
+		return foldProject(workingDir, projectDir, project, compressionRatio,
+				backoffTopic, false, null, outFile, nThreads, null);
+	}
+
+	/**
+	 * Fold all java files in given project directory, looking up the folded
+	 * LOC of each file in the given cache first (so the topic model is only
+	 * loaded if some file isn't cached)
+	 *
+	 * @param lazyGreedy
+	 *            use the lazy greedy unfolding (see
+	 *            {@link codesum.lm.main.Settings#lazyGreedy})
+	 * @param idfTable
+	 *            IDF table for tf-idf weighting with the VSM (or null for tf
+	 *            weighting)
+	 * @param cache
+	 *            cache of folded LOC (or null for no cache)
+	 *
+	 * @see #foldProject(String, File, String, int, int, File, int)
+	 */
+	public static int foldProject(final String workingDir,
+			final File projectDir, final String project,
+			final int compressionRatio, final int backoffTopic,
+			final boolean lazyGreedy, final IdfTable idfTable,
+			final File outFile, final int nThreads, final FoldCache cache)
+			throws IOException {
+
+		// Load Topic Model once for all files
+		Supplier<TopicModel> model = null;
+		String modelId = null;
+		if (workingDir != null) {
+			model = FoldSourceFile.getTopicModelSupplier(workingDir);
+			modelId = FoldSourceFile.getModelId(workingDir);
+			if (cache == null)
+				model.get();
+		}
+
+		try (final Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(outFile), StandardCharsets.UTF_8))) {
+			return foldProject(model, modelId, projectDir,
+					project != null ? project : projectDir.getName(),
+					compressionRatio, backoffTopic, lazyGreedy, idfTable, out,
+					nThreads, cache);
+		}
+	}
+
+	/**
+	 * Fold all java files in given project directory using an already loaded
+	 * topic model, writing the folded LOC of each file to out as JSON Lines
+	 *
+	 * @param model
+	 *            topic model (or null to fold using the VSM)
+	 *
+	 * @return no. files folded successfully
+	 *
+	 * @see #foldProject(String, File, String, int, int, File, int)
+	 */
+	public static int foldProject(final TopicModel model,
+			final File projectDir, final String project,
+			final int compressionRatio, final int backoffTopic,
+			final Writer out, final int nThreads) throws IOException {
+		return foldProject(model != null ? Suppliers.ofInstance(model) : null,
+				null, projectDir, project, compressionRatio, backoffTopic, false,
+				null, out, nThreads, null);
+	}
+
+	private static int foldProject(final Supplier<TopicModel> model,
+			final String modelId, final File projectDir, final String project,
+			final int compressionRatio, final int backoffTopic,
+			final boolean lazyGreedy, final IdfTable idfTable,
+			final Writer out, final int nThreads, final FoldCache cache)
+			throws IOException {
+
+		// Get all java files in project
+		final List<File> files = (List<File>) FileUtils.listFiles(projectDir,
+				new String[] { "java" }, true);
+		final int nfiles = files.size();
+		System.out.println("Folding " + nfiles + " files on " + nThreads
+				+ " threads...");
+
+		final ForkJoinPool pool = new ForkJoinPool(nThreads);
+		final Semaphore inFlight = new Semaphore(FILES_PER_THREAD * nThreads);
+		final AtomicInteger nDone = new AtomicInteger();
+		final AtomicInteger nFolded = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final long start = System.currentTimeMillis();
+
+		try {
+			for (final File file : files) {
+
+				// Wait for a free slot so only a few files are held at once
+				inFlight.acquireUninterruptibly();
+
+				// Stop folding once the output can't be written
+				if (failure.get() != null) {
+					inFlight.release();
+					break;
+				}
+
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							final FoldedFile result = foldFile(model, modelId,
+									file, projectDir, project,
+									compressionRatio, backoffTopic,
+									lazyGreedy, idfTable, cache);
+							if (result.folded)
+								nFolded.incrementAndGet();
+							synchronized (out) {
+								out.write(result.json);
+								out.write('\n');
+							}
+						} catch (final Throwable e) {
+							// Rethrown once all files have finished
+							failure.compareAndSet(null, e);
+							return;
+						} finally {
+							inFlight.release();
+						}
+
+						final int done = nDone.incrementAndGet();
+						if (done % PROGRESS_INTERVAL == 0 || done == nfiles)
+							printProgress(done, nfiles, start);
+					}
+				});
+			}
+
+			// Wait for all files to finish
+			inFlight.acquireUninterruptibly(FILES_PER_THREAD * nThreads);
+		} finally {
+			pool.shutdown();
+		}
+		if (failure.get() != null) {
+			Throwables.propagateIfPossible(failure.get(), IOException.class);
+			throw new RuntimeException(failure.get());
+		}
+		out.flush();
+
+		System.out.println("done. Folded " + nFolded.get() + " of " + nfiles
+				+ " files.");
+		if (cache != null)
+			System.out.println("Fold cache: " + cache);
+		return nFolded.get();
+	}
+
+	/** Fold file and return its JSON line */
+	private static FoldedFile foldFile(final Supplier<TopicModel> model,
+			final String modelId, final File file, final File projectDir,
+			final String project, final int compressionRatio,
+			final int backoffTopic, final boolean lazyGreedy,
+			final IdfTable idfTable, final FoldCache cache) {
+
+		final String path = projectDir.toURI().relativize(file.toURI())
+				.getPath();
+		try {
+			final List<Integer> foldedLOC;
+			final SourceBuffer source = CodeUtils.readSource(file);
+			if (cache != null) {
+				if (model == null)
+					foldedLOC = FoldSourceFileVSM.foldSourceFileVSM(source,
+							compressionRatio, idfTable, lazyGreedy, null, cache);
+				else
+					foldedLOC = FoldSourceFile.foldSourceFile(model, modelId,
+							source, project, compressionRatio, backoffTopic,
+							lazyGreedy, cache);
+			} else if (model == null)
+				foldedLOC = FoldSourceFileVSM.foldSourceFileVSM(source,
+						compressionRatio, idfTable, lazyGreedy, null);
+			else
+				foldedLOC = FoldSourceFile.foldSourceFile(model.get(), source,
+						project, compressionRatio, backoffTopic, lazyGreedy,
+						null);
+			return new FoldedFile("{\"file\":" + jsonString(path)
+					+ ",\"folded\":[" + Joiner.on(",").join(foldedLOC) + "]}",
+					true);
+		} catch (final RuntimeException e) {
+			return new FoldedFile("{\"file\":" + jsonString(path)
+					+ ",\"error\":" + jsonString(String.valueOf(e)) + "}",
+					false);
+		}
+	}
+
+	/** JSON line of a file and whether it was folded successfully */
+	private static class FoldedFile {
+
+		private final String json;
+		private final boolean folded;
+
+		public FoldedFile(final String json, final boolean folded) {
+			this.json = json;
+			this.folded = folded;
+		}
+
+	}
+
+	private static void printProgress(final int done, final int nfiles,
+			final long start) {
+		final double secs = (System.currentTimeMillis() - start) / 1000.;
+		System.out.println(String.format("Folded %d/%d files (%.1f files/s)",
+				done, nfiles, done / Math.max(secs, 1e-3)));
+	}
+
+	/** Quote and escape string as JSON */
+	static String jsonString(final String s) {
+		final StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else if (c == '\r')
+				sb.append("\\r");
+			else if (c == '\t')
+				sb.append("\\t");
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	private FoldProject() {
+	}
+
+}
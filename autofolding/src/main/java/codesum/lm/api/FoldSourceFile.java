@@ -1,25 +1,36 @@
 package codesum.lm.api;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
 
 import org.eclipse.jdt.core.dom.CompilationUnit;
 
-import codesum.lm.main.ASTVisitors;
 import codesum.lm.main.ASTVisitors.TreeCreatorVisitor;
 import codesum.lm.main.CodeUtils;
+import codesum.lm.main.LineIndex;
 import codesum.lm.main.Settings;
+import codesum.lm.main.SourceBuffer;
 import codesum.lm.main.UnfoldAlgorithms;
 import codesum.lm.main.UnfoldAlgorithms.GreedyTopicSumAlgorithm;
-import codesum.lm.topicsum.GibbsSampler;
 import codesum.lm.topicsum.Topic;
+import codesum.lm.topicsum.TopicModel;
+import codesum.lm.topicsum.TopicSum;
 
 import com.beust.jcommander.IParameterValidator;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 public class FoldSourceFile {
 
@@ -43,6 +54,12 @@ public class FoldSourceFile {
 
 		@Parameter(names = { "-o", "--outFile" }, description = "Where to save folded source file")
 		File outFile = null;
+
+		@Parameter(names = { "-k", "--cacheDir" }, description = "Directory of the fold cache (folded files are looked up before loading the model)")
+		File cacheDir = null;
+
+		@Parameter(names = { "-l", "--lazyGreedy" }, description = "Only re-evaluate the best candidate node at each unfolding step (faster, but may unfold different nodes)")
+		boolean lazyGreedy = false;
 	}
 
 	public static void main(final String[] args) {
@@ -52,9 +69,16 @@ public class FoldSourceFile {
 
 		try {
 			jc.parse(args);
-			foldSourceFile(params.workingDir, params.file, params.project,
-					params.compressionRatio, params.backoffTopic,
-					params.outFile);
+			if (params.cacheDir != null)
+				foldSourceFile(params.workingDir, params.file, params.project,
+						params.compressionRatio, params.backoffTopic,
+						params.lazyGreedy, params.outFile, new FoldCache(
+								FoldCache.DEFAULT_MAX_BYTES, params.cacheDir));
+			else
+				foldSourceFile(readTopicModel(params.workingDir),
+						CodeUtils.readSource(params.file), params.project,
+						params.compressionRatio, params.backoffTopic,
+						params.lazyGreedy, params.outFile);
 		} catch (final ParameterException e) {
 			System.out.println(e.getMessage());
 			jc.usage();
@@ -84,6 +108,183 @@ public class FoldSourceFile {
 			final File file, final String project, final int compressionRatio,
 			final int backoffTopic, final File outFile) {
 
+		// Load Topic Model
+		final TopicModel sampler = readTopicModel(workingDir);
+
+		return foldSourceFile(sampler, file, project, compressionRatio,
+				backoffTopic, outFile);
+	}
+
+	/**
+	 * Read the topic model trained in the given working directory
+	 *
+	 * @param workingDir
+	 *            working directory where the topic has created necessary files
+	 */
+	public static TopicModel readTopicModel(final String workingDir) {
+		return TopicSum.readTopicModel(workingDir + "TopicSum/Source/",
+				"SamplerState.ser");
+	}
+
+	/**
+	 * Fold given source file using an already loaded topic model and return
+	 * list of folded LOC
+	 *
+	 * @param sampler
+	 *            topic model (see {@link #readTopicModel(String)})
+	 *
+	 * @see #foldSourceFile(String, File, String, int, int, File)
+	 */
+	public static ArrayList<Integer> foldSourceFile(final TopicModel sampler,
+			final File file, final String project, final int compressionRatio,
+			final int backoffTopic, final File outFile) {
+		return foldSourceFile(sampler, CodeUtils.readSource(file), project,
+				compressionRatio, backoffTopic, outFile);
+	}
+
+	/**
+	 * Fold given (already read or unsaved) source file using an already
+	 * loaded topic model and return list of folded LOC
+	 *
+	 * @param source
+	 *            contents of file to fold
+	 *
+	 * @see #foldSourceFile(TopicModel, File, String, int, int, File)
+	 */
+	public static ArrayList<Integer> foldSourceFile(final TopicModel sampler,
+			final SourceBuffer source, final String project,
+			final int compressionRatio, final int backoffTopic,
+			final File outFile) {
+		return foldSourceFile(sampler, source, project, compressionRatio,
+				backoffTopic, false, outFile);
+	}
+
+	/**
+	 * Fold given (already read or unsaved) source file using an already
+	 * loaded topic model and return list of folded LOC
+	 *
+	 * @param lazyGreedy
+	 *            use the lazy greedy unfolding (see
+	 *            {@link Settings#lazyGreedy})
+	 *
+	 * @see #foldSourceFile(TopicModel, SourceBuffer, String, int, int, File)
+	 */
+	public static ArrayList<Integer> foldSourceFile(final TopicModel sampler,
+			final SourceBuffer source, final String project,
+			final int compressionRatio, final int backoffTopic,
+			final boolean lazyGreedy, final File outFile) {
+
+		final ArrayList<Integer> foldedLOC = fold(sampler, source,
+				getSettings(project, compressionRatio, backoffTopic,
+						lazyGreedy));
+
+		// Save folds to file if requested
+		if (outFile != null)
+			CodeUtils.saveStringFile(Joiner.on(" ").join(foldedLOC), outFile);
+
+		return foldedLOC;
+	}
+
+	/**
+	 * Fold given source file, looking up the folded LOC in the given cache
+	 * first and only getting the topic model on a miss
+	 *
+	 * @param sampler
+	 *            supplies the topic model (e.g. loading it once on first use)
+	 * @param modelId
+	 *            id and version of the topic model (see
+	 *            {@link #getModelId(String)})
+	 * @param cache
+	 *            cache of folded LOC
+	 *
+	 * @see #foldSourceFile(TopicModel, SourceBuffer, String, int, int,
+	 *      boolean, File)
+	 */
+	public static ArrayList<Integer> foldSourceFile(
+			final Supplier<TopicModel> sampler, final String modelId,
+			final SourceBuffer source, final String project,
+			final int compressionRatio, final int backoffTopic,
+			final boolean lazyGreedy, final FoldCache cache) {
+		final Settings set = getSettings(project, compressionRatio,
+				backoffTopic, lazyGreedy);
+		return cache.get(getCacheKey(modelId, source, set),
+				new Callable<ArrayList<Integer>>() {
+					@Override
+					public ArrayList<Integer> call() {
+						return fold(sampler.get(), source, set);
+					}
+				});
+	}
+
+	/**
+	 * Fold given source file, looking up the folded LOC in the given cache
+	 * before loading the topic model
+	 *
+	 * @param cache
+	 *            cache of folded LOC
+	 *
+	 * @see #foldSourceFile(String, File, String, int, int, File)
+	 */
+	public static ArrayList<Integer> foldSourceFile(final String workingDir,
+			final File file, final String project, final int compressionRatio,
+			final int backoffTopic, final boolean lazyGreedy,
+			final File outFile, final FoldCache cache) {
+
+		final ArrayList<Integer> foldedLOC = foldSourceFile(
+				getTopicModelSupplier(workingDir), getModelId(workingDir),
+				CodeUtils.readSource(file), project, compressionRatio,
+				backoffTopic, lazyGreedy, cache);
+
+		// Save folds to file if requested
+		if (outFile != null)
+			CodeUtils.saveStringFile(Joiner.on(" ").join(foldedLOC), outFile);
+
+		return foldedLOC;
+	}
+
+	/** @return supplier that loads the topic model once, on first use */
+	public static Supplier<TopicModel> getTopicModelSupplier(
+			final String workingDir) {
+		return Suppliers.memoize(new Supplier<TopicModel>() {
+			@Override
+			public TopicModel get() {
+				System.out.println("Loading the model...");
+				return readTopicModel(workingDir);
+			}
+		});
+	}
+
+	/**
+	 * Get id and version of the topic model trained in the given working
+	 * directory (hash of its file), e.g. for keying a {@link FoldCache}
+	 */
+	public static String getModelId(final String workingDir) {
+		File modelFile = new File(workingDir + "TopicSum/Source/"
+				+ TopicSum.INFERENCE_MODEL_NAME);
+		if (!modelFile.exists())
+			modelFile = new File(workingDir
+					+ "TopicSum/Source/SamplerState.ser");
+		try {
+			return Files.asByteSource(modelFile).hash(Hashing.murmur3_128())
+					.toString();
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to read topic model "
+					+ modelFile, e);
+		}
+	}
+
+	private static FoldCache.Key getCacheKey(final String modelId,
+			final SourceBuffer source, final Settings set) {
+		// Topic model looks file up by its path in the project
+		return new FoldCache.Key(source, CodeUtils.getRelativePath(
+				source.getFile(), set.curProj), modelId, "topic", set);
+	}
+
+	/** Code folder settings for folding with the topic model */
+	private static Settings getSettings(final String project,
+			final int compressionRatio, final int backoffTopic,
+			final boolean lazyGreedy) {
+
 		// Set paths and default code folder settings
 		final Settings set = new Settings();
 
@@ -92,58 +293,171 @@ public class FoldSourceFile {
 		set.backoffTopicID = backoffTopic;
 		set.curProj = project;
 		set.compressionRatio = 100 - compressionRatio;
+		set.lazyGreedy = lazyGreedy;
 
-		// Load Topic Model
-		final GibbsSampler sampler = GibbsSampler.readCorpus(workingDir
-				+ "TopicSum/Source/SamplerState.ser");
+		return set;
+	}
 
-		// Generate AST
-		final CompilationUnit cu = CodeUtils.getAST(file);
+	/** Fold source file with given settings and return list of folded LOC */
+	private static ArrayList<Integer> fold(final TopicModel sampler,
+			final SourceBuffer source, final Settings set) {
 
 		// Create folded tree
-		final ASTVisitors.TreeCreatorVisitor tcv = new TreeCreatorVisitor();
-		tcv.process(cu, file, null, sampler, set);
+		final TreeCreatorVisitor tcv = createTree(sampler, source, set);
 
 		// Run selected algorithm on folded tree and return regions to unfold
 		final ArrayList<Range<Integer>> unfoldedFolds = UnfoldAlgorithms
 				.unfoldTree(tcv.getTree(), new GreedyTopicSumAlgorithm(), false);
 
 		// Get folded LOC
-		final ArrayList<Integer> foldedLOC = getFoldedLines(file,
-				unfoldedFolds, tcv.allFolds);
+		return getFoldedLines(source.getLineIndex(), unfoldedFolds,
+				tcv.allFolds);
+	}
 
-		// Save folds to file if requested
-		if (outFile != null)
-			CodeUtils.saveStringFile(Joiner.on(" ").join(foldedLOC), outFile);
+	/**
+	 * Fold source file with given settings at each of the given ratios (as in
+	 * {@link Settings}) and return list of folded LOC for each ratio
+	 */
+	private static ArrayList<ArrayList<Integer>> fold(
+			final TopicModel sampler, final SourceBuffer source,
+			final Settings set, final int[] settingsRatios) {
+
+		// Create folded tree
+		final TreeCreatorVisitor tcv = createTree(sampler, source, set);
 
+		// Run selected algorithm on folded tree at all ratios
+		final ArrayList<ArrayList<Range<Integer>>> unfoldedFolds = UnfoldAlgorithms
+				.unfoldTree(tcv.getTree(), new GreedyTopicSumAlgorithm(),
+						settingsRatios, false);
+
+		// Get folded LOC for each ratio
+		return getFoldedLinesAtRatios(source.getLineIndex(), unfoldedFolds,
+				tcv.allFolds);
+	}
+
+	/** Create folded tree of source file with given settings */
+	private static TreeCreatorVisitor createTree(final TopicModel sampler,
+			final SourceBuffer source, final Settings set) {
+
+		// Generate AST
+		final CompilationUnit cu = CodeUtils.getAST(source);
+
+		// Create folded tree
+		final TreeCreatorVisitor tcv = new TreeCreatorVisitor();
+		tcv.process(cu, source, null, sampler, set);
+		return tcv;
+	}
+
+	/**
+	 * Fold given source file at each of the given compression ratios (e.g. to
+	 * preview the file at many compression levels), building its tree once
+	 * and replaying the unfolding steps between ratios, and return list of
+	 * folded LOC for each ratio
+	 *
+	 * @param compressionRatios
+	 *            (%) desired compression ratios
+	 *
+	 * @see #foldSourceFile(TopicModel, SourceBuffer, String, int, int,
+	 *      boolean, File)
+	 */
+	public static ArrayList<ArrayList<Integer>> foldSourceFile(
+			final TopicModel sampler, final SourceBuffer source,
+			final String project, final int[] compressionRatios,
+			final int backoffTopic, final boolean lazyGreedy) {
+		// Tree budget is set for each ratio by the sweep
+		return fold(sampler, source,
+				getSettings(project, 0, backoffTopic, lazyGreedy),
+				getSettingsRatios(compressionRatios));
+	}
+
+	/**
+	 * Fold given source file at each of the given compression ratios, looking
+	 * up the folded LOC at each ratio in the given cache first and, if any
+	 * ratio misses, folding at all ratios at once
+	 *
+	 * @param sampler
+	 *            supplies the topic model (e.g. loading it once on first use)
+	 * @param modelId
+	 *            id and version of the topic model (see
+	 *            {@link #getModelId(String)})
+	 * @param cache
+	 *            cache of folded LOC
+	 *
+	 * @see #foldSourceFile(TopicModel, SourceBuffer, String, int[], int,
+	 *      boolean)
+	 */
+	public static ArrayList<ArrayList<Integer>> foldSourceFile(
+			final Supplier<TopicModel> sampler, final String modelId,
+			final SourceBuffer source, final String project,
+			final int[] compressionRatios, final int backoffTopic,
+			final boolean lazyGreedy, final FoldCache cache) {
+
+		// Fold at all ratios on the first miss
+		final Supplier<ArrayList<ArrayList<Integer>>> sweep = Suppliers
+				.memoize(new Supplier<ArrayList<ArrayList<Integer>>>() {
+					@Override
+					public ArrayList<ArrayList<Integer>> get() {
+						return foldSourceFile(sampler.get(), source, project,
+								compressionRatios, backoffTopic, lazyGreedy);
+					}
+				});
+
+		final ArrayList<ArrayList<Integer>> foldedLOC = new ArrayList<>();
+		for (int i = 0; i < compressionRatios.length; i++) {
+			final int index = i;
+			final Settings set = getSettings(project, compressionRatios[i],
+					backoffTopic, lazyGreedy);
+			foldedLOC.add(cache.get(getCacheKey(modelId, source, set),
+					new Callable<ArrayList<Integer>>() {
+						@Override
+						public ArrayList<Integer> call() {
+							return sweep.get().get(index);
+						}
+					}));
+		}
 		return foldedLOC;
 	}
 
+	/** Convert desired compression ratios to ratios as in {@link Settings} */
+	static int[] getSettingsRatios(final int[] compressionRatios) {
+		final int[] ratios = new int[compressionRatios.length];
+		for (int i = 0; i < ratios.length; i++)
+			ratios[i] = 100 - compressionRatios[i];
+		return ratios;
+	}
+
+	/** Convert unfolded char regions at each ratio to folded LOCs */
+	static ArrayList<ArrayList<Integer>> getFoldedLinesAtRatios(
+			final LineIndex lines,
+			final ArrayList<ArrayList<Range<Integer>>> unfoldedFolds,
+			final ArrayList<Range<Integer>> allFolds) {
+		final ArrayList<ArrayList<Integer>> foldedLines = new ArrayList<>();
+		for (final ArrayList<Range<Integer>> unfolded : unfoldedFolds)
+			foldedLines.add(getFoldedLines(lines, unfolded, allFolds));
+		return foldedLines;
+	}
+
 	/** Convert unfolded char regions to folded LOCs */
-	static ArrayList<Integer> getFoldedLines(final File sourceFile,
+	static ArrayList<Integer> getFoldedLines(final LineIndex lines,
 			final ArrayList<Range<Integer>> unfoldedFolds,
 			final ArrayList<Range<Integer>> allFolds) {
 
-		// Read file to string
-		final String fileString = CodeUtils.readFileString(sourceFile);
-
 		// Convert regions to unfold into lines to fold
 		final ArrayList<Integer> foldedLines = new ArrayList<>();
+		final HashSet<Range<Integer>> unfolded = Sets.newHashSet(unfoldedFolds);
 
 		for (final Range<Integer> fold : allFolds) {
-			if (!unfoldedFolds.contains(fold)) { // If folded
+			if (!unfolded.contains(fold)) { // If folded
 
 				// Get start line +1 (first line of char range isn't folded)
-				int startLine = fileString.substring(0, fold.lowerEndpoint())
-						.split("\n").length;
+				int startLine = lines.getSplitLineCount(fold.lowerEndpoint());
 				// unless fold is the whole file
 				if (fold.lowerEndpoint() != 0
-						|| fold.upperEndpoint() != fileString.length())
+						|| fold.upperEndpoint() != lines.length())
 					startLine += 1;
 
 				// Get end line
-				final int endLine = fileString.substring(0,
-						fold.upperEndpoint()).split("\n").length;
+				final int endLine = lines.getSplitLineCount(fold.upperEndpoint());
 
 				// Add folded LOCs
 				for (int line = startLine; line <= endLine; line++)
@@ -1,23 +1,28 @@
 package codesum.lm.api;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import org.eclipse.jdt.core.dom.CompilationUnit;
 
-import codesum.lm.main.ASTVisitors;
 import codesum.lm.main.ASTVisitors.SimpleNameFileVisitor;
 import codesum.lm.main.ASTVisitors.TreeCreatorVisitor;
 import codesum.lm.main.CodeUtils;
 import codesum.lm.main.Settings;
+import codesum.lm.main.SourceBuffer;
 import codesum.lm.main.UnfoldAlgorithms;
 import codesum.lm.main.UnfoldAlgorithms.GreedyVSMAlgorithm;
+import codesum.lm.vsm.IdfTable;
 import codesum.lm.vsm.TokenVector;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.Range;
 
 public class FoldSourceFileVSM {
@@ -34,17 +39,35 @@ public class FoldSourceFileVSM {
 		@Parameter(names = { "-o", "--outFile" }, description = "Where to save folded source file")
 		File outFile = null;
 
+		@Parameter(names = { "-i", "--idfTable" }, description = "IDF table for tf-idf weighting (see BuildIdfTable)")
+		File idfTable = null;
+
+		@Parameter(names = { "-k", "--cacheDir" }, description = "Directory of the fold cache")
+		File cacheDir = null;
+
+		@Parameter(names = { "-l", "--lazyGreedy" }, description = "Only re-evaluate the best candidate node at each unfolding step (faster, but may unfold different nodes)")
+		boolean lazyGreedy = false;
+
 	}
 
-	public static void main(final String[] args) {
+	public static void main(final String[] args) throws IOException {
 
 		final Parameters params = new Parameters();
 		final JCommander jc = new JCommander(params);
 
 		try {
 			jc.parse(args);
-			foldSourceFileVSM(params.file, params.compressionRatio,
-					params.outFile);
+			final IdfTable idfTable = params.idfTable != null ? IdfTable
+					.read(params.idfTable) : null;
+			if (params.cacheDir != null)
+				foldSourceFileVSM(CodeUtils.readSource(params.file),
+						params.compressionRatio, idfTable, params.lazyGreedy,
+						params.outFile, new FoldCache(
+								FoldCache.DEFAULT_MAX_BYTES, params.cacheDir));
+			else
+				foldSourceFileVSM(CodeUtils.readSource(params.file),
+						params.compressionRatio, idfTable, params.lazyGreedy,
+						params.outFile);
 		} catch (final ParameterException e) {
 			System.out.println(e.getMessage());
 			jc.usage();
@@ -66,6 +89,99 @@ public class FoldSourceFileVSM {
 	 */
 	public static ArrayList<Integer> foldSourceFileVSM(final File file,
 			final int compressionRatio, final File outFile) {
+		return foldSourceFileVSM(file, compressionRatio, null, outFile);
+	}
+
+	/**
+	 * Fold given source file using tf-idf weights and return list of folded
+	 * LOC
+	 *
+	 * @param idfTable
+	 *            corpus IDF table (or null for tf weights only)
+	 *
+	 * @see #foldSourceFileVSM(File, int, File)
+	 */
+	public static ArrayList<Integer> foldSourceFileVSM(final File file,
+			final int compressionRatio, final IdfTable idfTable,
+			final File outFile) {
+		return foldSourceFileVSM(CodeUtils.readSource(file), compressionRatio,
+				idfTable, outFile);
+	}
+
+	/**
+	 * Fold given (already read or unsaved) source file and return list of
+	 * folded LOC
+	 *
+	 * @param source
+	 *            contents of file to fold
+	 *
+	 * @see #foldSourceFileVSM(File, int, IdfTable, File)
+	 */
+	public static ArrayList<Integer> foldSourceFileVSM(
+			final SourceBuffer source, final int compressionRatio,
+			final IdfTable idfTable, final File outFile) {
+		return foldSourceFileVSM(source, compressionRatio, idfTable, false,
+				outFile);
+	}
+
+	/**
+	 * Fold given (already read or unsaved) source file and return list of
+	 * folded LOC
+	 *
+	 * @param lazyGreedy
+	 *            use the lazy greedy unfolding (see
+	 *            {@link Settings#lazyGreedy})
+	 *
+	 * @see #foldSourceFileVSM(SourceBuffer, int, IdfTable, File)
+	 */
+	public static ArrayList<Integer> foldSourceFileVSM(
+			final SourceBuffer source, final int compressionRatio,
+			final IdfTable idfTable, final boolean lazyGreedy,
+			final File outFile) {
+
+		final ArrayList<Integer> foldedLOC = fold(source, idfTable,
+				getSettings(compressionRatio, lazyGreedy));
+
+		// Save folds to file if requested
+		if (outFile != null)
+			CodeUtils.saveStringFile(Joiner.on(" ").join(foldedLOC), outFile);
+
+		return foldedLOC;
+	}
+
+	/**
+	 * Fold given source file, looking up the folded LOC in the given cache
+	 * first
+	 *
+	 * @param cache
+	 *            cache of folded LOC
+	 *
+	 * @see #foldSourceFileVSM(SourceBuffer, int, IdfTable, boolean, File)
+	 */
+	public static ArrayList<Integer> foldSourceFileVSM(
+			final SourceBuffer source, final int compressionRatio,
+			final IdfTable idfTable, final boolean lazyGreedy,
+			final File outFile, final FoldCache cache) {
+		final Settings set = getSettings(compressionRatio, lazyGreedy);
+		final ArrayList<Integer> foldedLOC = cache.get(
+				getCacheKey(source, idfTable, set),
+				new Callable<ArrayList<Integer>>() {
+					@Override
+					public ArrayList<Integer> call() {
+						return fold(source, idfTable, set);
+					}
+				});
+
+		// Save folds to file if requested
+		if (outFile != null)
+			CodeUtils.saveStringFile(Joiner.on(" ").join(foldedLOC), outFile);
+
+		return foldedLOC;
+	}
+
+	/** Code folder settings for folding with the VSM */
+	private static Settings getSettings(final int compressionRatio,
+			final boolean lazyGreedy) {
 
 		// Set paths and default code folder settings
 		final Settings set = new Settings();
@@ -73,34 +189,132 @@ public class FoldSourceFileVSM {
 		// Main code folder settings
 		set.profitType = "CSimFile";
 		set.compressionRatio = 100 - compressionRatio;
+		set.lazyGreedy = lazyGreedy;
 
-		// Generate AST
-		final CompilationUnit cu = CodeUtils.getAST(file);
+		return set;
+	}
 
-		// Create file term vector
-		final SimpleNameFileVisitor snfv = new SimpleNameFileVisitor();
-		snfv.process(cu, set.splitTokens);
-		final TokenVector fileVec = new TokenVector(snfv.tf);
+	/** Fold source file with given settings and return list of folded LOC */
+	private static ArrayList<Integer> fold(final SourceBuffer source,
+			final IdfTable idfTable, final Settings set) {
 
 		// Create folded tree
-		final ASTVisitors.TreeCreatorVisitor tcv = new TreeCreatorVisitor();
-		tcv.process(cu, file, fileVec, null, set);
+		final TreeCreatorVisitor tcv = createTree(source, idfTable, set);
 
 		// Run selected algorithm on folded tree and return regions to unfold
 		final ArrayList<Range<Integer>> unfoldedFolds = UnfoldAlgorithms
 				.unfoldTree(tcv.getTree(), new GreedyVSMAlgorithm(), false);
 
 		// Get folded LOC
-		final ArrayList<Integer> foldedLOC = FoldSourceFile.getFoldedLines(
-				file, unfoldedFolds, tcv.allFolds);
+		return FoldSourceFile.getFoldedLines(source.getLineIndex(),
+				unfoldedFolds, tcv.allFolds);
+	}
 
-		// Save folds to file if requested
-		if (outFile != null)
-			CodeUtils.saveStringFile(Joiner.on(" ").join(foldedLOC), outFile);
+	/**
+	 * Fold source file with given settings at each of the given ratios (as in
+	 * {@link Settings}) and return list of folded LOC for each ratio
+	 */
+	private static ArrayList<ArrayList<Integer>> fold(
+			final SourceBuffer source, final IdfTable idfTable,
+			final Settings set, final int[] settingsRatios) {
+
+		// Create folded tree
+		final TreeCreatorVisitor tcv = createTree(source, idfTable, set);
+
+		// Run selected algorithm on folded tree at all ratios
+		final ArrayList<ArrayList<Range<Integer>>> unfoldedFolds = UnfoldAlgorithms
+				.unfoldTree(tcv.getTree(), new GreedyVSMAlgorithm(),
+						settingsRatios, false);
+
+		// Get folded LOC for each ratio
+		return FoldSourceFile.getFoldedLinesAtRatios(
+				source.getLineIndex(), unfoldedFolds, tcv.allFolds);
+	}
+
+	/** Create folded tree of source file with given settings */
+	private static TreeCreatorVisitor createTree(final SourceBuffer source,
+			final IdfTable idfTable, final Settings set) {
+
+		// Generate AST
+		final CompilationUnit cu = CodeUtils.getAST(source);
+
+		// Create file term vector
+		final SimpleNameFileVisitor snfv = new SimpleNameFileVisitor();
+		snfv.process(cu, set.splitTokens);
+		final TokenVector fileVec = new TokenVector(snfv.tf, idfTable);
+
+		// Create folded tree
+		final TreeCreatorVisitor tcv = new TreeCreatorVisitor();
+		tcv.process(cu, source, fileVec, null, set);
+		return tcv;
+	}
 
+	/**
+	 * Fold given source file at each of the given compression ratios,
+	 * building its tree once, and return list of folded LOC for each ratio
+	 *
+	 * @param compressionRatios
+	 *            (%) desired compression ratios
+	 *
+	 * @see FoldSourceFile#foldSourceFile(codesum.lm.topicsum.TopicModel,
+	 *      SourceBuffer, String, int[], int, boolean)
+	 */
+	public static ArrayList<ArrayList<Integer>> foldSourceFileVSM(
+			final SourceBuffer source, final int[] compressionRatios,
+			final IdfTable idfTable, final boolean lazyGreedy) {
+		// Tree budget is set for each ratio by the sweep
+		return fold(source, idfTable, getSettings(0, lazyGreedy),
+				FoldSourceFile.getSettingsRatios(compressionRatios));
+	}
+
+	/**
+	 * Fold given source file at each of the given compression ratios, looking
+	 * up the folded LOC at each ratio in the given cache first and, if any
+	 * ratio misses, folding at all ratios at once
+	 *
+	 * @param cache
+	 *            cache of folded LOC
+	 *
+	 * @see #foldSourceFileVSM(SourceBuffer, int[], IdfTable, boolean)
+	 */
+	public static ArrayList<ArrayList<Integer>> foldSourceFileVSM(
+			final SourceBuffer source, final int[] compressionRatios,
+			final IdfTable idfTable, final boolean lazyGreedy,
+			final FoldCache cache) {
+
+		// Fold at all ratios on the first miss
+		final Supplier<ArrayList<ArrayList<Integer>>> sweep = Suppliers
+				.memoize(new Supplier<ArrayList<ArrayList<Integer>>>() {
+					@Override
+					public ArrayList<ArrayList<Integer>> get() {
+						return foldSourceFileVSM(source, compressionRatios,
+								idfTable, lazyGreedy);
+					}
+				});
+
+		final ArrayList<ArrayList<Integer>> foldedLOC = new ArrayList<>();
+		for (int i = 0; i < compressionRatios.length; i++) {
+			final int index = i;
+			foldedLOC.add(cache.get(
+					getCacheKey(source, idfTable,
+							getSettings(compressionRatios[i], lazyGreedy)),
+					new Callable<ArrayList<Integer>>() {
+						@Override
+						public ArrayList<Integer> call() {
+							return sweep.get().get(index);
+						}
+					}));
+		}
 		return foldedLOC;
 	}
 
+	private static FoldCache.Key getCacheKey(final SourceBuffer source,
+			final IdfTable idfTable, final Settings set) {
+		// The file term vector doesn't depend on the file's path
+		return new FoldCache.Key(source, null, idfTable == null ? "tf"
+				: idfTable.getId(), "vsm", set);
+	}
+
 	private FoldSourceFileVSM() {
 	}
 
@@ -42,7 +42,7 @@ import com.google.common.collect.Table;
 import com.google.common.collect.TreeRangeSet;
 
 import codesum.lm.main.FoldableTree.FoldableNode;
-import codesum.lm.topicsum.GibbsSampler;
+import codesum.lm.topicsum.TopicModel;
 import codesum.lm.vsm.TokenVector;
 
 public class ASTVisitors {
@@ -427,11 +427,18 @@ public class ASTVisitors {
 				identifierList.add(token);
 		}
 
-		public void process(final CompilationUnit unit, final File file, final TokenVector fv, final GibbsSampler smp,
+		public void process(final CompilationUnit unit, final File file, final TokenVector fv, final TopicModel smp,
 				final Settings set) {
 
 			// Read source file to string
-			fileString = CodeUtils.readFileString(file);
+			process(unit, SourceBuffer.of(file, CodeUtils.readFileString(file)), fv, smp, set);
+		}
+
+		/** Create foldable tree from the AST of an already read source file */
+		public void process(final CompilationUnit unit, final SourceBuffer source, final TokenVector fv,
+				final TopicModel smp, final Settings set) {
+
+			fileString = source.getString();
 
 			// Initialize settings
 			splitTokens = set.splitTokens;
@@ -439,7 +446,7 @@ public class ASTVisitors {
 			foldLineComments = set.foldLineComments;
 
 			// Create foldable tree
-			tree = new FoldableTree(unit, file, fv, smp, set);
+			tree = new FoldableTree(unit, source.getFile(), fv, smp, set, source.getLineIndex());
 			cu = unit;
 			unit.accept(this);
 
@@ -450,8 +457,7 @@ public class ASTVisitors {
 			tree.setLevels();
 
 			// Set budget
-			final int fileLOC = tree.getRoot().getNodeLOC();
-			tree.setBudget(fileLOC * (1 - (double) set.compressionRatio / 100));
+			tree.setBudget(tree.getBudget(set.compressionRatio));
 		}
 
 		/** Get HashMap of node range to terms for each node in tree */
@@ -3,10 +3,18 @@ package codesum.lm.main;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
@@ -14,7 +22,9 @@ import org.eclipse.jdt.core.dom.CompilationUnit;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
 
 import codemining.java.codeutils.JavaASTExtractor;
 import codemining.util.serialization.ISerializationStrategy.SerializationException;
@@ -38,60 +48,98 @@ public class CodeUtils {
 			final String outFolder = set.baseFolder + "TopicSum/Source/" + curProj + "/";
 			(new File(outFolder)).mkdirs();
 
-			// Get all java files in source folder
-			final List<File> files = (List<File>) FileUtils.listFiles(new File(set.projectsFolder + curProj + "/"),
-					new String[] { "java" }, true);
-
-			int count = 0;
-			for (final File file : files) {
-
-				// Ignore empty files
-				if (file.length() == 0)
-					continue;
-
-				if (count % 50 == 0)
-					System.out.println("At file " + count + " of " + files.size());
-				count++;
-
-				final String originalPath = file.getPath();
-				final String outPutRelativePath = StringUtils.removeStart(originalPath,
-						set.projectsFolder + curProj + "/");
-				final String outputFilePath = outFolder + outPutRelativePath;
+			// Get all non-empty java files in source folder
+			final List<File> files = Lists.newArrayList();
+			for (final File file : FileUtils.listFiles(new File(set.projectsFolder + curProj + "/"),
+					new String[] { "java" }, true)) {
+				if (file.length() != 0)
+					files.add(file);
+			}
 
-				// Write out file with one token line per foldable node
-				final File outFile = new File(outputFilePath);
-				final File parent = outFile.getParentFile();
-				if (!parent.exists() && !parent.mkdirs()) {
-					throw new IllegalStateException("Couldn't create dir: " + parent);
-				}
-				final PrintWriter out = new PrintWriter(outFile, "UTF-8");
+			// Parse files in batches, writing out each as it is parsed
+			final AtomicInteger count = new AtomicInteger();
+			try {
+				getASTs(files, Runtime.getRuntime().availableProcessors(), new BiConsumer<File, CompilationUnit>() {
+					@Override
+					public void accept(final File file, final CompilationUnit cu) {
+
+						final int done = count.getAndIncrement();
+						if (done % 50 == 0)
+							System.out.println("At file " + done + " of " + files.size());
+						if (cu == null) {
+							System.out.println("Skipping unparseable file " + file);
+							return;
+						}
+
+						final String originalPath = file.getPath();
+						final String outPutRelativePath = StringUtils.removeStart(originalPath,
+								set.projectsFolder + curProj + "/");
+						final String outputFilePath = outFolder + outPutRelativePath;
+
+						// Write out file with one token line per foldable node
+						try {
+							saveTokenList(getTokenList(cu, file, set), new File(outputFilePath));
+						} catch (final IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+			} catch (final UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
 
-				final List<String> tokenList = getTokenList(file, set);
+	/**
+	 * Save nodewise token list to file, one line per foldable node.
+	 */
+	public static void saveTokenList(final List<String> tokenList, final File outFile) throws IOException {
 
-				for (final String token : tokenList) {
-					out.print(token + " ");
-					out.print("\n");
-				}
+		final File parent = outFile.getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IllegalStateException("Couldn't create dir: " + parent);
+		}
+		final PrintWriter out = new PrintWriter(outFile, "UTF-8");
 
-				out.close();
-			}
+		for (final String token : tokenList) {
+			out.print(token + " ");
+			out.print("\n");
 		}
+
+		out.close();
 	}
 
 	/**
 	 * Get nodewise token list for a file.
 	 */
 	public static List<String> getTokenList(final File file, final Settings set) {
+		return getTokenList(getAST(file), file, set);
+	}
+
+	/**
+	 * Get nodewise token list for an already parsed file.
+	 */
+	public static List<String> getTokenList(final CompilationUnit cu, final File file, final Settings set) {
 		// Create folded tree and populate nodes with term vectors
 		final TreeCreatorVisitor tcv = new TreeCreatorVisitor();
 
-		tcv.process(getAST(file), file, null, null, set);
+		tcv.process(cu, file, null, null, set);
+
+		return getTokenList(tcv.getTree());
+	}
+
+	/**
+	 * Get nodewise token list for a foldable tree.
+	 */
+	public static List<String> getTokenList(final FoldableTree tree) {
+
+		final HashMap<Integer, Multiset<String>> idTokens = tree.getIDTerms();
 
 		final List<String> tokenList = new ArrayList<String>();
 		// Save foldable node tokens ordered by nodeID
-		for (int nodeID = 0; nodeID < tcv.getTree().getNodeCount(); nodeID++) {
+		for (int nodeID = 0; nodeID < tree.getNodeCount(); nodeID++) {
 			final StringBuilder sb = new StringBuilder();
-			for (final String token : tcv.getIDTokens().get(nodeID)) {
+			for (final String token : idTokens.get(nodeID)) {
 				sb.append(token + " ");
 			}
 			tokenList.add(sb.toString());
@@ -117,6 +165,30 @@ public class CodeUtils {
 		return cu;
 	}
 
+	/**
+	 * Get ASTs for many source files, parsing them in batches on nThreads
+	 * threads and passing each AST (or null if unparseable) to the callback as
+	 * soon as it is parsed. The callback is called concurrently.
+	 */
+	public static void getASTs(final Collection<File> files, final int nThreads,
+			final BiConsumer<File, CompilationUnit> callback) {
+		final JavaASTExtractor ext = new JavaASTExtractor(false, true);
+		ext.getASTs(files, new HashSet<String>(), JavaASTExtractor.DEFAULT_BATCH_SIZE, nThreads, callback);
+	}
+
+	/** Get AST for already read source file */
+	public static CompilationUnit getAST(final SourceBuffer source) {
+
+		CompilationUnit cu = null;
+		final JavaASTExtractor ext = new JavaASTExtractor(false, true);
+		try {
+			cu = ext.getAST(source.getChars(), source.getFile());
+		} catch (final Exception exc) {
+			System.out.println("=+=+=+=+= AST Parse " + exc);
+		}
+		return cu;
+	}
+
 	/**
 	 * Save folds or tokens to file using Kryo serializer
 	 *
@@ -147,6 +219,15 @@ public class CodeUtils {
 		}
 	}
 
+	/** Read in source file once for parsing, tree building and rendering */
+	public static SourceBuffer readSource(final File fin) {
+		try {
+			return SourceBuffer.read(fin);
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to read " + fin, e);
+		}
+	}
+
 	/**
 	 * Read in file as String
 	 *
@@ -165,27 +246,49 @@ public class CodeUtils {
 	}
 
 	/**
-	 * Return folded file as String (there must be a nicer way to do this)
+	 * Return folded file as String
 	 *
 	 * @author Jaroslav Fowkes based on Razvan Ranca's Python code
 	 */
 	public static String getFolded(final String fileString, final HashMap<Range<Integer>, Boolean> folds,
 			final TreeCreatorVisitor tcv) {
 
-		// Set up containers for removed chars, dots comments and javadocs
-		final ArrayList<Integer> rems = Lists.newArrayList();
-		final ArrayList<Integer> dots = Lists.newArrayList();
-		final HashMap<Integer, String> blockComments = Maps.newHashMap();
-		final HashMap<Integer, String> lineComments = Maps.newHashMap();
-		final HashMap<Integer, String> javadocs = Maps.newHashMap();
+		final StringBuilder sb = new StringBuilder(fileString.length());
+		try {
+			writeFolded(fileString, folds, tcv, sb);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e); // StringBuilder doesn't throw
+		}
+
+		// Return folded string
+		return sb.toString();
+	}
+
+	/**
+	 * Write folded file to out in a single sweep over the file. Each folded
+	 * range [l, u] is replaced by a fold marker (javadoc, block comment, line
+	 * comment or {...}) in place of the char before l.
+	 */
+	public static void writeFolded(final CharSequence fileString, final Map<Range<Integer>, Boolean> folds,
+			final TreeCreatorVisitor tcv, final Appendable out) throws IOException {
 
-		// Fill containers with char ranges
+		// Get folded ranges sorted by start
+		final ArrayList<Range<Integer>> folded = Lists.newArrayList();
 		for (final Entry<Range<Integer>, Boolean> entry : folds.entrySet()) {
-			if (entry.getValue()) {
-				rems.addAll(range(entry.getKey().lowerEndpoint() + 1, entry.getKey().upperEndpoint() + 2));
-				dots.add(entry.getKey().lowerEndpoint());
-			}
+			if (entry.getValue())
+				folded.add(entry.getKey());
 		}
+		Collections.sort(folded, new Comparator<Range<Integer>>() {
+			@Override
+			public int compare(final Range<Integer> r1, final Range<Integer> r2) {
+				return r1.lowerEndpoint().compareTo(r2.lowerEndpoint());
+			}
+		});
+
+		// Set up containers for comments and javadocs
+		final HashMap<Integer, String> blockComments = Maps.newHashMap();
+		final HashMap<Integer, String> lineComments = Maps.newHashMap();
+		final HashMap<Integer, String> javadocs = Maps.newHashMap();
 
 		// Discern javadocs and block comments
 		if (tcv != null) {
@@ -197,29 +300,50 @@ public class CodeUtils {
 				javadocs.put(entry.getKey().lowerEndpoint(), entry.getValue());
 		}
 
-		// Print relevant folded markers in string
-		final StringBuffer stringBuffer = new StringBuffer();
-		for (int i = 0; i <= fileString.length(); i++) {
-			if (rems.contains(i))
+		// Position i stands for char i-1, a fold [l, u] removes positions l+1
+		// to u+1 and puts its marker at position l (removal takes precedence)
+		final int len = fileString.length();
+		int next = 0; // next folded range to start
+		int removedTo = -1; // last position removed by started folds
+		int runStart = 1; // first position of current run of unfolded chars
+		for (int i = 0; i <= len; i++) {
+
+			while (next < folded.size() && folded.get(next).lowerEndpoint() + 1 <= i) {
+				removedTo = Math.max(removedTo, folded.get(next).upperEndpoint() + 1);
+				next++;
+			}
+
+			// Skip removed positions
+			if (i <= removedTo) {
+				appendRun(fileString, runStart, i, out);
+				i = removedTo;
+				runStart = removedTo + 1;
 				continue;
-			if (dots.contains(i)) {
+			}
+
+			// Print relevant folded marker
+			if (next < folded.size() && folded.get(next).lowerEndpoint() == i) {
+				appendRun(fileString, runStart, i, out);
+				runStart = i + 1;
 				if (javadocs.containsKey(i))
-					stringBuffer.append(" /**" + javadocs.get(i) + "..*/");
+					out.append(" /**" + javadocs.get(i) + "..*/");
 				else if (blockComments.containsKey(i))
-					stringBuffer.append(" /*" + blockComments.get(i) + "..*/");
+					out.append(" /*" + blockComments.get(i) + "..*/");
 				else if (lineComments.containsKey(i))
-					stringBuffer.append(" //" + lineComments.get(i) + "...");
+					out.append(" //" + lineComments.get(i) + "...");
 				else
-					stringBuffer.append(" {...}");
-				continue;
+					out.append(" {...}");
 			}
-			if (i != 0)
-				stringBuffer.append(fileString.charAt(i - 1));
 		}
+		appendRun(fileString, runStart, len + 1, out);
+	}
 
-		// Return folded string
-		return stringBuffer.toString();
-
+	/** Append chars at positions from to end (exclusive) */
+	private static void appendRun(final CharSequence fileString, final int from, final int to,
+			final Appendable out) throws IOException {
+		final int start = Math.max(from, 1);
+		if (start < to)
+			out.append(fileString, start - 1, to - 1);
 	}
 
 	/**
@@ -248,19 +372,23 @@ public class CodeUtils {
 	/** Convert unfolded char regions to folded LOC regions */
 	public static ArrayList<Range<Integer>> getFoldedLOCRanges(final File sourceFile,
 			final ArrayList<Range<Integer>> unfoldedFolds, final ArrayList<Range<Integer>> allFolds) {
+		return getFoldedLOCRanges(new LineIndex(readFileString(sourceFile)), unfoldedFolds, allFolds);
+	}
 
-		// Read file to string
-		final String fileString = readFileString(sourceFile);
+	/** Convert unfolded char regions to folded LOC regions */
+	public static ArrayList<Range<Integer>> getFoldedLOCRanges(final LineIndex lines,
+			final ArrayList<Range<Integer>> unfoldedFolds, final ArrayList<Range<Integer>> allFolds) {
 
 		// Convert regions to unfold into lines to fold
 		final ArrayList<Range<Integer>> foldedLOCRanges = Lists.newArrayList();
+		final HashSet<Range<Integer>> unfolded = Sets.newHashSet(unfoldedFolds);
 
 		for (final Range<Integer> fold : allFolds) {
-			if (!unfoldedFolds.contains(fold)) { // If folded
+			if (!unfolded.contains(fold)) { // If folded
 
 				// Get start and end line
-				final int startLine = fileString.substring(0, fold.lowerEndpoint()).split("\n", -1).length;
-				final int endLine = fileString.substring(0, fold.upperEndpoint()).split("\n", -1).length;
+				final int startLine = lines.getLine(fold.lowerEndpoint());
+				final int endLine = lines.getLine(fold.upperEndpoint());
 
 				// Add folded LOC range
 				foldedLOCRanges.add(Range.closed(startLine, endLine));
@@ -17,7 +17,11 @@ import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 
-import codesum.lm.topicsum.GibbsSampler;
+import codesum.lm.topicsum.KLDivEngine;
+import codesum.lm.topicsum.TopicModel;
+import codesum.lm.vsm.IncrementalTokenVector;
+import codesum.lm.vsm.SparseVector;
+import codesum.lm.vsm.TermDictionary;
 import codesum.lm.vsm.TokenVector;
 
 /**
@@ -27,20 +31,35 @@ public class FoldableTree {
 
 	private final CompilationUnit cu;
 	private final File file;
-	private final GibbsSampler sampler;
+	private final TopicModel sampler;
 	private final TokenVector fileVec;
 	private FoldableNode root;
 	private double budget;
 	private final Settings set;
+	private final LineIndex lineIndex;
 	private int nodeCount;
 
-	public FoldableTree(final CompilationUnit unit, final File fl, final TokenVector fv, final GibbsSampler smpl,
+	// Dictionary of term ids for node term vectors
+	private final TermDictionary dictionary = new TermDictionary();
+
+	public FoldableTree(final CompilationUnit unit, final File fl, final TokenVector fv, final TopicModel smpl,
 			final Settings settings) {
+		this(unit, fl, fv, smpl, settings, null);
+	}
+
+	/**
+	 * @param lines
+	 *            line index of the file (or null to get line numbers from the
+	 *            compilation unit)
+	 */
+	public FoldableTree(final CompilationUnit unit, final File fl, final TokenVector fv, final TopicModel smpl,
+			final Settings settings, final LineIndex lines) {
 		cu = unit;
 		file = fl;
 		fileVec = fv;
 		sampler = smpl;
 		set = settings;
+		lineIndex = lines;
 		nodeCount = 0;
 	}
 
@@ -74,10 +93,36 @@ public class FoldableTree {
 		budget -= cost;
 	}
 
+	/** Get budget (in LOC) for given compression ratio (%) */
+	public double getBudget(final int compressionRatio) {
+		return root.getNodeLOC() * (1 - (double) compressionRatio / 100);
+	}
+
+	/** Fold all nodes (to unfold the tree again from scratch) */
+	public void foldAll() {
+		root.traverse(new FoldOp(), null);
+	}
+
 	public int getNodeCount() {
 		return nodeCount;
 	}
 
+	/** Get line index of the file (may be null) */
+	public LineIndex getLineIndex() {
+		return lineIndex;
+	}
+
+	/** Get line number of char position in the file */
+	private int getLineNumber(final int position) {
+		if (lineIndex != null)
+			return lineIndex.getLine(position);
+		return cu.getLineNumber(position);
+	}
+
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
 	// TODO refactor out settings
 	public Settings getSettings() {
 		return set;
@@ -115,6 +160,9 @@ public class FoldableTree {
 		// raw-tfs at current level (not inc. children's)
 		private final Multiset<String> termFreqs;
 
+		// raw-tfs keyed by term id (lazily set)
+		private SparseVector termVector;
+
 		public FoldableNode parent = null;
 		public ASTNode node;
 		public int level = -1;
@@ -134,15 +182,18 @@ public class FoldableTree {
 
 		public void addTerm(final String term) {
 			termFreqs.add(term);
+			termVector = null;
 		}
 
 		public void addTerms(final List<String> terms) {
 			termFreqs.addAll(terms);
+			termVector = null;
 		}
 
 		public void removeTerms(final List<String> terms) {
 			for (final String term : terms)
 				termFreqs.remove(term);
+			termVector = null;
 		}
 
 		public <T> T traverse(final NodeOp<T> op, final T prev) {
@@ -172,6 +223,13 @@ public class FoldableTree {
 			return termFreqs;
 		}
 
+		/** Get raw-tfs keyed by term id in the tree's dictionary */
+		public SparseVector getTermVector() {
+			if (termVector == null)
+				termVector = SparseVector.fromCounts(termFreqs, dictionary);
+			return termVector;
+		}
+
 		public boolean isUnfolded() {
 			return isUnfolded;
 		}
@@ -201,14 +259,14 @@ public class FoldableTree {
 
 		/** Print node range in LOC */
 		public String printRange() {
-			return "(" + cu.getLineNumber(node.getStartPosition()) + ", "
-					+ cu.getLineNumber(node.getStartPosition() + node.getLength() - 1) + ")";
+			return "(" + getLineNumber(node.getStartPosition()) + ", "
+					+ getLineNumber(node.getStartPosition() + node.getLength() - 1) + ")";
 		}
 
 		/** Get length of node in LOC */
 		public int getNodeLOC() {
-			return cu.getLineNumber(node.getStartPosition() + node.getLength() - 1)
-					- cu.getLineNumber(node.getStartPosition()) + 1;
+			return getLineNumber(node.getStartPosition() + node.getLength() - 1)
+					- getLineNumber(node.getStartPosition()) + 1;
 		}
 
 		/** Get cost in LOC unique to this node */
@@ -228,6 +286,9 @@ public class FoldableTree {
 	public interface GreedyNodeOp {
 		public void addNodeToUnfolded(final FoldableNode node);
 
+		/** Get profit of the unfolded nodes alone (NaN if there is no profit) */
+		public double getUnfoldedProfit();
+
 		public int performOp(FoldableNode fn, int prev, HashMap<FoldableNode, Option> options);
 	}
 
@@ -248,6 +309,14 @@ public class FoldableTree {
 		}
 	}
 
+	public static class FoldOp implements NodeOp<Void> {
+		@Override
+		public Void performOp(final FoldableNode fn, final Void prev) {
+			fn.isUnfolded = false;
+			return null;
+		}
+	}
+
 	/**
 	 * Add comment nodes to tree along with terms (if present)
 	 */
@@ -302,6 +371,11 @@ public class FoldableTree {
 		public void addNodeToUnfolded(final FoldableNode node) {
 		}
 
+		@Override
+		public double getUnfoldedProfit() {
+			return Double.NaN;
+		}
+
 		@Override
 		public int performOp(final FoldableNode fn, final int prev, final HashMap<FoldableNode, Option> options) {
 
@@ -327,9 +401,30 @@ public class FoldableTree {
 		// Containers for unfolded terms
 		private final Multiset<String> unfoldedTerms = HashMultiset.create();
 
+		// File tf-idf weights keyed by term id
+		private final SparseVector fileWeights = fileVec != null ? fileVec.toSparseVector(dictionary) : null;
+
+		// Incremental cosine similarity of unfolded terms (if supported)
+		private final IncrementalTokenVector unfoldedVec = fileVec != null
+				&& IncrementalTokenVector.isSupported(fileVec)
+						? new IncrementalTokenVector(fileWeights, dictionary, fileVec.idfTable) : null;
+
 		@Override
 		public void addNodeToUnfolded(final FoldableNode node) {
-			unfoldedTerms.addAll(node.getTermFreqs());
+			if (unfoldedVec != null)
+				unfoldedVec.add(node.getTermVector());
+			else
+				unfoldedTerms.addAll(node.getTermFreqs());
+		}
+
+		@Override
+		public double getUnfoldedProfit() {
+			if (unfoldedVec != null)
+				return unfoldedVec.cosSim();
+			if (unfoldedTerms.isEmpty())
+				return 0;
+			final TokenVector tv = new TokenVector(unfoldedTerms, fileVec.idfTable);
+			return tv.toSparseVector(dictionary).cosSim(fileWeights);
 		}
 
 		@Override
@@ -339,20 +434,24 @@ public class FoldableTree {
 			double profit = 0;
 			if (!fn.isUnfolded) {
 
-				// Add current node terms to unfolded
-				unfoldedTerms.addAll(fn.getTermFreqs());
+				if (!set.profitType.equals("CSimFile"))
+					throw new RuntimeException("Incorrect profit function!");
+
+				// Get VSM profit with current node terms added to unfolded
+				if (unfoldedVec != null) {
+					profit = unfoldedVec.cosSimWith(fn.getTermVector());
+				} else {
 
-				// Calculate tf-idf weights
-				final TokenVector tv = new TokenVector(unfoldedTerms);
+					// Add current node terms to unfolded
+					unfoldedTerms.addAll(fn.getTermFreqs());
 
-				// Get VSM profit
-				if (set.profitType.equals("CSimFile"))
-					profit = tv.cosSim(fileVec);
-				else
-					throw new RuntimeException("Incorrect profit function!");
+					// Calculate tf-idf weights
+					final TokenVector tv = new TokenVector(unfoldedTerms, fileVec.idfTable);
+					profit = tv.toSparseVector(dictionary).cosSim(fileWeights);
 
-				// Remove current node terms from unfolded
-				Multisets.removeOccurrences(unfoldedTerms, fn.getTermFreqs());
+					// Remove current node terms from unfolded
+					Multisets.removeOccurrences(unfoldedTerms, fn.getTermFreqs());
+				}
 
 				if (profit < 0) {
 					System.out.println("Profit: " + profit);
@@ -387,9 +486,30 @@ public class FoldableTree {
 		// Containers for unfolded nodes/terms
 		private final HashSet<Integer> unfoldedNodeIDs = Sets.newHashSet();
 
+		// Incremental KL divergence of unfolded nodes (lazily set)
+		private KLDivEngine klDivEngine;
+
 		@Override
 		public void addNodeToUnfolded(final FoldableNode node) {
-			unfoldedNodeIDs.add(node.getNodeID());
+			if (unfoldedNodeIDs.add(node.getNodeID()) && klDivEngine != null)
+				klDivEngine.addNode(node.getNodeID());
+		}
+
+		@Override
+		public double getUnfoldedProfit() {
+			return -1 * getKLDivEngine().kldiv();
+		}
+
+		/** Get KL divergence engine holding the currently unfolded nodes */
+		private KLDivEngine getKLDivEngine() {
+			if (klDivEngine == null) {
+				final String curFile = CodeUtils.getRelativePath(file, set.curProj);
+				klDivEngine = sampler.getKLDivEngine(set.profitType, set.backoffTopicID, set.curProj, curFile,
+						CodeUtils.getTokenList(FoldableTree.this));
+				for (final int nodeID : unfoldedNodeIDs)
+					klDivEngine.addNode(nodeID);
+			}
+			return klDivEngine;
 		}
 
 		@Override
@@ -399,22 +519,12 @@ public class FoldableTree {
 			double profit = 0;
 			if (!fn.isUnfolded) {
 
-				// Add current node to unfolded
-				unfoldedNodeIDs.add(fn.nodeID);
-
-				// Get specified profit
-				final String curFile = CodeUtils.getRelativePath(file, set.curProj);
-				// final String curFile =
-				// FilenameUtils.getBaseName(file.getName());
+				// Get specified profit with current node added to unfolded
 				if (set.profitType.matches("KLDiv.*"))
-					profit = -1 * sampler.getKLDiv(set.profitType, set.backoffTopicID, set.curProj, curFile,
-							unfoldedNodeIDs);
+					profit = -1 * getKLDivEngine().kldivWithNode(fn.nodeID);
 				else
 					throw new RuntimeException("Incorrect profit function!");
 
-				// Remove current node from unfolded
-				unfoldedNodeIDs.remove(fn.nodeID);
-
 				if (profit < 0 && !set.profitType.matches("KLDiv.*")) {
 					System.out.println("Profit: " + profit);
 					throw new RuntimeException("Profit must be positive!");
@@ -0,0 +1,118 @@
+package codesum.lm.main;
+
+import java.util.Arrays;
+
+/**
+ * Index of the line ends of a source file, built once per file, that converts
+ * between char offsets and (1-based) line numbers by binary search. Lines end
+ * with '\n', '\r' or "\r\n" (as for
+ * {@link org.eclipse.jdt.core.dom.CompilationUnit#getLineNumber(int)}), except
+ * for the legacy {@link #getSplitLineCount(int)} which only splits on '\n'.
+ */
+public class LineIndex {
+
+	// Offsets of '\n' chars in increasing order
+	private final int[] newlines;
+
+	// Offsets of the last char of each line end in increasing order (the same
+	// array as newlines if the file has no lone '\r')
+	private final int[] lineEnds;
+
+	private final int length;
+
+	public LineIndex(final CharSequence fileString) {
+		length = fileString.length();
+		int[] offsets = new int[Math.max(16, length / 32)];
+		int n = 0;
+		int[] crOffsets = null;
+		int ncrs = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = fileString.charAt(i);
+			if (c == '\n') {
+				if (n == offsets.length)
+					offsets = Arrays.copyOf(offsets, 2 * n);
+				offsets[n++] = i;
+			} else if (c == '\r'
+					&& (i + 1 == length || fileString.charAt(i + 1) != '\n')) {
+				if (crOffsets == null)
+					crOffsets = new int[16];
+				else if (ncrs == crOffsets.length)
+					crOffsets = Arrays.copyOf(crOffsets, 2 * ncrs);
+				crOffsets[ncrs++] = i;
+			}
+		}
+		newlines = Arrays.copyOf(offsets, n);
+		lineEnds = ncrs == 0 ? newlines : merge(newlines, crOffsets, ncrs);
+	}
+
+	/** Merge sorted offsets with the first n sorted lone '\r' offsets */
+	private static int[] merge(final int[] newlines, final int[] crs,
+			final int n) {
+		final int[] merged = new int[newlines.length + n];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < merged.length; k++) {
+			if (j == n || i < newlines.length && newlines[i] < crs[j])
+				merged[k] = newlines[i++];
+			else
+				merged[k] = crs[j++];
+		}
+		return merged;
+	}
+
+	/** @return length of the file in chars */
+	public int length() {
+		return length;
+	}
+
+	/** @return no. lines in the file */
+	public int getLineCount() {
+		return lineEnds.length + 1;
+	}
+
+	/**
+	 * @return line containing the char at offset (a line end belongs to the
+	 *         line it ends), or -1 if offset is outside the file
+	 */
+	public int getLine(final int offset) {
+		if (offset < 0 || offset > length)
+			return -1;
+		return countBefore(lineEnds, offset) + 1;
+	}
+
+	/** @return offset of the first char of the given line */
+	public int getOffset(final int line) {
+		if (line < 1 || line > getLineCount())
+			throw new IllegalArgumentException("No line " + line + " in file.");
+		return line == 1 ? 0 : lineEnds[line - 2] + 1;
+	}
+
+	/**
+	 * @return no. lines in the file up to offset as counted by the legacy
+	 *         <code>fileString.substring(0, offset).split("\n").length</code>
+	 *         (which ignores trailing newlines, so is 0 when the prefix is all
+	 *         newlines)
+	 */
+	public int getSplitLineCount(final int offset) {
+		if (offset == 0)
+			return 1;
+
+		// Count newlines at the end of the prefix
+		final int nnewlines = countBefore(newlines, offset);
+		int ntrailing = 0;
+		while (ntrailing < nnewlines
+				&& newlines[nnewlines - 1 - ntrailing] == offset - 1 - ntrailing)
+			ntrailing++;
+
+		if (ntrailing == offset)
+			return 0;
+		return nnewlines + 1 - ntrailing;
+	}
+
+	/** @return no. of the given sorted offsets before offset */
+	private static int countBefore(final int[] offsets, final int offset) {
+		final int i = Arrays.binarySearch(offsets, offset);
+		return i >= 0 ? i : -i - 1;
+	}
+
+}
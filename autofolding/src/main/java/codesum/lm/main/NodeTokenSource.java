@@ -0,0 +1,85 @@
+package codesum.lm.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.Maps;
+
+import codesum.lm.topicsum.DocumentSource;
+
+/**
+ * Supplies the topic model corpus directly from the source files in memory:
+ * each java file is parsed and the tokens belonging to each foldable node
+ * form a sentence, where the sentence number is the nodeID.
+ *
+ * <p>
+ * Documents are located at workingDir/TopicSum/Source/project/relativePath as
+ * if they had been written out by
+ * {@link CodeUtils#saveFileTokensByNodeID(Settings)}, which optionally they
+ * are (for debugging).
+ */
+public class NodeTokenSource implements DocumentSource {
+
+	private final Settings set;
+	private final boolean saveTokens;
+
+	// Document location to source file
+	private final Map<File, File> sourceFiles = Maps.newConcurrentMap();
+
+	/**
+	 * @param saveTokens
+	 *            whether to also write out the node tokens of each file
+	 */
+	public NodeTokenSource(final Settings set, final boolean saveTokens) {
+		this.set = set;
+		this.saveTokens = saveTokens;
+	}
+
+	@Override
+	public List<File> getDocuments(final String project) {
+
+		final String projFolder = set.projectsFolder + project + "/";
+		final String outFolder = set.baseFolder + "TopicSum/Source/" + project
+				+ "/";
+
+		// Get all java files in source folder
+		final List<File> files = (List<File>) FileUtils.listFiles(new File(
+				projFolder), new String[] { "java" }, true);
+
+		final List<File> docs = new ArrayList<>();
+		for (final File file : files) {
+
+			// Ignore empty files
+			if (file.length() == 0)
+				continue;
+
+			final String outPutRelativePath = StringUtils.removeStart(
+					file.getPath(), projFolder);
+			final File docLoc = new File(outFolder + outPutRelativePath);
+			sourceFiles.put(docLoc, file);
+			docs.add(docLoc);
+		}
+		return docs;
+	}
+
+	@Override
+	public List<String> getSentences(final File docLoc) throws IOException {
+
+		final File file = sourceFiles.get(docLoc);
+		if (file == null)
+			throw new IllegalArgumentException("Unknown document " + docLoc);
+
+		final List<String> tokenList = CodeUtils.getTokenList(file, set);
+		if (saveTokens)
+			CodeUtils.saveTokenList(tokenList, docLoc);
+
+		return tokenList;
+	}
+
+}
@@ -25,6 +25,11 @@ public class Settings {
 	public boolean tokenizeComments = true;
 	public boolean foldLineComments = false;
 
+	// Lazy greedy unfolding: only re-evaluate the best candidate node at each
+	// step (off by default as stale gains needn't bound the current gains, so
+	// it may unfold different nodes to the exact greedy unfolding)
+	public boolean lazyGreedy = false;
+
 	// Main variable settings
 	public String curProj;
 	public String profitType;
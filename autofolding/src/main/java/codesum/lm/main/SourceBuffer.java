@@ -0,0 +1,133 @@
+package codesum.lm.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * Contents of a source file, read from disk once (or given directly, e.g. an
+ * unsaved editor buffer) and shared by parsing, tree building and rendering
+ * the folded file. Also holds the file's line index and content hash.
+ */
+public class SourceBuffer {
+
+	private final File file;
+	private final char[] chars;
+
+	// Lazily set
+	private String string;
+	private LineIndex lineIndex;
+	private HashCode hash;
+
+	/**
+	 * @param file
+	 *            path of the source file (need not exist on disk)
+	 * @param chars
+	 *            contents of the source file
+	 */
+	private SourceBuffer(final File file, final char[] chars) {
+		this.file = file;
+		this.chars = chars;
+	}
+
+	/** Create buffer with the given file contents (no disk I/O) */
+	public static SourceBuffer of(final File file, final String content) {
+		final SourceBuffer source = new SourceBuffer(file, content.toCharArray());
+		source.string = content;
+		return source;
+	}
+
+	/**
+	 * Read source file, detecting its charset from any byte order mark and
+	 * otherwise decoding as UTF-8 (or the platform charset if it isn't valid
+	 * UTF-8)
+	 */
+	public static SourceBuffer read(final File file) throws IOException {
+		final byte[] bytes = Files.readAllBytes(file.toPath());
+		return new SourceBuffer(file, decode(bytes));
+	}
+
+	private static char[] decode(final byte[] bytes) throws IOException {
+
+		// Byte order marks
+		if (startsWith(bytes, 0xEF, 0xBB, 0xBF))
+			return decode(bytes, 3, StandardCharsets.UTF_8);
+		if (startsWith(bytes, 0xFE, 0xFF))
+			return decode(bytes, 2, StandardCharsets.UTF_16BE);
+		if (startsWith(bytes, 0xFF, 0xFE))
+			return decode(bytes, 2, StandardCharsets.UTF_16LE);
+
+		try {
+			return toArray(StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(bytes)));
+		} catch (final CharacterCodingException e) {
+			final Charset fallback = Charset.defaultCharset().equals(StandardCharsets.UTF_8)
+					? StandardCharsets.ISO_8859_1 : Charset.defaultCharset();
+			return decode(bytes, 0, fallback);
+		}
+	}
+
+	private static char[] decode(final byte[] bytes, final int offset, final Charset charset) {
+		return toArray(charset.decode(ByteBuffer.wrap(bytes, offset, bytes.length - offset)));
+	}
+
+	private static char[] toArray(final CharBuffer buffer) {
+		return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + buffer.position(),
+				buffer.arrayOffset() + buffer.limit());
+	}
+
+	private static boolean startsWith(final byte[] bytes, final int... prefix) {
+		if (bytes.length < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if ((bytes[i] & 0xFF) != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/** @return path of the source file */
+	public File getFile() {
+		return file;
+	}
+
+	/** @return contents of the source file (not to be modified) */
+	public char[] getChars() {
+		return chars;
+	}
+
+	public int length() {
+		return chars.length;
+	}
+
+	/** @return contents of the source file */
+	public String getString() {
+		if (string == null)
+			string = new String(chars);
+		return string;
+	}
+
+	public LineIndex getLineIndex() {
+		if (lineIndex == null)
+			lineIndex = new LineIndex(CharBuffer.wrap(chars));
+		return lineIndex;
+	}
+
+	/** @return 128-bit hash of the contents */
+	public HashCode getHash() {
+		if (hash == null)
+			hash = Hashing.murmur3_128().hashUnencodedChars(CharBuffer.wrap(chars));
+		return hash;
+	}
+
+}
@@ -1,9 +1,14 @@
 package codesum.lm.main;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 import org.eclipse.jdt.core.dom.ASTNode;
 
@@ -51,20 +56,128 @@ public class UnfoldAlgorithms {
 		return folds;
 	}
 
+	/**
+	 * Unfold the tree at each of the given compression ratios, building the
+	 * tree and its profits once. Ratios are unfolded in order of decreasing
+	 * budget: the steps taken under the previous (larger) budget are replayed
+	 * up to the first step that no longer fits in the current budget, and the
+	 * algorithm only continues from there. This gives the same unfolded nodes
+	 * as unfolding the tree separately at each ratio, since the best node in
+	 * budget remains the best node in any smaller budget that it fits in
+	 * (although the lazy greedy algorithm may differ, see
+	 * {@link GreedyTopicSumAlgorithm}).
+	 *
+	 * @param compressionRatios
+	 *            (%) compression ratios (as in {@link Settings})
+	 * @return unfolded node ranges for each compression ratio (in the given
+	 *         order)
+	 */
+	public static ArrayList<ArrayList<Range<Integer>>> unfoldTree(final FoldableTree tree,
+			final GreedyUnfoldAlgorithm algorithm, final int[] compressionRatios, final boolean debug) {
+
+		// Unfold largest budgets (smallest ratios) first
+		final Integer[] order = new Integer[compressionRatios.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer i, final Integer j) {
+				return Integer.compare(compressionRatios[i], compressionRatios[j]);
+			}
+		});
+
+		final ArrayList<ArrayList<Range<Integer>>> folds = Lists.newArrayList();
+		for (int i = 0; i < compressionRatios.length; i++)
+			folds.add(null);
+
+		ArrayList<Step> prevSteps = null;
+		for (final int i : order) {
+
+			// Fold tree and reset algorithm for the new budget
+			tree.foldAll();
+			tree.setBudget(tree.getBudget(compressionRatios[i]));
+			algorithm.init(tree);
+
+			// Replay steps of the larger budget while they fit
+			final ArrayList<Step> steps = Lists.newArrayList();
+			if (prevSteps != null) {
+				for (final Step step : prevSteps) {
+					if (step.cost > tree.getBudget())
+						break;
+					algorithm.replay(step.nodes);
+					tree.shrinkBudget(step.cost);
+					steps.add(step);
+				}
+			}
+			final int replayed = steps.size();
+
+			// Continue unfolding (unless all steps fit, then no other node can)
+			if (prevSteps == null || steps.size() < prevSteps.size()) {
+				while (true) {
+					final double budget = tree.getBudget();
+					final HashSet<Range<Integer>> rangeSet = algorithm.unfold(tree, debug);
+					if (rangeSet == null)
+						break;
+					steps.add(new Step(Lists.newArrayList(algorithm.lastUnfolded), rangeSet,
+							(int) Math.round(budget - tree.getBudget())));
+				}
+			}
+
+			if (debug)
+				System.out.println("===== Compression ratio " + compressionRatios[i] + ": replayed "
+						+ replayed + " of "
+						+ steps.size() + " steps");
+
+			final ArrayList<Range<Integer>> ranges = Lists.newArrayList();
+			for (final Step step : steps)
+				ranges.addAll(step.ranges);
+			folds.set(i, ranges);
+			prevSteps = steps;
+		}
+
+		return folds;
+	}
+
+	/** Nodes unfolded at a step of a greedy algorithm and their total cost */
+	private static class Step {
+
+		private final ArrayList<FoldableNode> nodes;
+		private final HashSet<Range<Integer>> ranges;
+		private final int cost;
+
+		public Step(final ArrayList<FoldableNode> nodes, final HashSet<Range<Integer>> ranges, final int cost) {
+			this.nodes = nodes;
+			this.ranges = ranges;
+			this.cost = cost;
+		}
+
+	}
+
 	/**
 	 * Abstract class for different greedy unfolding algorithms
 	 *
 	 * @author Jaroslav Fowkes
 	 */
-	private static abstract class GreedyUnfoldAlgorithm {
+	static abstract class GreedyUnfoldAlgorithm {
 
 		// NodeOp (stores unfolded nodes/terms)
-		private GreedyNodeOp greedyOptionsOp;
+		protected GreedyNodeOp greedyOptionsOp;
+
+		// Nodes unfolded at the last step (bestNode first)
+		protected final ArrayList<FoldableNode> lastUnfolded = Lists.newArrayList();
 
 		void init(final FoldableTree tree) {
 			greedyOptionsOp = getOptionsOP(tree);
 		}
 
+		/** Unfold given nodes unfolded at a step of an earlier run */
+		void replay(final List<FoldableNode> nodes) {
+			for (final FoldableNode node : nodes) {
+				node.setUnfolded();
+				greedyOptionsOp.addNodeToUnfolded(node);
+			}
+		}
+
 		HashSet<Range<Integer>> unfold(final FoldableTree tree, final boolean debug) {
 
 			// codeVec.resetMaxMin();
@@ -85,19 +198,34 @@ public class UnfoldAlgorithms {
 			// Take bestNode cost off budget
 			tree.shrinkBudget(options.get(bestNode).cost);
 
-			// Unfold bestNode and any of its folded parents
+			return unfoldNode(bestNode, options, debug);
+		}
+
+		/**
+		 * Unfold bestNode and any of its folded parents
+		 *
+		 * @param options
+		 *            node costs (for debugging, may be null)
+		 * @return ranges of bestNode and any of its folded parents
+		 */
+		protected HashSet<Range<Integer>> unfoldNode(final FoldableNode bestNode,
+				final HashMap<FoldableNode, Option> options, final boolean debug) {
+
 			FoldableNode curNode = bestNode;
 			final HashSet<Range<Integer>> rangeSet = Sets.newHashSet();
+			lastUnfolded.clear();
 			while (curNode != null && !curNode.isUnfolded()) {
 
 				curNode.setUnfolded();
+				lastUnfolded.add(curNode);
 
 				// Add curNode ID & terms to unfoldedNodeIDs for GreedyTopicSum
 				greedyOptionsOp.addNodeToUnfolded(curNode);
 
 				if (debug)
-					System.out.println(
-							"Unfolding curNode cost: " + options.get(curNode).cost + " curNode node:\n " + curNode);
+					System.out.println("Unfolding curNode cost: "
+							+ (options != null ? options.get(curNode).cost : curNode.getUniqueNodeCost())
+							+ " curNode node:\n " + curNode);
 
 				rangeSet.add(curNode.getRange());
 				curNode = curNode.parent;
@@ -118,15 +246,143 @@ public class UnfoldAlgorithms {
 	}
 
 	/**
-	 * GreedyTopicSum algorithm: Unfold node with largest profit per unit cost
+	 * GreedyTopicSum algorithm: Unfold node with largest profit gain over the
+	 * unfolded nodes per unit cost
+	 *
+	 * <p>
+	 * If {@link Settings#lazyGreedy} is set, the algorithm is lazy (CELF): it
+	 * keeps folded nodes in a priority queue keyed by their last gain per unit
+	 * cost, only re-evaluating the node at the top until the top node has
+	 * been evaluated at the current step. Nodes whose cost dropped (as a folded
+	 * parent was unfolded) are re-queued to be re-evaluated. Stale gains are
+	 * only upper bounds if gains diminish as nodes are unfolded, which isn't
+	 * guaranteed for the KL divergence and cosine similarity profits.
 	 */
 	public static class GreedyTopicSumAlgorithm extends GreedyUnfoldAlgorithm {
 
+		// Folded nodes keyed by last gain per unit cost (lazy greedy only)
+		private PriorityQueue<Candidate> candidates;
+
+		// Latest queue entry of each folded node (others are skipped)
+		private HashMap<FoldableNode, Candidate> latest;
+
+		// Current unfolding step
+		private int step;
+
+		@Override
+		void init(final FoldableTree tree) {
+			super.init(tree);
+			candidates = null;
+			latest = null;
+			step = 0;
+		}
+
+		@Override
+		HashSet<Range<Integer>> unfold(final FoldableTree tree, final boolean debug) {
+
+			if (!tree.getSettings().lazyGreedy)
+				return super.unfold(tree, debug);
+
+			step++;
+			final double budget = tree.getBudget();
+			final double unfoldedProfit = greedyOptionsOp.getUnfoldedProfit();
+
+			// Evaluate all folded nodes at the first step
+			if (candidates == null) {
+				final HashMap<FoldableNode, Option> options = new LinkedHashMap<>();
+				tree.getRoot().traverseLinesGreedy(greedyOptionsOp, 0, options);
+
+				candidates = new PriorityQueue<>();
+				latest = new HashMap<>();
+				int order = 0;
+				for (final Map.Entry<FoldableNode, Option> entry : options.entrySet()) {
+					if (!entry.getKey().isUnfolded()) {
+						final Candidate c = new Candidate(entry.getKey(), order);
+						c.setOption(entry.getValue(), unfoldedProfit, budget, step);
+						if (debug)
+							printProfitCostStats(c.node, c.option.profit, c.option.cost, budget, c.gainPerCost);
+						candidates.add(c);
+						latest.put(c.node, c);
+					}
+					order++;
+				}
+			}
+
+			// Re-evaluate the top node until it is up to date
+			Candidate best = null;
+			while (!candidates.isEmpty()) {
+				final Candidate top = candidates.poll();
+
+				// Skip re-queued entries and nodes unfolded as parents of an
+				// earlier best node
+				if (latest.get(top.node) != top || top.node.isUnfolded())
+					continue;
+
+				if (top.step == step) {
+					best = top;
+					break;
+				}
+
+				evaluate(top, unfoldedProfit, budget);
+				if (debug)
+					printProfitCostStats(top.node, top.option.profit, top.option.cost, budget, top.gainPerCost);
+				candidates.add(top);
+			}
+
+			// If there is no node to unfold exit
+			if (best == null || best.gainPerCost == Double.NEGATIVE_INFINITY)
+				return null;
+
+			if (debug)
+				printBestNodeStats(best.node, best.option.profit, best.option.cost, best.gainPerCost);
+
+			// Take bestNode cost off budget
+			tree.shrinkBudget(best.option.cost);
+
+			final HashSet<Range<Integer>> rangeSet = unfoldNode(best.node, null, debug);
+
+			// Nodes below the unfolded nodes are now cheaper, re-evaluate them
+			invalidate(lastUnfolded.get(lastUnfolded.size() - 1));
+
+			return rangeSet;
+		}
+
+		/** Calculate the current cost and gain of the candidate's node */
+		private void evaluate(final Candidate c, final double unfoldedProfit, final double budget) {
+
+			// Cost is accumulated over folded parents (unfolded with the node)
+			int prev = 0;
+			for (FoldableNode parent = c.node.parent; parent != null
+					&& !parent.isUnfolded(); parent = parent.parent)
+				prev += parent.getUniqueNodeCost();
+
+			final HashMap<FoldableNode, Option> options = new HashMap<>();
+			greedyOptionsOp.performOp(c.node, prev, options);
+			c.setOption(options.get(c.node), unfoldedProfit, budget, step);
+		}
+
+		/** Re-queue folded nodes below given node to be re-evaluated first */
+		private void invalidate(final FoldableNode node) {
+			for (final FoldableNode child : node.getChildren()) {
+				if (!child.isUnfolded()) {
+					final Candidate c = latest.get(child);
+					if (c != null) {
+						final Candidate stale = new Candidate(child, c.order);
+						latest.put(child, stale);
+						candidates.add(stale);
+					}
+				}
+				invalidate(child);
+			}
+		}
+
 		@Override
 		protected FoldableNode getBestNode(final HashMap<FoldableNode, Option> options, final double budget,
 				final boolean debug) {
 
-			double maxProfitPerCost = Double.NEGATIVE_INFINITY;
+			final double unfoldedProfit = greedyOptionsOp.getUnfoldedProfit();
+
+			double maxGainPerCost = Double.NEGATIVE_INFINITY;
 			double bestProfit = 0;
 			int bestCost = 0;
 			FoldableNode bestNode = null;
@@ -142,19 +398,17 @@ public class UnfoldAlgorithms {
 					// Get profit
 					final double profit = options.get(fn).profit;
 
-					// Calculate profit per unit cost
-					double profitPerCost = Double.NEGATIVE_INFINITY;
-					if (cost <= budget)
-						profitPerCost = profit / (double) cost;
+					// Calculate profit gain per unit cost
+					final double gainPerCost = getGainPerCost(profit, unfoldedProfit, cost, budget);
 
 					// Print profit per cost stats
 					if (debug) {
-						printProfitCostStats(fn, profit, cost, budget, profitPerCost);
+						printProfitCostStats(fn, profit, cost, budget, gainPerCost);
 					}
 
-					// Set bestNode as node with max profit per unit cost
-					if (profitPerCost > maxProfitPerCost) {
-						maxProfitPerCost = profitPerCost;
+					// Set bestNode as node with max profit gain per unit cost
+					if (gainPerCost > maxGainPerCost) {
+						maxGainPerCost = gainPerCost;
 						bestNode = fn;
 						bestProfit = profit;
 						bestCost = cost;
@@ -164,12 +418,25 @@ public class UnfoldAlgorithms {
 
 			// Print out bestNode and stats
 			if (debug && bestNode != null)
-				printBestNodeStats(bestNode, bestProfit, bestCost, maxProfitPerCost);
+				printBestNodeStats(bestNode, bestProfit, bestCost, maxGainPerCost);
 
 			return bestNode;
 
 		}
 
+		/**
+		 * @return profit gain over the unfolded nodes per unit cost, or -inf
+		 *         for nodes over budget (or with undefined profit) which are
+		 *         never unfolded
+		 */
+		static double getGainPerCost(final double profit, final double unfoldedProfit, final int cost,
+				final double budget) {
+			final double gainPerCost = (profit - unfoldedProfit) / (double) cost;
+			if (cost > budget || Double.isNaN(gainPerCost))
+				return Double.NEGATIVE_INFINITY;
+			return gainPerCost;
+		}
+
 		@Override
 		protected GreedyNodeOp getOptionsOP(final FoldableTree tree) {
 			return tree.new GreedyTopicSumOptionsOp();
@@ -177,7 +444,46 @@ public class UnfoldAlgorithms {
 
 	}
 
-	/** GreedyVSMAlgorithm: Unfold node with largest profit per unit cost */
+	/**
+	 * Folded node with its profit gain per unit cost at the step it was last
+	 * evaluated (ordered by decreasing gain per unit cost, then stalest first,
+	 * then tree order). Nodes not yet evaluated have infinite gain.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+
+		private final FoldableNode node;
+		private final int order;
+
+		private Option option;
+		private double gainPerCost = Double.POSITIVE_INFINITY;
+		private int step;
+
+		public Candidate(final FoldableNode node, final int order) {
+			this.node = node;
+			this.order = order;
+		}
+
+		void setOption(final Option option, final double unfoldedProfit, final double budget, final int step) {
+			this.option = option;
+			this.step = step;
+
+			gainPerCost = GreedyTopicSumAlgorithm.getGainPerCost(option.profit, unfoldedProfit, option.cost,
+					budget);
+		}
+
+		@Override
+		public int compareTo(final Candidate c) {
+			final int cmp = Double.compare(c.gainPerCost, gainPerCost);
+			if (cmp != 0)
+				return cmp;
+			if (step != c.step)
+				return Integer.compare(step, c.step);
+			return Integer.compare(order, c.order);
+		}
+
+	}
+
+	/** GreedyVSMAlgorithm: Unfold node with largest profit gain per unit cost */
 	public static class GreedyVSMAlgorithm extends GreedyTopicSumAlgorithm {
 
 		@Override
@@ -1,10 +1,16 @@
 package codesum.lm.topicsum;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-
-import org.apache.commons.io.FileUtils;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.esotericsoftware.kryo.DefaultSerializer;
 import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
@@ -12,24 +18,56 @@ import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
 @DefaultSerializer(CompatibleFieldSerializer.class)
 public class Cluster implements Serializable {
 
-	private static final long serialVersionUID = -5437190745303350925L;
+	private static final long serialVersionUID = 6139583617609958734L;
 	private final File clusterLoc;
 
 	private final Document[] docs;
-	private int ndocs;
+	private final int ndocs;
 
-	public Cluster(final File f, final Tokens alphabet) {
+	public Cluster(final File f, final Tokens alphabet,
+			final PackedCorpus packed) {
+		this(f, new FileDocumentSource(f.getParentFile()), alphabet, packed);
+	}
 
-		clusterLoc = f;
-		ndocs = 0;
+	/**
+	 * @param f
+	 *            location of the cluster (its name is the project name)
+	 * @param source
+	 *            source of the documents in the cluster
+	 */
+	public Cluster(final File f, final DocumentSource source,
+			final Tokens alphabet, final PackedCorpus packed) {
+		this(f, source, alphabet, packed, null, 1);
+	}
 
-		docs = new Document[getFilesInCluster(null).size()];
+	/**
+	 * Read the documents of the cluster, reading and tokenizing documents on
+	 * the given thread pool. Documents are added to the corpus (and tokens to
+	 * the vocabulary) in the same order as when read sequentially.
+	 *
+	 * @param threadPool
+	 *            pool to read documents on (null to read sequentially)
+	 * @param nThreads
+	 *            no. threads in the pool
+	 */
+	public Cluster(final File f, final DocumentSource source,
+			final Tokens alphabet, final PackedCorpus packed,
+			final ExecutorService threadPool, final int nThreads) {
 
-		getDocs(alphabet);
+		clusterLoc = f;
+		packed.addCluster();
+
+		final List<Document> docList = threadPool == null ? getDocs(source,
+				alphabet, packed) : getDocs(source, alphabet, packed,
+				threadPool, nThreads);
+		docs = docList.toArray(new Document[docList.size()]);
+		ndocs = docs.length;
 	}
 
-	private void getDocs(final Tokens alphabet) {
-		final List<File> files = getFilesInCluster(null);
+	private List<Document> getDocs(final DocumentSource source,
+			final Tokens alphabet, final PackedCorpus packed) {
+		final List<File> files = source.getDocuments(getName());
+		final List<Document> docList = new ArrayList<>();
 		
 		int i=0;
 		int total = files.size();
@@ -40,23 +78,79 @@ public class Cluster implements Serializable {
 				System.out.println("At file " + i + " of " + total);
 
 			// if the file is not a hidden file (shouldn't need this)
-			if (file.getName().charAt(0) != '.'
-					&& file.getName().charAt(
-							file.getName().length() - 1) != '~') {
-				docs[i] = new Document(file, alphabet);
-				ndocs++;
+			if (isDocument(file)) {
+				docList.add(new Document(file, getSents(source, file),
+						alphabet, packed));
 			}
 			i++;
 		}
+		return docList;
+	}
+
+	/**
+	 * Read and tokenize documents in parallel against local vocabularies,
+	 * adding them to the corpus in order. At most a few documents per thread
+	 * are held in memory at once.
+	 */
+	private List<Document> getDocs(final DocumentSource source,
+			final Tokens alphabet, final PackedCorpus packed,
+			final ExecutorService threadPool, final int nThreads) {
+		final List<File> files = new ArrayList<>();
+		for (final File file : source.getDocuments(getName())) {
+			if (isDocument(file))
+				files.add(file);
+		}
+
+		final int maxPending = 4 * nThreads;
+		final ArrayDeque<Future<TokenizedDocument>> pending = new ArrayDeque<>();
+		final List<Document> docList = new ArrayList<>();
+		int next = 0;
+		while (next < files.size() || !pending.isEmpty()) {
+
+			// Keep the pool busy
+			while (next < files.size() && pending.size() < maxPending) {
+				final File file = files.get(next++);
+				pending.add(threadPool.submit(new Callable<TokenizedDocument>() {
+					@Override
+					public TokenizedDocument call() {
+						return new TokenizedDocument(file, getSents(source,
+								file));
+					}
+				}));
+			}
+
+			// Add the next document in order
+			if (docList.size() % 100 == 0)
+				System.out.println("At file " + docList.size() + " of "
+						+ files.size());
+			try {
+				docList.add(new Document(pending.poll().get(), alphabet,
+						packed));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Corpus reading interrupted", e);
+			} catch (final ExecutionException e) {
+				throw new RuntimeException("Corpus reading thread failed",
+						e.getCause());
+			}
+		}
+		return docList;
+	}
+
+	/** @return false if the file is a hidden or backup file */
+	private static boolean isDocument(final File file) {
+		return file.getName().charAt(0) != '.'
+				&& file.getName().charAt(file.getName().length() - 1) != '~';
 	}
 
-	private List<File> getFilesInCluster(String[] extns) {
-		if(extns == null){
-			extns = new String[] { "java" };
+	private static List<String> getSents(final DocumentSource source,
+			final File file) {
+		try {
+			return source.getSentences(file);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return Collections.emptyList();
 		}
-		// Get all files with extn extension in the cluster
-		final List<File> files = (List<File>) FileUtils.listFiles(clusterLoc, extns, true);
-		return files;
 	}
 
 	public int ndocs() {
@@ -2,6 +2,8 @@ package codesum.lm.topicsum;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.lang.ArrayUtils;
 
@@ -11,9 +13,10 @@ import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
 @DefaultSerializer(CompatibleFieldSerializer.class)
 public class Corpus implements Serializable {
 
-	private static final long serialVersionUID = -7132625481659554609L;
+	private static final long serialVersionUID = -5093367241842263381L;
 
 	private final Tokens alphabet;
+	private final PackedCorpus packed;
 	private final String corpusFolder;
 	private final String[] projects;
 
@@ -21,16 +24,64 @@ public class Corpus implements Serializable {
 	private final int nclusters;
 
 	public Corpus(final String corpusFolder, final String[] projects) {
+		this(corpusFolder, projects, null);
+	}
+
+	/**
+	 * @param mapDir
+	 *            directory for memory-mapped token and topic assignment files
+	 *            (out-of-core training), or null to keep them on the heap
+	 */
+	public Corpus(final String corpusFolder, final String[] projects,
+			final File mapDir) {
+		this(corpusFolder, projects, mapDir, new FileDocumentSource(new File(
+				corpusFolder)));
+	}
+
+	/**
+	 * @param mapDir
+	 *            directory for memory-mapped token and topic assignment files
+	 *            (out-of-core training), or null to keep them on the heap
+	 * @param source
+	 *            source of the documents in each project
+	 */
+	public Corpus(final String corpusFolder, final String[] projects,
+			final File mapDir, final DocumentSource source) {
+		this(corpusFolder, projects, mapDir, source, 1);
+	}
+
+	/**
+	 * @param nThreads
+	 *            no. threads to read and tokenize documents on
+	 * @see #Corpus(String, String[], File, DocumentSource)
+	 */
+	public Corpus(final String corpusFolder, final String[] projects,
+			final File mapDir, final DocumentSource source, final int nThreads) {
 		this.alphabet = new Tokens();
+		this.packed = mapDir == null ? new PackedCorpus() : new PackedCorpus(
+				mapDir);
 		this.corpusFolder = corpusFolder;
 		this.projects = projects.clone();
 		this.nclusters = projects.length;
 		this.clusters = new Cluster[nclusters];
 
-		getClusters(alphabet);
+		ExecutorService threadPool = null;
+		if (nThreads > 1) {
+			threadPool = Executors.newFixedThreadPool(nThreads);
+			System.out.println("Reading projects on " + nThreads + " threads");
+		}
+		try {
+			getClusters(source, alphabet, threadPool, nThreads);
+		} finally {
+			if (threadPool != null)
+				threadPool.shutdownNow();
+		}
+		packed.trimToSize();
 	}
 
-	private void getClusters(final Tokens alphabet) {
+	private void getClusters(final DocumentSource source,
+			final Tokens alphabet, final ExecutorService threadPool,
+			final int nThreads) {
 
 		for (int ci = 0; ci < nclusters; ci++) {
 
@@ -38,7 +89,7 @@ public class Corpus implements Serializable {
 					+ (ci + 1) + " of " + nclusters + ")");
 
 			clusters[ci] = new Cluster(new File(corpusFolder + projects[ci]),
-					alphabet);
+					source, alphabet, packed, threadPool, nThreads);
 		}
 	}
 
@@ -62,6 +113,13 @@ public class Corpus implements Serializable {
 		return alphabet;
 	}
 
+	/**
+	 * @return the flat token and topic layout underlying this corpus
+	 */
+	public PackedCorpus getPacked() {
+		return packed;
+	}
+
 	public int getIndexProject(final String project) {
 		return ArrayUtils.indexOf(projects, project);
 	}
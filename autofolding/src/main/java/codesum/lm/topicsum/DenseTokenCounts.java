@@ -0,0 +1,74 @@
+package codesum.lm.topicsum;
+
+import java.util.Arrays;
+
+/**
+ * Token counts stored in an array indexed by token, for topics that see a
+ * large part of the vocabulary (background and content topics).
+ */
+public class DenseTokenCounts extends TokenCounts {
+
+	private static final long serialVersionUID = -2214383734893138539L;
+
+	private int[] counts;
+	private int size = 0;
+
+	/**
+	 * @param nTokens
+	 *            expected vocabulary size (grows if exceeded)
+	 */
+	public DenseTokenCounts(final int nTokens) {
+		counts = new int[nTokens];
+	}
+
+	@Override
+	public int count(final int token) {
+		if (token >= counts.length)
+			return 0;
+		return counts[token];
+	}
+
+	@Override
+	public void add(final int token, final int n) {
+		if (token >= counts.length)
+			counts = Arrays.copyOf(counts,
+					Math.max(token + 1, counts.length + (counts.length >> 1)));
+
+		final int count = counts[token];
+		if (count == 0 && n != 0)
+			size++;
+		else if (count != 0 && count + n == 0)
+			size--;
+
+		counts[token] = count + n;
+		total += n;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(counts, 0);
+		size = 0;
+		total = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int slots() {
+		return counts.length;
+	}
+
+	@Override
+	public int tokenAt(final int slot) {
+		return counts[slot] != 0 ? slot : -1;
+	}
+
+	@Override
+	public int countAt(final int slot) {
+		return counts[slot];
+	}
+
+}
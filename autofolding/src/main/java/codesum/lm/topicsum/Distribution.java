@@ -1,26 +1,24 @@
 package codesum.lm.topicsum;
 
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
-
 /**
  * Used for generating distributions over tokens for sentences
  */
 public class Distribution {
 
-	// Multiset of all tokens assigned to this topic
-	private final Multiset<Integer> tokens;
+	// Counts of all tokens assigned to this distribution
+	private final TokenCounts tokens;
 
 	public Distribution() {
-		this.tokens = HashMultiset.create();
+		this.tokens = new SparseTokenCounts();
 	}
 
 	public void add(final int token) {
-		tokens.add(token);
+		tokens.add(token, 1);
 	}
 
 	public void remove(final int token) {
-		tokens.remove(token);
+		if (tokens.count(token) > 0)
+			tokens.add(token, -1);
 	}
 
 	/**
@@ -30,9 +28,16 @@ public class Distribution {
 	 * @return the weight of the token in this distribution
 	 */
 	public double probToken(final int token) {
-		if (tokens.size() == 0)
+		if (tokens.total() == 0)
 			return 0;
-		return ((double) tokens.count(token)) / ((double) tokens.size());
+		return ((double) tokens.count(token)) / ((double) tokens.total());
+	}
+
+	/**
+	 * @return the token counts underlying this distribution
+	 */
+	public TokenCounts getTokenCounts() {
+		return tokens;
 	}
 
 }
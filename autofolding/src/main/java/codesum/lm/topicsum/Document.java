@@ -3,7 +3,8 @@ package codesum.lm.topicsum;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -15,41 +16,65 @@ import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
 @DefaultSerializer(CompatibleFieldSerializer.class)
 public class Document implements Serializable {
 
-	private static final long serialVersionUID = -1625786958455873825L;
+	private static final long serialVersionUID = -3427329536826402917L;
 	private final File docLoc;
-	private Sentence[] sents;
-	private int nsents;
+	private final PackedCorpus packed;
+	private final int docIndex; // index of this document in the corpus
+	private final int nsents;
+
+	/** Read in the document from file, one sentence per line */
+	public Document(final File f, final Tokens alphabet,
+			final PackedCorpus packed) {
+		this(f, readSents(f), alphabet, packed);
+	}
 
-	public Document(final File f, final Tokens alphabet) {
+	/**
+	 * @param f
+	 *            location of the document
+	 * @param sents
+	 *            sentences of the document, one per foldable node
+	 */
+	public Document(final File f, final List<String> sents,
+			final Tokens alphabet, final PackedCorpus packed) {
 
 		docLoc = f;
+		this.packed = packed;
+		docIndex = packed.addDocument();
 
-		getSents(alphabet);
+		for (final String sent : sents) {
+			final String in = sent.trim();
+			// !! Include empty sentences so nodeID indexing is consistent !!
+			// if (!in.equals("")) {
+			packed.addSentence(alphabet.readSent(in));
+			// }
+		}
+		nsents = packed.docEnd(docIndex) - packed.docStart(docIndex);
 	}
 
-	private void getSents(final Tokens alphabet) {
+	/**
+	 * @param doc
+	 *            document tokenized against a local vocabulary, which is
+	 *            merged into the corpus vocabulary
+	 */
+	Document(final TokenizedDocument doc, final Tokens alphabet,
+			final PackedCorpus packed) {
 
-		LineIterator iterator = null;
+		docLoc = doc.getDocLoc();
+		this.packed = packed;
+		docIndex = packed.addDocument();
+
+		for (final int[] sent : doc.getSents(alphabet))
+			packed.addSentence(sent);
+		nsents = packed.docEnd(docIndex) - packed.docStart(docIndex);
+	}
+
+	private static List<String> readSents(final File f) {
 		try {
-			iterator = FileUtils.lineIterator(docLoc);
+			return new FileDocumentSource(f.getParentFile()).getSentences(f);
 		} catch (final IOException e) {
 			e.printStackTrace();
+			return Collections.emptyList();
 		}
-
-		final ArrayList<Sentence> sents = new ArrayList<Sentence>();
-		while (iterator.hasNext()) {
-			final String in = iterator.nextLine().trim();
-			// !! Include empty sentences so nodeID indexing is consistent !!
-			// if (!in.equals("")) {
-			sents.add(new Sentence(in, nsents, this, alphabet));
-			nsents++;
-			// }
-		}
-
-		this.sents = new Sentence[nsents];
-		sents.toArray(this.sents);
-
-		LineIterator.closeQuietly(iterator);
 	}
 
 	/**
@@ -68,7 +93,15 @@ public class Document implements Serializable {
 		if (si >= nsents)
 			return null;
 		else
-			return sents[si];
+			return new Sentence(packed, packed.docStart(docIndex) + si, this,
+					si);
+	}
+
+	/**
+	 * @return the index of this document in the packed corpus
+	 */
+	public int getIndex() {
+		return docIndex;
 	}
 
 	/**
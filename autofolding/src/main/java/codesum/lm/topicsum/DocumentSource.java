@@ -0,0 +1,25 @@
+package codesum.lm.topicsum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Supplies the documents of each project (cluster) in a {@link Corpus}, where
+ * each document is a list of sentences of space-separated tokens.
+ */
+public interface DocumentSource {
+
+	/**
+	 * @return the locations of the documents in the given project
+	 */
+	List<File> getDocuments(String project);
+
+	/**
+	 * @param docLoc
+	 *            document location as returned by {@link #getDocuments}
+	 * @return the sentences in the document
+	 */
+	List<String> getSentences(File docLoc) throws IOException;
+
+}
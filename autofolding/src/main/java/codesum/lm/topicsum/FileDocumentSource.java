@@ -0,0 +1,44 @@
+package codesum.lm.topicsum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+
+/**
+ * Reads documents from a corpus folder containing a subfolder of java files
+ * per project, with one sentence per line.
+ */
+public class FileDocumentSource implements DocumentSource {
+
+	private final File corpusFolder;
+
+	public FileDocumentSource(final File corpusFolder) {
+		this.corpusFolder = corpusFolder;
+	}
+
+	@Override
+	public List<File> getDocuments(final String project) {
+		// Get all files with java extension in the cluster
+		return (List<File>) FileUtils.listFiles(new File(corpusFolder,
+				project), new String[] { "java" }, true);
+	}
+
+	@Override
+	public List<String> getSentences(final File docLoc) throws IOException {
+
+		final List<String> sents = new ArrayList<>();
+		final LineIterator iterator = FileUtils.lineIterator(docLoc);
+		try {
+			while (iterator.hasNext())
+				sents.add(iterator.nextLine());
+		} finally {
+			LineIterator.closeQuietly(iterator);
+		}
+		return sents;
+	}
+
+}
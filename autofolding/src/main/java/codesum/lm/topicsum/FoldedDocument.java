@@ -0,0 +1,165 @@
+package codesum.lm.topicsum;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import codemining.util.StatsUtil;
+
+/**
+ * A document that was not in the training corpus, folded into a trained
+ * {@link TopicModel} by {@link TopicModel#foldIn}. Holds the sentences of the
+ * document as trained token ids (tokens unseen in training are dropped) and a
+ * temporary document topic estimated with the background and content topics
+ * held fixed.
+ */
+public class FoldedDocument {
+
+	// Default no. Gibbs sweeps when folding in
+	static final int DEFAULT_SWEEPS = 20;
+
+	// Project (cluster) index the document was folded into
+	private final int ci;
+
+	// Sentences as token ids
+	private final int[][] sents;
+
+	// Temporary document topic
+	private final Topic dtopic;
+
+	// Smoothing of the document topic
+	private final double beta;
+	private final int nTokensCorpus;
+
+	/**
+	 * @param beta
+	 *            pseudo-count of the document topic
+	 * @param nTokensCorpus
+	 *            vocabulary size of the model
+	 */
+	FoldedDocument(final int ci, final int[][] sents, final double beta,
+			final int nTokensCorpus) {
+		this.ci = ci;
+		this.sents = sents;
+		this.dtopic = new Topic(Topic.DOCUMENT);
+		this.beta = beta;
+		this.nTokensCorpus = nTokensCorpus;
+	}
+
+	/**
+	 * Tokenize sentences against the trained vocabulary, dropping tokens
+	 * unseen in training
+	 */
+	static int[][] tokenize(final List<String> sentences, final Tokens alphabet) {
+		final int[][] sents = new int[sentences.size()][];
+		for (int si = 0; si < sents.length; si++) {
+			final String[] words = Tokens.getWords(sentences.get(si).trim());
+			final int[] sent = new int[words.length];
+			int ntokens = 0;
+			for (final String word : words) {
+				final int token = alphabet.getTokenInt(word);
+				if (token != -1)
+					sent[ntokens++] = token;
+			}
+			sents[si] = Arrays.copyOf(sent, ntokens);
+		}
+		return sents;
+	}
+
+	/**
+	 * Run Gibbs sweeps over the document's tokens only, with all topics but
+	 * the document topic held fixed
+	 *
+	 * @param topics
+	 *            fixed topic distributions indexed by topic type (the document
+	 *            topic is ignored)
+	 * @param alpham
+	 *            alpha*m[k], pseudo-counts of the distribution over topics
+	 * @param sweeps
+	 *            no. Gibbs sweeps over the document (the last picks the most
+	 *            likely topics, as in training)
+	 */
+	void sample(final TokenDistribution[] topics, final double[] alpham,
+			final int sweeps) {
+
+		final double alpha = StatsUtil.sum(alpham);
+
+		// Seed from the document so that folding in is reproducible
+		final Random rand = new Random(Arrays.deepHashCode(sents));
+
+		// Randomly assign a topic to each token
+		final byte[][] z = new byte[sents.length][];
+		final int[][] topicCounts = new int[sents.length][Topic.nTopics];
+		for (int si = 0; si < sents.length; si++) {
+			z[si] = new byte[sents[si].length];
+			for (int i = 0; i < sents[si].length; i++) {
+				final int k = rand.nextInt(Topic.nTopics);
+				z[si][i] = (byte) k;
+				topicCounts[si][k]++;
+				if (k == Topic.DOCUMENT)
+					dtopic.incrementTokenCount(sents[si][i]);
+			}
+		}
+
+		// Sample only the document's tokens, only the document topic changes
+		final double[] weights = new double[Topic.nTopics];
+		for (int sweep = 0; sweep < sweeps; sweep++) {
+			final boolean lastSweep = sweep == sweeps - 1;
+			for (int si = 0; si < sents.length; si++) {
+				final int ntokens = sents[si].length;
+				for (int i = 0; i < ntokens; i++) {
+
+					final int token = sents[si][i];
+					final int topic = z[si][i];
+					if (topic == Topic.DOCUMENT)
+						dtopic.decrementTokenCount(token);
+					topicCounts[si][topic]--;
+
+					for (int k = 0; k < Topic.nTopics; k++) {
+						final double phi = k == Topic.DOCUMENT ? prob(token)
+								: topics[k].prob(token);
+						weights[k] = phi * ((topicCounts[si][k] + alpham[k])
+								/ (ntokens + alpha));
+					}
+					final int sampledTopic = GibbsSampler.selectTopic(weights,
+							rand, lastSweep);
+
+					z[si][i] = (byte) sampledTopic;
+					topicCounts[si][sampledTopic]++;
+					if (sampledTopic == Topic.DOCUMENT)
+						dtopic.incrementTokenCount(token);
+				}
+			}
+		}
+	}
+
+	/** @return the probability of the token in the document topic */
+	double prob(final int token) {
+		return (dtopic.getTokenCount(token) + beta)
+				/ (dtopic.getTotalTokenCount() + nTokensCorpus * beta);
+	}
+
+	/** @return index of the project the document was folded into */
+	public int getProjectIndex() {
+		return ci;
+	}
+
+	/** @return token ids of the given sentence */
+	public int[] getSent(final int si) {
+		return sents[si];
+	}
+
+	int[][] getSents() {
+		return sents;
+	}
+
+	public int nsents() {
+		return sents.length;
+	}
+
+	/** @return the temporary document topic */
+	public Topic getDocumentTopic() {
+		return dtopic;
+	}
+
+}
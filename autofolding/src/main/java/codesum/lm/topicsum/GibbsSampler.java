@@ -1,10 +1,21 @@
 package codesum.lm.topicsum;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.math3.special.Gamma;
 
@@ -14,7 +25,8 @@ import codemining.util.serialization.Serializer;
 
 import com.esotericsoftware.kryo.DefaultSerializer;
 import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
-import com.google.common.collect.HashMultiset;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * The heavily modified TopicSum sampler from
@@ -22,16 +34,25 @@ import com.google.common.collect.HashMultiset;
  * Vanderwende (2009)
  */
 @DefaultSerializer(CompatibleFieldSerializer.class)
-public class GibbsSampler implements Serializable {
+public class GibbsSampler implements TopicModel, Serializable {
 
 	private static final long serialVersionUID = 1772025249107574382L;
 	private final Random random;
 
+	// No. completed iterations
+	private int iteration;
+
 	private final Topic[] btopic;
 	private final Topic[] ctopic;
 	private final HashMap<Integer, Topic>[] dtopic;
 	// private final HashMap<Integer, Topic[]>[] stopic;
 
+	// Hyperparameter sufficient statistics (rebuilt on demand)
+	private transient HyperparameterStats stats;
+
+	// KL divergence backoff terms for each topic and background topic
+	private transient Cache<Topic, double[]> backoffTerms;
+
 	private final Corpus corpus;
 	private final int nclusters; // the number of clusters
 	private final int nTokensCorpus;
@@ -48,13 +69,44 @@ public class GibbsSampler implements Serializable {
 	private static final double HYPER_BETA_TOL = 1E-5; // beta_k
 	private static final int HYPER_OPT_BURNIN = 500; // Burn-in
 
-	@SuppressWarnings("unchecked")
 	public GibbsSampler(final Corpus c) {
+		this(c, new Random());
+
+		// Initialize the topic token counts randomly
+		randomInit();
+	}
+
+	/**
+	 * Rebuild a sampler from a checkpoint taken on the same corpus
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the checkpoint was taken on a different corpus
+	 */
+	public GibbsSampler(final Corpus c, final SamplerCheckpoint checkpoint) {
+		this(c, checkpoint.getRandom());
+		checkpoint.checkCorpus(corpus);
+
+		iteration = checkpoint.getIteration();
+		System.arraycopy(checkpoint.getAlpham(), 0, alpham, 0, Topic.nTopics);
+		System.arraycopy(checkpoint.getBeta(), 0, beta, 0, Topic.nTopics);
+		alpha = StatsUtil.sum(alpham);
+
+		// Rebuild the topic token counts from the topic assignments
+		try {
+			checkpoint.readTopics(corpus.getPacked());
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to read checkpoint topics", e);
+		}
+		countInit();
+	}
+
+	@SuppressWarnings("unchecked")
+	private GibbsSampler(final Corpus c, final Random random) {
 		corpus = c;
 		nclusters = corpus.nclusters();
 		nTokensCorpus = corpus.getAlphabet().nTokensCorpus();
 
-		random = new Random();
+		this.random = random;
 
 		// Initialize pseudo-counts
 		alpham = new double[Topic.nTopics];
@@ -82,11 +134,11 @@ public class GibbsSampler implements Serializable {
 		// stopic = (HashMap<Integer, Topic[]>[]) new HashMap[nclusters];
 
 		for (int b = 0; b < Topic.nBackTopics; b++)
-			btopic[b] = new Topic(Topic.BACKGROUND[b]);
+			btopic[b] = new Topic(Topic.BACKGROUND[b], nTokensCorpus);
 
 		for (int ci = 0; ci < nclusters; ci++) {
 
-			ctopic[ci] = new Topic(Topic.CONTENT);
+			ctopic[ci] = new Topic(Topic.CONTENT, nTokensCorpus);
 
 			dtopic[ci] = new HashMap<>();
 			// stopic[ci] = Maps.newHashMap();
@@ -101,8 +153,6 @@ public class GibbsSampler implements Serializable {
 				// stopic[ci].put(di, sentTopics);
 			}
 		}
-		// Initialize the topic token counts randomly
-		randomInit();
 	}
 
 	/**
@@ -113,6 +163,7 @@ public class GibbsSampler implements Serializable {
 	 */
 	private void randomInit() {
 
+		final PackedCorpus packed = corpus.getPacked();
 		final Topic[] topics = new Topic[Topic.nTopics];
 
 		// all background topics
@@ -124,32 +175,51 @@ public class GibbsSampler implements Serializable {
 			topics[Topic.CONTENT] = ctopic[ci];
 
 			// for every document
-			for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
-				topics[Topic.DOCUMENT] = dtopic[ci].get(di);
-
-				// for every sentence
-				for (int si = 0; si < corpus.getCluster(ci).getDoc(di).nsents(); si++) {
-					// topics[Topic.SENTENCE] = stopic[ci].get(di)[si];
-
-					final Sentence sent = corpus.getCluster(ci).getDoc(di)
-							.getSent(si);
-
-					// for every token in sentence
-					for (int tis = 0; tis < sent.ntokens(); tis++) {
-
-						// randomly assign a topic to the token
-						final double rand = random.nextDouble();
-						for (int k = 0; k < Topic.nTopics; k++) {
-							if (rand > (1 - (double) (k + 1) / Topic.nTopics)) {
-								sent.setTopic(tis, k);
-								topics[k].incrementTokenCount(sent
-										.getToken(tis));
-								break;
-							}
+			final int firstDoc = packed.clusterStart(ci);
+			for (int d = firstDoc; d < packed.clusterEnd(ci); d++) {
+				topics[Topic.DOCUMENT] = dtopic[ci].get(d - firstDoc);
+
+				// for every token in document
+				final int firstToken = packed.sentStart(packed.docStart(d));
+				final int lastToken = packed.sentStart(packed.docEnd(d));
+				for (int t = firstToken; t < lastToken; t++) {
+
+					// randomly assign a topic to the token
+					final double rand = random.nextDouble();
+					for (int k = 0; k < Topic.nTopics; k++) {
+						if (rand > (1 - (double) (k + 1) / Topic.nTopics)) {
+							packed.setTopic(t, k);
+							topics[k].incrementTokenCount(packed.getToken(t));
+							break;
 						}
 					}
 				}
+			}
+		}
+	}
+
+	/**
+	 * Initialize the topic token counts from the current topic assignments
+	 */
+	private void countInit() {
 
+		final PackedCorpus packed = corpus.getPacked();
+		final Topic[] topics = new Topic[Topic.nTopics];
+		for (int b = 0; b < Topic.nBackTopics; b++)
+			topics[Topic.BACKGROUND[b]] = btopic[b];
+
+		for (int ci = 0; ci < nclusters; ci++) {
+			topics[Topic.CONTENT] = ctopic[ci];
+
+			final int firstDoc = packed.clusterStart(ci);
+			for (int d = firstDoc; d < packed.clusterEnd(ci); d++) {
+				topics[Topic.DOCUMENT] = dtopic[ci].get(d - firstDoc);
+
+				final int firstToken = packed.sentStart(packed.docStart(d));
+				final int lastToken = packed.sentStart(packed.docEnd(d));
+				for (int t = firstToken; t < lastToken; t++)
+					topics[packed.getTopic(t)].incrementTokenCount(packed
+							.getToken(t));
 			}
 		}
 	}
@@ -161,27 +231,78 @@ public class GibbsSampler implements Serializable {
 	 * @param lcount
 	 *            how often to find the log likelihoood
 	 * @param savecount
-	 *            how often to save the sampler state
+	 *            how often to checkpoint the sampler state
 	 * @param saveStateFileName
-	 *            name of file to save the state into
+	 *            name of file to save the state into (checkpoints are saved
+	 *            in saveStateFileName.ckpt)
 	 */
 	public void estimate(final int iterations, final int optcount,
 			final int lcount, final int savecount,
 			final String saveStateFileName) {
+		estimate(iterations, optcount, lcount, savecount, saveStateFileName, 1);
+	}
+
+	/**
+	 * @param iterations
+	 * @param optcount
+	 *            how often to optimize hyper-parameters
+	 * @param lcount
+	 *            how often to find the log likelihoood
+	 * @param savecount
+	 *            how often to checkpoint the sampler state
+	 * @param saveStateFileName
+	 *            name of file to save the state into (checkpoints are saved
+	 *            in saveStateFileName.ckpt)
+	 * @param nThreads
+	 *            number of threads to sample clusters on (1 for the
+	 *            sequential sampler)
+	 */
+	public void estimate(final int iterations, final int optcount,
+			final int lcount, final int savecount,
+			final String saveStateFileName, final int nThreads) {
 
+		ExecutorService threadPool = null;
+		if (nThreads > 1) {
+			threadPool = Executors.newFixedThreadPool(nThreads);
+			System.out.println("\nSampling clusters on " + nThreads
+					+ " threads");
+		}
+
+		// Checkpoints are forced to disk in the background while sampling
+		// continues
+		final ExecutorService checkpointWriter = Executors
+				.newSingleThreadExecutor();
+
+		try {
+			estimate(iterations, optcount, lcount, savecount,
+					saveStateFileName, threadPool, nThreads, checkpointWriter);
+		} finally {
+			if (threadPool != null)
+				threadPool.shutdownNow();
+			checkpointWriter.shutdown();
+		}
+	}
+
+	private void estimate(final int iterations, final int optcount,
+			final int lcount, final int savecount,
+			final String saveStateFileName, final ExecutorService threadPool,
+			final int nThreads, final ExecutorService checkpointWriter) {
+
+		final File checkpointFile = new File(corpus.getCorpusFolder()
+				+ saveStateFileName + ".ckpt");
+		Future<?> pendingCheckpoint = null;
+
+		// Topics are about to change
+		backoffTerms = null;
+
+		if (iteration > 0)
+			System.out.println("\nResuming from iteration " + iteration);
 		System.out.println("\nIteration \t Log-likelihoood");
 
-		for (int i = 0; i < iterations; i++) {
+		for (int i = iteration; i < iterations; i++) {
 
 			// one (non-final) iteration of the Gibbs sampler
-			gibbsIteration(false);
-
-			// save sampler state every savecount iterations
-			if (savecount != -1 && i % savecount == 0) {
-				System.out.println("\nSerializing the model...");
-				this.saveSelf(corpus.getCorpusFolder() + saveStateFileName);
-				System.out.println("\ndone.");
-			}
+			gibbsIteration(false, threadPool, nThreads);
 
 			// print likelihood every lcount iterations
 			if (lcount != -1 && i % lcount == 0)
@@ -195,11 +316,20 @@ public class GibbsSampler implements Serializable {
 				optimizeBeta();
 				System.out.println("beta_k: " + Arrays.toString(beta));
 			}
+			iteration = i + 1;
+
+			// checkpoint sampler state every savecount iterations
+			if (savecount != -1 && i % savecount == 0) {
+				awaitCheckpoint(pendingCheckpoint);
+				pendingCheckpoint = writeCheckpoint(checkpointWriter,
+						checkpointFile);
+			}
 			System.out.print(".");
 		}
+		awaitCheckpoint(pendingCheckpoint);
 
 		// not a real iteration, but on the last sample most likely
-		gibbsIteration(true);
+		gibbsIteration(true, threadPool, nThreads);
 
 		// Serialize final model
 		System.out.println("\nSerializing the model...");
@@ -207,7 +337,57 @@ public class GibbsSampler implements Serializable {
 		System.out.println("\ndone.");
 
 		// Final likelihood
-		System.out.println("\nFinal" + "\t" + logLikelihood());
+		System.out.println("\nFinal" + "\t"
+				+ recomputeLogLikelihood(threadPool));
+	}
+
+	/**
+	 * @return a snapshot of the sampler state that changes during training
+	 */
+	public SamplerCheckpoint checkpoint() {
+		return new SamplerCheckpoint(corpus.getPacked(), nTokensCorpus,
+				iteration, alpham, beta, random);
+	}
+
+	/**
+	 * Write the sampler state to a temporary file (while sampling is paused)
+	 * and force it to disk and move it into place on the given executor
+	 */
+	private Future<?> writeCheckpoint(final ExecutorService checkpointWriter,
+			final File checkpointFile) {
+		final File tmpFile;
+		try {
+			tmpFile = checkpoint().writeTemp(checkpointFile);
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to write checkpoint "
+					+ checkpointFile, e);
+		}
+		return checkpointWriter.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				SamplerCheckpoint.commit(tmpFile, checkpointFile);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Wait for a pending checkpoint write (if any) to finish
+	 *
+	 * @throws RuntimeException
+	 *             if the checkpoint could not be written
+	 */
+	private static void awaitCheckpoint(final Future<?> pendingCheckpoint) {
+		if (pendingCheckpoint == null)
+			return;
+		try {
+			pendingCheckpoint.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			throw new RuntimeException("Unable to write checkpoint",
+					e.getCause());
+		}
 	}
 
 	/**
@@ -216,95 +396,320 @@ public class GibbsSampler implements Serializable {
 	 * @param lastIteration
 	 *            false if sample the topic randomly, true if we just pick the
 	 *            most likely topics
+	 * @param threadPool
+	 *            pool to sample clusters on (null for the sequential sampler)
 	 */
-	private void gibbsIteration(final boolean lastIteration) {
+	private void gibbsIteration(final boolean lastIteration,
+			final ExecutorService threadPool, final int nThreads) {
+
+		if (threadPool != null) {
+			parallelGibbsIteration(lastIteration, threadPool, nThreads);
+			return;
+		}
 
 		final Topic[] topics = new Topic[Topic.nTopics];
 		for (int b = 0; b < Topic.nBackTopics; b++)
 			topics[Topic.BACKGROUND[b]] = btopic[b];
 
-		for (int ci = 0; ci < corpus.nclusters(); ci++) {
-			topics[Topic.CONTENT] = ctopic[ci];
+		for (int ci = 0; ci < corpus.nclusters(); ci++)
+			sampleCluster(ci, topics, getStats(), random, lastIteration);
+	}
 
-			for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
-				topics[Topic.DOCUMENT] = dtopic[ci].get(di);
+	/**
+	 * One iteration of the parallel Gibbs sampler. Clusters are sampled
+	 * concurrently, each thread sampling against its own local copy of the
+	 * background topics whose changes are merged at the end of the sweep
+	 * (approximate distributed LDA). Content and document topics belong to a
+	 * single cluster and so are updated in place. Hyperparameter statistics
+	 * are likewise updated thread-locally and merged.
+	 */
+	private void parallelGibbsIteration(final boolean lastIteration,
+			final ExecutorService threadPool, final int nThreads) {
 
-				for (int si = 0; si < corpus.getCluster(ci).getDoc(di).nsents(); si++) {
-					// topics[Topic.SENTENCE] = stopic[ci].get(di)[si];
+		// Hand out the largest clusters first to balance the load
+		final int[] clusterOrder = getClustersBySize();
+		final AtomicInteger nextCluster = new AtomicInteger(0);
 
-					final Sentence sent = corpus.getCluster(ci).getDoc(di)
-							.getSent(si);
+		final List<SamplerWorker> workers = new ArrayList<>();
+		for (int t = 0; t < nThreads; t++)
+			workers.add(new SamplerWorker(clusterOrder, nextCluster,
+					new Random(random.nextLong()), lastIteration));
 
-					// sample tokens from this sentence
-					sampleTokensFromSentence(sent, topics, lastIteration);
-				}
-			}
+		try {
+			for (final Future<Void> future : threadPool.invokeAll(workers))
+				future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Gibbs sampler interrupted", e);
+		} catch (final ExecutionException e) {
+			throw new RuntimeException("Gibbs sampler thread failed",
+					e.getCause());
 		}
+
+		// Merge background topic changes from all threads
+		for (final SamplerWorker worker : workers)
+			worker.merge();
 	}
 
 	/**
-	 * Sample tokens from given sentence
+	 * Samples clusters handed out by a shared counter against thread-local
+	 * background topics.
+	 */
+	private class SamplerWorker implements Callable<Void> {
+
+		private final int[] clusterOrder;
+		private final AtomicInteger nextCluster;
+		private final Random rand;
+		private final boolean lastIteration;
+		private final LocalTopic[] localBTopic;
+		private final LocalHyperparameterStats localStats;
+
+		SamplerWorker(final int[] clusterOrder,
+				final AtomicInteger nextCluster, final Random rand,
+				final boolean lastIteration) {
+			this.clusterOrder = clusterOrder;
+			this.nextCluster = nextCluster;
+			this.rand = rand;
+			this.lastIteration = lastIteration;
+
+			localBTopic = new LocalTopic[Topic.nBackTopics];
+			for (int b = 0; b < Topic.nBackTopics; b++)
+				localBTopic[b] = new LocalTopic(btopic[b]);
+			localStats = new LocalHyperparameterStats(getStats());
+		}
+
+		@Override
+		public Void call() {
+
+			final Topic[] topics = new Topic[Topic.nTopics];
+			for (int b = 0; b < Topic.nBackTopics; b++)
+				topics[Topic.BACKGROUND[b]] = localBTopic[b];
+
+			int next;
+			while ((next = nextCluster.getAndIncrement()) < clusterOrder.length)
+				sampleCluster(clusterOrder[next], topics, localStats, rand,
+						lastIteration);
+
+			return null;
+		}
+
+		/**
+		 * Merge local background topic and statistics changes into the shared
+		 * topics and statistics
+		 */
+		void merge() {
+			for (int b = 0; b < Topic.nBackTopics; b++)
+				localBTopic[b].merge();
+			localStats.merge();
+		}
+	}
+
+	/**
+	 * @return cluster indices in decreasing order of no. tokens
+	 */
+	private int[] getClustersBySize() {
+
+		final PackedCorpus packed = corpus.getPacked();
+		final Integer[] order = new Integer[nclusters];
+		final int[] size = new int[nclusters];
+		for (int ci = 0; ci < nclusters; ci++) {
+			order[ci] = ci;
+			size[ci] = packed.clusterTokens(ci);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer c1, final Integer c2) {
+				return Integer.compare(size[c2], size[c1]);
+			}
+		});
+
+		final int[] clusterOrder = new int[nclusters];
+		for (int i = 0; i < nclusters; i++)
+			clusterOrder[i] = order[i];
+		return clusterOrder;
+	}
+
+	/**
+	 * Sample tokens from all sentences in the given cluster
 	 *
 	 * @param ci
 	 *            cluster index
-	 * @param di
-	 *            document index
-	 * @param si
-	 *            sentence index
+	 * @param topics
+	 *            topics indexed by topic type (background topics must be set)
+	 * @param stats
+	 *            hyperparameter statistics to update
+	 */
+	private void sampleCluster(final int ci, final Topic[] topics,
+			final HyperparameterStats stats, final Random rand,
+			final boolean lastIteration) {
+
+		final PackedCorpus packed = corpus.getPacked();
+		final int[] topicCount = new int[Topic.nTopics];
+		final double[] weights = new double[Topic.nTopics];
+
+		topics[Topic.CONTENT] = ctopic[ci];
+
+		final int firstDoc = packed.clusterStart(ci);
+		for (int d = firstDoc; d < packed.clusterEnd(ci); d++) {
+			topics[Topic.DOCUMENT] = dtopic[ci].get(d - firstDoc);
+
+			for (int s = packed.docStart(d); s < packed.docEnd(d); s++) {
+				// topics[Topic.SENTENCE] = stopic[ci].get(di)[si];
+
+				// sample tokens from this sentence
+				packed.getTopicCounts(s, topicCount);
+				sampleTokensFromSentence(packed, s, topicCount, topics,
+						stats, weights, rand, lastIteration);
+			}
+		}
+	}
+
+	/**
+	 * Sample tokens from given sentence
+	 *
+	 * @param s
+	 *            sentence index in the packed corpus
+	 * @param topicCount
+	 *            no. tokens assigned to each topic in the sentence
+	 * @param weights
+	 *            scratch space for the topic weights
 	 * @param lastIteration
 	 *            false if sample the topic randomly, true if we just pick the
 	 *            most likely topics
 	 */
-	private void sampleTokensFromSentence(final Sentence sent,
-			final Topic[] topics, final boolean lastIteration) {
+	private void sampleTokensFromSentence(final PackedCorpus packed,
+			final int s, final int[] topicCount, final Topic[] topics,
+			final HyperparameterStats stats, final double[] weights,
+			final Random rand, final boolean lastIteration) {
+
+		final int ntokens = packed.sentEnd(s) - packed.sentStart(s);
 
 		// For all tokens in sentence
-		for (int tis = 0; tis < sent.ntokens(); tis++) {
+		for (int t = packed.sentStart(s); t < packed.sentEnd(s); t++) {
 
 			// remove this token from the topic counts
-			final int topic = sent.getTopic(tis);
-			topics[topic].decrementTokenCount(sent.getToken(tis));
-			sent.decrementTopicCount(topic);
+			final int token = packed.getToken(t);
+			final int topic = packed.getTopic(t);
+			topics[topic].decrementTokenCount(token);
+			topicCount[topic]--;
 
 			// P(z_ti = weights[k]|z_-ti,w_i,.)
-			final double[] weights = new double[Topic.nTopics];
 			for (int k = 0; k < Topic.nTopics; k++)
-				weights[k] = phiHat(topics[k], sent.getToken(tis))
-						* thetaHat(sent, k);
-			final double topicWeightSum = StatsUtil.sum(weights);
-
-			int sampledTopic = -1;
-			if (!lastIteration)
-			// select the topic for this token using weighted random sample
-			{
-				final double rand = random.nextDouble();
-				double partialWeightSum = topicWeightSum;
-				for (int k = 0; k < Topic.nTopics; k++) {
-					partialWeightSum -= weights[k];
-					if (rand > (partialWeightSum / topicWeightSum)) {
-						sampledTopic = k;
-						break;
-					}
-				}
-			} else
-			// simply use the most likely topic. Jari: does this make sense?
-			{
-				for (int k = 0; k < Topic.nTopics; k++) {
-					final double maxWeight = StatsUtil.max(weights);
-					if (maxWeight == weights[k]) {
-						sampledTopic = k;
-						break;
-					}
-					weights[k] = 0;
-				}
-			}
+				weights[k] = phiHat(topics[k], token)
+						* thetaHat(topicCount[k], ntokens, k);
+			final int sampledTopic = selectTopic(weights, rand, lastIteration);
+
+			// Update hyperparameter statistics
+			if (sampledTopic != topic)
+				stats.moveToken(token, topic, topicCount[topic] + 1,
+						sampledTopic, topicCount[sampledTopic]);
 
 			// Set topic and increment topic count
-			sent.setTopic(tis, sampledTopic);
+			packed.setTopic(t, sampledTopic);
+			topicCount[sampledTopic]++;
 
 			// Increment token count for new topic
-			topics[sampledTopic].incrementTokenCount(sent.getToken(tis));
+			topics[sampledTopic].incrementTokenCount(token);
+		}
+	}
+
+	/**
+	 * Select a topic given the (unnormalized) topic weights
+	 *
+	 * @param lastIteration
+	 *            false if sample the topic randomly, true if we just pick the
+	 *            most likely topic
+	 */
+	static int selectTopic(final double[] weights, final Random rand,
+			final boolean lastIteration) {
+
+		final double topicWeightSum = StatsUtil.sum(weights);
+
+		int sampledTopic = -1;
+		if (!lastIteration)
+		// select the topic for this token using weighted random sample
+		{
+			final double r = rand.nextDouble();
+			double partialWeightSum = topicWeightSum;
+			for (int k = 0; k < Topic.nTopics; k++) {
+				partialWeightSum -= weights[k];
+				if (r > (partialWeightSum / topicWeightSum)) {
+					sampledTopic = k;
+					break;
+				}
+			}
+		} else
+		// simply use the most likely topic. Jari: does this make sense?
+		{
+			for (int k = 0; k < Topic.nTopics; k++) {
+				final double maxWeight = StatsUtil.max(weights);
+				if (maxWeight == weights[k]) {
+					sampledTopic = k;
+					break;
+				}
+				weights[k] = 0;
+			}
 		}
+		return sampledTopic;
+	}
+
+	/**
+	 * Fold a document that was not in the training corpus into the model,
+	 * using the default no. sweeps
+	 *
+	 * @see #foldIn(String, List, int)
+	 */
+	@Override
+	public FoldedDocument foldIn(final String project,
+			final List<String> sentences) {
+		return foldIn(project, sentences, FoldedDocument.DEFAULT_SWEEPS);
+	}
+
+	/**
+	 * Fold a document that was not in the training corpus into the model: run
+	 * a few Gibbs sweeps over the document's tokens only, holding the trained
+	 * background and content topics fixed, to estimate a temporary document
+	 * topic. The model itself is not changed, so documents can be folded in
+	 * concurrently.
+	 *
+	 * @param project
+	 *            project the document belongs to
+	 * @param sentences
+	 *            space separated tokens of each sentence (i.e. foldable node)
+	 * @param sweeps
+	 *            no. Gibbs sweeps over the document (the last picks the most
+	 *            likely topics, as in training)
+	 * @return the folded document
+	 */
+	public FoldedDocument foldIn(final String project,
+			final List<String> sentences, final int sweeps) {
+
+		final int ci = corpus.getIndexProject(project);
+		if (ci == -1)
+			throw new IllegalArgumentException("Project " + project
+					+ " is not in the topic model.");
+
+		final FoldedDocument doc = new FoldedDocument(ci,
+				FoldedDocument.tokenize(sentences, corpus.getAlphabet()),
+				beta[Topic.DOCUMENT], nTokensCorpus);
+
+		final TokenDistribution[] topics = new TokenDistribution[Topic.nTopics];
+		for (int b = 0; b < Topic.nBackTopics; b++)
+			topics[Topic.BACKGROUND[b]] = phi(btopic[b]);
+		topics[Topic.CONTENT] = phi(ctopic[ci]);
+		doc.sample(topics, alpham, sweeps);
+
+		return doc;
+	}
+
+	/** @return the smoothed token distribution of the given topic */
+	private TokenDistribution phi(final Topic topic) {
+		return new TokenDistribution() {
+			@Override
+			public double prob(final int token) {
+				return phiHat(topic, token);
+			}
+		};
 	}
 
 	/**
@@ -323,8 +728,13 @@ public class GibbsSampler implements Serializable {
 	 * @return the probability of the topic in this sentence
 	 */
 	public double thetaHat(final Sentence sent, final int topic) {
-		return (((double) sent.topicCount(topic)) + alpham[topic])
-				/ (((double) sent.ntokens()) + alpha);
+		return thetaHat(sent.topicCount(topic), sent.ntokens(), topic);
+	}
+
+	private double thetaHat(final int topicCount, final int ntokens,
+			final int topic) {
+		return (((double) topicCount) + alpham[topic])
+				/ (((double) ntokens) + alpha);
 	}
 
 	/**
@@ -337,73 +747,12 @@ public class GibbsSampler implements Serializable {
 		// Get no. topic types
 		final int nTopics = Topic.nTopics;
 
-		// Get C_k(f) - no. contexts in which topic k appeared exactly f times
-		final HashMap<Integer, HashMultiset<Integer>> freqs = new HashMap<>();
-		for (int k = 0; k < nTopics; k++) {
-			final HashMultiset<Integer> topicFreq = HashMultiset.create();
-			freqs.put(k, topicFreq);
-		}
-
-		int maxTopicCount = 0; // max_{s,k} N_{k|s}
-		for (int ci = 0; ci < corpus.nclusters(); ci++) {
-			for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
-				for (int si = 0; si < corpus.getCluster(ci).getDoc(di).nsents(); si++) {
-
-					final Sentence sent = corpus.getCluster(ci).getDoc(di)
-							.getSent(si);
-
-					// Get counts
-					int maxCount = 0;
-					for (int k = 0; k < nTopics; k++) {
-
-						final int topicCount = sent.topicCount(k);
-
-						// Skip zero counts
-						if (topicCount == 0)
-							continue;
-
-						// Add one to the C_k(f) count for f
-						freqs.get(k).add(topicCount);
-
-						if (maxCount < topicCount)
-							maxCount = topicCount;
-					}
-					// Set max counts
-					if (maxTopicCount < maxCount)
-						maxTopicCount = maxCount;
-				}
-			}
-		}
-
-		// Get N_f(k) - no. contexts in which topic k appeared f or more times
-		final HashMap<Integer, HashMultiset<Integer>> cumFreqs = new HashMap<>();
-		for (int k = 0; k < nTopics; k++) {
-			final HashMultiset<Integer> cumTopicFreq = HashMultiset.create();
-			cumFreqs.put(k, cumTopicFreq);
-		}
-
-		for (int f = maxTopicCount; f >= 1; f--) {
-			for (int k = 0; k < nTopics; k++)
-				cumFreqs.get(k).add(f,
-						cumFreqs.get(k).count(f + 1) + freqs.get(k).count(f));
-		}
-
-		// Equations (2.41) to (2.43)
+		// Equations (2.41) to (2.43) from C_k(f) - no. contexts in which
+		// topic k appeared exactly f times
 		final double[] H = new double[nTopics];
 		final double[] G = new double[nTopics];
 		final double[] V = new double[nTopics];
-
-		for (int k = 0; k < nTopics; k++)
-			V[k] = cumFreqs.get(k).count(1);
-
-		for (int f = maxTopicCount; f >= 2; f--) {
-			for (int k = 0; k < nTopics; k++) {
-				G[k] += ((double) cumFreqs.get(k).count(f))
-						/ ((double) (f - 1));
-				H[k] += ((double) cumFreqs.get(k).count(f))
-						/ ((double) (f - 1) * (f - 1));
-			}
-		}
+		fixedPointSums(getStats().getSentenceFreqs(), V, G, H);
 
 		// Optimize hyperparameters
 		final double[] residual = new double[nTopics];
@@ -431,27 +780,21 @@ public class GibbsSampler implements Serializable {
 	 */
 	private double K(final double alpha) {
 
+		final int[] sentLengthFreq = getStats().getSentenceLengthFreqs();
 		double firstSum = 0;
 		double secondSum = 0;
-		for (int ci = 0; ci < corpus.nclusters(); ci++) {
-			for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
-				for (int si = 0; si < corpus.getCluster(ci).getDoc(di).nsents(); si++) {
-
-					final Sentence sent = corpus.getCluster(ci).getDoc(di)
-							.getSent(si);
+		for (int n = 1; n < sentLengthFreq.length; n++) {
 
-					// Get sum_k N_{k|s}
-					double totalCount = 0;
-					for (int k = 0; k < Topic.nTopics; k++)
-						totalCount += sent.topicCount(k);
+			// Sentences with sum_k N_{k|s} = n
+			final double nsents = sentLengthFreq[n];
+			if (nsents == 0)
+				continue;
 
-					// First sum in equation (2.37)
-					firstSum += Math.log((totalCount + alpha) / alpha);
+			// First sum in equation (2.37)
+			firstSum += nsents * Math.log((n + alpha) / alpha);
 
-					// Second sum in equation (2.37)
-					secondSum += totalCount / (alpha * (totalCount + alpha));
-				}
-			}
+			// Second sum in equation (2.37)
+			secondSum += nsents * n / (alpha * (n + alpha));
 		}
 
 		return firstSum + 0.5 * secondSum;
@@ -476,30 +819,28 @@ public class GibbsSampler implements Serializable {
 			for (int k = 0; k < nTopics; k++)
 				digammaAlpham[k] = digamma(alpham[k]);
 
-			// Get necessary sums
+			// Get necessary sums (zero counts contribute nothing)
+			final int[][] sentFreq = getStats().getSentenceFreqs();
+			final int[] sentLengthFreq = getStats().getSentenceLengthFreqs();
 			final double[] topSum = new double[nTopics];
 			double bottomSum = 0;
-			for (int ci = 0; ci < corpus.nclusters(); ci++) {
-				for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
-					for (int si = 0; si < corpus.getCluster(ci).getDoc(di)
-							.nsents(); si++) {
-
-						final Sentence sent = corpus.getCluster(ci).getDoc(di)
-								.getSent(si);
-
-						// Top sum in (2.13)
-						for (int k = 0; k < nTopics; k++)
-							topSum[k] += digamma(((double) sent.topicCount(k))
-									+ alpham[k])
-									- digammaAlpham[k];
-
-						// Bottom sum in (2.13)
-						bottomSum += digamma(((double) sent.ntokens()) + alpha)
-								- digammaAlpha;
-					}
+
+			// Top sum in (2.13)
+			for (int k = 0; k < nTopics; k++) {
+				for (int f = 1; f < sentFreq[k].length; f++) {
+					if (sentFreq[k][f] != 0)
+						topSum[k] += sentFreq[k][f]
+								* (digamma(f + alpham[k]) - digammaAlpham[k]);
 				}
 			}
 
+			// Bottom sum in (2.13)
+			for (int n = 1; n < sentLengthFreq.length; n++) {
+				if (sentLengthFreq[n] != 0)
+					bottomSum += sentLengthFreq[n]
+							* (digamma(n + alpha) - digammaAlpha);
+			}
+
 			// Estimate alpha*m_k
 			for (int k = 0; k < nTopics; k++) {
 				residual[k] = alpham[k];
@@ -523,88 +864,18 @@ public class GibbsSampler implements Serializable {
 		final int nTopics = Topic.nTopics;
 		final double W = (double) nTokensCorpus;
 
-		// C_k(f), no. contexts to which topic k is assigned exactly f times
-		final HashMap<Integer, HashMultiset<Integer>> freqs = new HashMap<>();
-		for (int k = 0; k < nTopics; k++) {
-			final HashMultiset<Integer> topicFreq = HashMultiset.create();
-			freqs.put(k, topicFreq);
-		}
-
-		// Get summed topic counts
-		@SuppressWarnings("unchecked")
-		final HashMultiset<Integer>[] sumCount = (HashMultiset<Integer>[]) new HashMultiset[nTopics];
-		for (int k = 0; k < nTopics; k++)
-			sumCount[k] = HashMultiset.create();
-
-		for (int b = 0; b < Topic.nBackTopics; b++)
-			sumCount[Topic.BACKGROUND[b]].addAll(btopic[b].getTokenMultiSet());
-		for (int ci = 0; ci < nclusters; ci++) {
-			sumCount[Topic.CONTENT].addAll(ctopic[ci].getTokenMultiSet());
-			for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
-				sumCount[Topic.DOCUMENT].addAll(dtopic[ci].get(di)
-						.getTokenMultiSet());
-				// for (int si = 0; si <
-				// corpus.getCluster(ci).getDoc(di).nsents(); si++)
-				// sumCount[Topic.SENTENCE].addAll(stopic[ci].get(di)[si]
-				// .getTokenMultiSet());
-			}
-		}
-
-		// Get C_k(f) and total summed topic counts
-		int maxTopicCount = 0; // max_{k,t} sum_{bcds} N_{t|k_{bcds}}
+		// Total summed topic counts
+		final TokenCounts[] sumCount = getStats().getSummedCounts();
 		final double[] sumTotalCount = new double[nTopics];
-		for (int k = 0; k < nTopics; k++) {
-
-			// Get counts
-			int maxCount = 0;
-			for (final Integer ti : sumCount[k].elementSet()) {
-
-				final int topicCount = sumCount[k].count(ti);
-
-				// Add one to the C_k(f) count for f
-				freqs.get(k).add(topicCount);
-
-				// sum counts over all tokens
-				sumTotalCount[k] += topicCount;
-
-				if (maxCount < topicCount)
-					maxCount = topicCount;
-			}
-			// Set max counts
-			if (maxTopicCount < maxCount)
-				maxTopicCount = maxCount;
-
-		}
-
-		// Get N_f(k) - no. contexts in which topic k appeared f or more times
-		final HashMap<Integer, HashMultiset<Integer>> cumFreqs = new HashMap<>();
-		for (int k = 0; k < nTopics; k++) {
-			final HashMultiset<Integer> cumTopicFreq = HashMultiset.create();
-			cumFreqs.put(k, cumTopicFreq);
-		}
-
-		for (int f = maxTopicCount; f >= 1; f--) {
-			for (int k = 0; k < nTopics; k++)
-				cumFreqs.get(k).add(f,
-						cumFreqs.get(k).count(f + 1) + freqs.get(k).count(f));
-		}
+		for (int k = 0; k < nTopics; k++)
+			sumTotalCount[k] = sumCount[k].total();
 
-		// Equations (2.41) to (2.43)
+		// Equations (2.41) to (2.43) from C_k(f), no. contexts to which topic
+		// k is assigned exactly f times
 		final double[] H = new double[nTopics];
 		final double[] G = new double[nTopics];
 		final double[] V = new double[nTopics];
-
-		for (int k = 0; k < nTopics; k++)
-			V[k] = cumFreqs.get(k).count(1);
-
-		for (int f = maxTopicCount; f >= 2; f--) {
-			for (int k = 0; k < nTopics; k++) {
-				G[k] += ((double) cumFreqs.get(k).count(f))
-						/ ((double) (f - 1));
-				H[k] += ((double) cumFreqs.get(k).count(f))
-						/ ((double) (f - 1) * (f - 1));
-			}
-		}
+		fixedPointSums(getStats().getTokenFreqs(), V, G, H);
 
 		// Optimize hyperparameters
 		final double[] residual = new double[nTopics];
@@ -634,7 +905,6 @@ public class GibbsSampler implements Serializable {
 
 		// Optimize beta
 		final int nTopics = Topic.nTopics;
-		final int nBackTopics = Topic.nBackTopics;
 		final double[] residual = new double[nTopics];
 		final double W = (double) nTokensCorpus;
 		do {
@@ -649,32 +919,17 @@ public class GibbsSampler implements Serializable {
 			}
 
 			// Get summed topic counts
-			@SuppressWarnings("unchecked")
-			final HashMultiset<Integer>[] sums = (HashMultiset<Integer>[]) new HashMultiset[nTopics];
-			for (int k = 0; k < nTopics; k++)
-				sums[k] = HashMultiset.create();
-
-			for (int b = 0; b < nBackTopics; b++)
-				sums[Topic.BACKGROUND[b]].addAll(btopic[b].getTokenMultiSet());
-			for (int ci = 0; ci < nclusters; ci++) {
-				sums[Topic.CONTENT].addAll(ctopic[ci].getTokenMultiSet());
-				for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
-					sums[Topic.DOCUMENT].addAll(dtopic[ci].get(di)
-							.getTokenMultiSet());
-					// for (int si = 0; si < corpus.getCluster(ci).getDoc(di)
-					// .nsents(); si++)
-					// sums[Topic.SENTENCE].addAll(stopic[ci].get(di)[si]
-					// .getTokenMultiSet());
-				}
-			}
+			final TokenCounts[] sums = getStats().getSummedCounts();
 
 			// topics top sum and total summed topic counts
 			final double[] sumTotals = new double[nTopics];
 			for (int k = 0; k < nTopics; k++) {
 
-				for (final Integer ti : sums[k].elementSet()) {
-					topSum[k] += Gamma.logGamma(sums[k].count(ti) + beta[k]);
-					sumTotals[k] += sums[k].count(ti);
+				for (int slot = 0; slot < sums[k].slots(); slot++) {
+					if (sums[k].tokenAt(slot) == -1)
+						continue;
+					topSum[k] += Gamma.logGamma(sums[k].countAt(slot) + beta[k]);
+					sumTotals[k] += sums[k].countAt(slot);
 				}
 			}
 
@@ -691,6 +946,68 @@ public class GibbsSampler implements Serializable {
 		} while (StatsUtil.norm(residual) > HYPER_BETA_TOL);
 	}
 
+	/**
+	 * Sums in equations (2.41) to (2.43) for MacKay and Peto's Fixed Point
+	 * Iteration
+	 *
+	 * @param freqs
+	 *            C_k(f) - no. contexts in which topic k appeared exactly f
+	 *            times, indexed by topic type then f
+	 */
+	private static void fixedPointSums(final int[][] freqs, final double[] V,
+			final double[] G, final double[] H) {
+
+		for (int k = 0; k < freqs.length; k++) {
+
+			// N_f(k) - no. contexts in which topic k appeared f or more times
+			int cumFreq = 0;
+			for (int f = freqs[k].length - 1; f >= 1; f--) {
+				cumFreq += freqs[k][f];
+				if (f >= 2) {
+					G[k] += ((double) cumFreq) / ((double) (f - 1));
+					H[k] += ((double) cumFreq) / ((double) (f - 1) * (f - 1));
+				}
+			}
+			V[k] = cumFreq;
+		}
+	}
+
+	/**
+	 * @return the hyperparameter statistics, built from the current topic
+	 *         assignments if necessary
+	 */
+	private HyperparameterStats getStats() {
+		if (stats == null)
+			stats = new HyperparameterStats(corpus.getPacked(),
+					getSummedTopicCounts());
+		return stats;
+	}
+
+	/**
+	 * @return token counts summed over all topics of each topic type
+	 */
+	private TokenCounts[] getSummedTopicCounts() {
+
+		final TokenCounts[] sums = new TokenCounts[Topic.nTopics];
+		for (int k = 0; k < Topic.nTopics; k++)
+			sums[k] = new DenseTokenCounts(nTokensCorpus);
+
+		for (int b = 0; b < Topic.nBackTopics; b++)
+			sums[Topic.BACKGROUND[b]].addAll(btopic[b].getTokenCounts());
+		for (int ci = 0; ci < nclusters; ci++) {
+			sums[Topic.CONTENT].addAll(ctopic[ci].getTokenCounts());
+			for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
+				sums[Topic.DOCUMENT].addAll(dtopic[ci].get(di)
+						.getTokenCounts());
+				// for (int si = 0; si <
+				// corpus.getCluster(ci).getDoc(di).nsents(); si++)
+				// sums[Topic.SENTENCE].addAll(stopic[ci].get(di)[si]
+				// .getTokenCounts());
+			}
+		}
+		return sums;
+	}
+
 	public Topic getBackgroundTopic(final int bi) {
 		return btopic[bi];
 	}
@@ -860,106 +1177,300 @@ public class GibbsSampler implements Serializable {
 			TopicSum.addToDistribution(corpus.getCluster(ci).getDoc(di)
 					.getSent(si), sentDist);
 
+		return getKLDiv(KLDivType, backoffTopicID, ci, dtopic[ci].get(di),
+				sentDist);
+	}
+
+	/**
+	 * Calculate KL divergence of node(s) of a document folded into the model
+	 *
+	 * @see #foldIn(String, List)
+	 */
+	public double getKLDiv(final String KLDivType, final int backoffTopicID,
+			final FoldedDocument doc, final Collection<Integer> nodeIDs) {
+
+		// Create distribution for nodes (i.e. sentences)
+		final Distribution sentDist = new Distribution();
+		for (final int si : nodeIDs) {
+			for (final int token : doc.getSent(si))
+				sentDist.add(token);
+		}
+
+		return getKLDiv(KLDivType, backoffTopicID, doc.getProjectIndex(),
+				doc.getDocumentTopic(), sentDist);
+	}
+
+	private double getKLDiv(final String KLDivType, final int backoffTopicID,
+			final int ci, final Topic docTopic, final Distribution sentDist) {
+
 		// Background topic to backoff to (should be Java topic)
 		final Topic jtopic = btopic[backoffTopicID];
 
 		// Calculate relevant KLDiv type
 		double kl = 0;
 		if (KLDivType.equals("KLDivFile"))
-			kl = kldiv(dtopic[ci].get(di), sentDist, jtopic);
+			kl = kldiv(docTopic, sentDist, jtopic);
 		else if (KLDivType.equals("KLDivProj"))
 			kl = kldiv(ctopic[ci], sentDist, jtopic);
 		else if (KLDivType.equals("KLDivFileMinusProj"))
-			kl = kldiv(dtopic[ci].get(di), ctopic[ci], sentDist, jtopic);
+			kl = kldiv(docTopic, ctopic[ci], sentDist, jtopic);
 		else
 			throw new RuntimeException("Incorrect KLDIV Type");
 
 		return kl;
 	}
 
+	@Override
+	public KLDivEngine getKLDivEngine(final String KLDivType,
+			final int backoffTopicID, final String project, final String file,
+			final List<String> sentences) {
+
+		if (!containsDocument(project, file))
+			return getKLDivEngine(KLDivType, backoffTopicID,
+					foldIn(project, sentences));
+
+		final int ci = corpus.getIndexProject(project);
+		final int di = corpus.getCluster(ci).getIndexDoc(file);
+		return getKLDivEngine(KLDivType, backoffTopicID, ci,
+				dtopic[ci].get(di),
+				FoldedDocument.tokenize(sentences, corpus.getAlphabet()));
+	}
+
+	@Override
+	public KLDivEngine getKLDivEngine(final String KLDivType,
+			final int backoffTopicID, final FoldedDocument doc) {
+		return getKLDivEngine(KLDivType, backoffTopicID,
+				doc.getProjectIndex(), doc.getDocumentTopic(), doc.getSents());
+	}
+
+	private KLDivEngine getKLDivEngine(final String KLDivType,
+			final int backoffTopicID, final int ci, final Topic docTopic,
+			final int[][] sents) {
+
+		final TokenDistribution jtopic = phi(btopic[backoffTopicID]);
+
+		if (KLDivType.equals("KLDivFile"))
+			return new KLDivEngine(phi(docTopic), null, jtopic, backoffTerm(
+					docTopic, backoffTopicID), sents);
+		else if (KLDivType.equals("KLDivProj"))
+			return new KLDivEngine(phi(ctopic[ci]), null, jtopic,
+					backoffTerm(ctopic[ci], backoffTopicID), sents);
+		else if (KLDivType.equals("KLDivFileMinusProj"))
+			return new KLDivEngine(phi(docTopic), phi(ctopic[ci]), jtopic,
+					backoffTerm(docTopic, backoffTopicID)
+							- backoffTerm(ctopic[ci], backoffTopicID), sents);
+		else
+			throw new RuntimeException("Incorrect KLDIV Type");
+	}
+
+	/**
+	 * @return the sum over the vocabulary of p_t log(p_t / b_t) for the given
+	 *         topic p and background topic b, computed once per pair
+	 */
+	private double backoffTerm(final Topic topic, final int backoffTopicID) {
+
+		double[] terms;
+		synchronized (this) {
+			if (backoffTerms == null)
+				backoffTerms = CacheBuilder.newBuilder().weakKeys().build();
+			terms = backoffTerms.getIfPresent(topic);
+			if (terms == null) {
+				terms = new double[Topic.nBackTopics];
+				backoffTerms.put(topic, terms);
+			}
+		}
+
+		// Concurrent computations give the same result so need no locking
+		if (terms[backoffTopicID] == 0) {
+			final Topic background = btopic[backoffTopicID];
+			double term = 0;
+			for (int ti = 0; ti < nTokensCorpus; ti++) {
+				final double p = phiHat(topic, ti);
+				term += p * Math.log(p / phiHat(background, ti));
+			}
+			terms[backoffTopicID] = term;
+		}
+		return terms[backoffTopicID];
+	}
+
+	@Override
+	public boolean containsDocument(final String project, final String file) {
+		final int ci = corpus.getIndexProject(project);
+		return ci != -1 && corpus.getCluster(ci).getIndexDoc(file) != -1;
+	}
+
 	/**
-	 * Calculate log likelihood of the data
+	 * Calculate log likelihood of the data from the hyperparameter statistics,
+	 * which are kept up to date by the sampler, in O(max count)
 	 *
 	 * @return log likelihood of the data at this point
 	 */
 	public double logLikelihood() {
 
+		final HyperparameterStats stats = getStats();
+		final int ntopics = Topic.nTopics;
+
+		// P(z): second half of equation, grouped by sentence topic count
 		double logLikelihood = 0.0;
+		final int[][] sentFreq = stats.getSentenceFreqs();
+		for (int k = 0; k < ntopics; k++) {
+			for (int f = 0; f < sentFreq[k].length; f++) {
+				if (sentFreq[k][f] != 0)
+					logLikelihood += sentFreq[k][f]
+							* Gamma.logGamma(((double) f) + alpham[k]);
+			}
+		}
 
-		// Constants
-		final int ntopics = Topic.nTopics;
-		final double logGammaAlpha = Gamma.logGamma(alpha);
-		double logGammaAlpham = 0;
-		for (int k = 0; k < ntopics; k++)
-			logGammaAlpham += Gamma.logGamma(alpham[k]);
+		// subtract the (sum + parameter) terms, grouped by sentence length
+		final int[] sentLengthFreq = stats.getSentenceLengthFreqs();
+		int nsents = 0;
+		for (int n = 0; n < sentLengthFreq.length; n++) {
+			if (sentLengthFreq[n] != 0)
+				logLikelihood -= sentLengthFreq[n]
+						* Gamma.logGamma(((double) n) + alpha);
+			nsents += sentLengthFreq[n];
+		}
 
-		// P(z)
-		for (int ci = 0; ci < nclusters; ci++) {
-			for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
+		// P(w|z): topics first half, grouped by summed token count
+		final int[][] tokenFreq = stats.getTokenFreqs();
+		final double[] sumTotals = new double[ntopics];
+		for (int k = 0; k < ntopics; k++) {
+			for (int f = 1; f < tokenFreq[k].length; f++) {
+				if (tokenFreq[k][f] != 0)
+					logLikelihood += tokenFreq[k][f]
+							* Gamma.logGamma(((double) f) + beta[k]);
+			}
+			sumTotals[k] = stats.getSummedCounts()[k].total();
+		}
 
-				// second half of equation
-				for (int si = 0; si < corpus.getCluster(ci).getDoc(di).nsents(); si++) {
+		return logLikelihood + constantLogLikelihoodTerms(nsents, sumTotals);
+	}
 
-					final Sentence sent = corpus.getCluster(ci).getDoc(di)
-							.getSent(si);
+	/**
+	 * Calculate log likelihood of the data from scratch
+	 *
+	 * @return log likelihood of the data at this point
+	 * @see #logLikelihood()
+	 */
+	public double recomputeLogLikelihood() {
+		return recomputeLogLikelihood(null);
+	}
 
-					for (int k = 0; k < ntopics; k++)
-						logLikelihood += Gamma.logGamma(((double) sent
-								.topicCount(k)) + alpham[k]);
+	/**
+	 * Calculate log likelihood of the data from scratch, summing the P(z)
+	 * terms of each cluster in parallel
+	 *
+	 * @param threadPool
+	 *            pool to sum clusters on (null to sum sequentially)
+	 */
+	private double recomputeLogLikelihood(final ExecutorService threadPool) {
 
-					// subtract the (sum + parameter) term
-					logLikelihood -= Gamma.logGamma(((double) sent.ntokens())
-							+ alpha);
-				}
+		final int ntopics = Topic.nTopics;
+		double logLikelihood = 0.0;
 
-				// first half of equation: add the parameter sum term
-				final double nsents = ((double) corpus.getCluster(ci)
-						.getDoc(di).nsents());
-				logLikelihood += nsents * logGammaAlpha;
-				// bottom of this equation
-				logLikelihood -= nsents * logGammaAlpham;
+		// P(z): second half of equation, summed over clusters
+		if (threadPool == null) {
+			for (int ci = 0; ci < nclusters; ci++)
+				logLikelihood += sentenceLogLikelihood(ci);
+		} else {
+			final List<Callable<Double>> tasks = new ArrayList<>();
+			for (final int ci : getClustersBySize()) {
+				tasks.add(new Callable<Double>() {
+					@Override
+					public Double call() {
+						return sentenceLogLikelihood(ci);
+					}
+				});
+			}
+			try {
+				for (final Future<Double> future : threadPool.invokeAll(tasks))
+					logLikelihood += future.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Log likelihood interrupted", e);
+			} catch (final ExecutionException e) {
+				throw new RuntimeException("Log likelihood thread failed",
+						e.getCause());
 			}
-		}
-
-		// P(w|z)
-		// first half of first equation
-		final double W = (double) nTokensCorpus;
-		for (int k = 0; k < ntopics; k++) {
-			logLikelihood += Gamma.logGamma(W * beta[k]);
-			logLikelihood -= W * Gamma.logGamma(beta[k]);
 		}
 
 		// Get summed topic counts
-		@SuppressWarnings("unchecked")
-		final HashMultiset<Integer>[] sums = (HashMultiset<Integer>[]) new HashMultiset[ntopics];
-		for (int k = 0; k < ntopics; k++)
-			sums[k] = HashMultiset.create();
+		final TokenCounts[] sums = getSummedTopicCounts();
 
-		for (int b = 0; b < Topic.nBackTopics; b++)
-			sums[Topic.BACKGROUND[b]].addAll(btopic[b].getTokenMultiSet());
-		for (int ci = 0; ci < nclusters; ci++) {
-			sums[Topic.CONTENT].addAll(ctopic[ci].getTokenMultiSet());
-			for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++) {
-				sums[Topic.DOCUMENT].addAll(dtopic[ci].get(di)
-						.getTokenMultiSet());
-				// for (int si = 0; si <
-				// corpus.getCluster(ci).getDoc(di).nsents(); si++)
-				// sums[Topic.SENTENCE].addAll(stopic[ci].get(di)[si]
-				// .getTokenMultiSet());
-			}
-		}
-
-		// second half
+		// P(w|z): second half
 		final double[] sumTotals = new double[ntopics];
 		for (int k = 0; k < ntopics; k++) {
 
 			// topics first half
-			for (final Integer ti : sums[k].elementSet()) {
-				logLikelihood += Gamma.logGamma(sums[k].count(ti) + beta[k]);
-				sumTotals[k] += sums[k].count(ti);
+			for (int slot = 0; slot < sums[k].slots(); slot++) {
+				if (sums[k].tokenAt(slot) == -1)
+					continue;
+				logLikelihood += Gamma.logGamma(sums[k].countAt(slot)
+						+ beta[k]);
+				sumTotals[k] += sums[k].countAt(slot);
 			}
 		}
 
+		return logLikelihood
+				+ constantLogLikelihoodTerms(corpus.getPacked().nsents(),
+						sumTotals);
+	}
+
+	/**
+	 * @return the second half of the P(z) equation for all sentences in the
+	 *         given cluster
+	 */
+	private double sentenceLogLikelihood(final int ci) {
+
+		final PackedCorpus packed = corpus.getPacked();
+		final int[] topicCounts = new int[Topic.nTopics];
+		double logLikelihood = 0.0;
+
+		final int firstSent = packed.docStart(packed.clusterStart(ci));
+		final int lastSent = packed.docStart(packed.clusterEnd(ci));
+		for (int s = firstSent; s < lastSent; s++) {
+
+			packed.getTopicCounts(s, topicCounts);
+			for (int k = 0; k < Topic.nTopics; k++)
+				logLikelihood += Gamma.logGamma(((double) topicCounts[k])
+						+ alpham[k]);
+
+			// subtract the (sum + parameter) term
+			logLikelihood -= Gamma.logGamma(((double) (packed.sentEnd(s) - packed
+					.sentStart(s))) + alpha);
+		}
+		return logLikelihood;
+	}
+
+	/**
+	 * @return the log likelihood terms that depend only on the
+	 *         hyperparameters, the no. sentences and the topic totals
+	 */
+	private double constantLogLikelihoodTerms(final double nsents,
+			final double[] sumTotals) {
+
+		double logLikelihood = 0.0;
+
+		// Constants
+		final int ntopics = Topic.nTopics;
+		final double logGammaAlpha = Gamma.logGamma(alpha);
+		double logGammaAlpham = 0;
+		for (int k = 0; k < ntopics; k++)
+			logGammaAlpham += Gamma.logGamma(alpham[k]);
+
+		// P(z): first half of equation: add the parameter sum term
+		logLikelihood += nsents * logGammaAlpha;
+		// bottom of this equation
+		logLikelihood -= nsents * logGammaAlpham;
+
+		// P(w|z)
+		// first half of first equation
+		final double W = (double) nTokensCorpus;
+		for (int k = 0; k < ntopics; k++) {
+			logLikelihood += Gamma.logGamma(W * beta[k]);
+			logLikelihood -= W * Gamma.logGamma(beta[k]);
+		}
+
 		// topics second half
 		for (int k = 0; k < ntopics; k++)
 			logLikelihood -= Gamma.logGamma(sumTotals[k] + W * beta[k]);
@@ -990,6 +1501,7 @@ public class GibbsSampler implements Serializable {
 	/** Serialize the present sampler state */
 	public void saveSelf(final String path) {
 		try {
+			corpus.getPacked().flush();
 			Serializer.getSerializer().serialize(this, path);
 			System.out.printf("Gibbs sampler state saved in " + path);
 		} catch (final SerializationException e) {
@@ -0,0 +1,74 @@
+package codesum.lm.topicsum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+
+/**
+ * Token store holding token ids and topic assignments in on-heap arrays
+ */
+@DefaultSerializer(CompatibleFieldSerializer.class)
+class HeapTokenStore extends TokenStore {
+
+	private static final long serialVersionUID = -6307433745218542127L;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private int[] tokens;
+	private byte[] topics;
+
+	public HeapTokenStore() {
+		tokens = new int[INITIAL_CAPACITY];
+		topics = new byte[INITIAL_CAPACITY];
+	}
+
+	@Override
+	void append(final int[] sent, final int start) {
+		if (tokens.length < start + sent.length) {
+			final int capacity = Math.max(start + sent.length, tokens.length
+					+ (tokens.length >> 1));
+			tokens = Arrays.copyOf(tokens, capacity);
+			topics = Arrays.copyOf(topics, capacity);
+		}
+		System.arraycopy(sent, 0, tokens, start, sent.length);
+	}
+
+	@Override
+	void finish(final int ntokens) {
+		tokens = Arrays.copyOf(tokens, ntokens);
+		topics = Arrays.copyOf(topics, ntokens);
+	}
+
+	@Override
+	void writeTopics(final WritableByteChannel out, final int ntokens)
+			throws IOException {
+		writeFully(out, ByteBuffer.wrap(topics, 0, ntokens));
+	}
+
+	@Override
+	void readTopics(final ReadableByteChannel in, final int ntokens)
+			throws IOException {
+		readFully(in, ByteBuffer.wrap(topics, 0, ntokens));
+	}
+
+	@Override
+	int getToken(final int t) {
+		return tokens[t];
+	}
+
+	@Override
+	int getTopic(final int t) {
+		return topics[t];
+	}
+
+	@Override
+	void setTopic(final int t, final int topic) {
+		topics[t] = (byte) topic;
+	}
+
+}
@@ -0,0 +1,130 @@
+package codesum.lm.topicsum;
+
+/**
+ * Sufficient statistics for the hyperparameter updates, kept up to date by the
+ * sampler as tokens are reassigned so that the fixed point iterations are
+ * O(max count) rather than O(corpus size):
+ * <ul>
+ * <li>C_k(f) - no. sentences in which topic k appears exactly f times</li>
+ * <li>no. sentences of each length (fixed by the corpus)</li>
+ * <li>token counts summed over all topics of each topic type</li>
+ * <li>C_k(f) - no. tokens whose summed count for topic type k is exactly f</li>
+ * </ul>
+ *
+ * @see H. M. Wallach, Structured Topic Models for Language
+ */
+class HyperparameterStats {
+
+	// sentFreq[k][f] = C_k(f) over sentences
+	protected final int[][] sentFreq;
+
+	// Token counts summed over all topics of each topic type
+	protected final TokenCounts[] sumCounts;
+
+	// tokenFreq[k][f] = C_k(f) over summed token counts
+	private final int[][] tokenFreq;
+
+	// sentLengthFreq[n] = no. sentences with n tokens
+	private final int[] sentLengthFreq;
+
+	/**
+	 * Build the statistics from the current topic assignments
+	 *
+	 * @param sumCounts
+	 *            token counts summed over all topics of each topic type
+	 */
+	public HyperparameterStats(final PackedCorpus packed,
+			final TokenCounts[] sumCounts) {
+		this.sumCounts = sumCounts;
+
+		int maxLength = 0;
+		for (int s = 0; s < packed.nsents(); s++)
+			maxLength = Math.max(maxLength,
+					packed.sentEnd(s) - packed.sentStart(s));
+
+		sentFreq = new int[Topic.nTopics][maxLength + 1];
+		sentLengthFreq = new int[maxLength + 1];
+		final int[] topicCounts = new int[Topic.nTopics];
+		for (int s = 0; s < packed.nsents(); s++) {
+			packed.getTopicCounts(s, topicCounts);
+			for (int k = 0; k < Topic.nTopics; k++)
+				sentFreq[k][topicCounts[k]]++;
+			sentLengthFreq[packed.sentEnd(s) - packed.sentStart(s)]++;
+		}
+
+		// A token's summed count can't exceed its corpus frequency
+		final TokenCounts corpusCounts = new DenseTokenCounts(0);
+		for (int k = 0; k < Topic.nTopics; k++)
+			corpusCounts.addAll(sumCounts[k]);
+		int maxFreq = 0;
+		for (int slot = 0; slot < corpusCounts.slots(); slot++)
+			maxFreq = Math.max(maxFreq, corpusCounts.countAt(slot));
+
+		tokenFreq = new int[Topic.nTopics][maxFreq + 1];
+		for (int k = 0; k < Topic.nTopics; k++) {
+			for (int slot = 0; slot < sumCounts[k].slots(); slot++) {
+				if (sumCounts[k].tokenAt(slot) != -1)
+					tokenFreq[k][sumCounts[k].countAt(slot)]++;
+			}
+		}
+	}
+
+	/** Statistics holding changes to be merged into shared statistics */
+	protected HyperparameterStats(final int[][] sentFreq,
+			final TokenCounts[] sumCounts) {
+		this.sentFreq = sentFreq;
+		this.sumCounts = sumCounts;
+		this.tokenFreq = null;
+		this.sentLengthFreq = null;
+	}
+
+	/**
+	 * Record the reassignment of a token between topics
+	 *
+	 * @param fromCount
+	 *            no. tokens in the sentence assigned to topic from (before the
+	 *            move)
+	 * @param toCount
+	 *            no. tokens in the sentence assigned to topic to (before the
+	 *            move)
+	 */
+	public void moveToken(final int token, final int from, final int fromCount,
+			final int to, final int toCount) {
+		sentFreq[from][fromCount]--;
+		sentFreq[from][fromCount - 1]++;
+		sentFreq[to][toCount]--;
+		sentFreq[to][toCount + 1]++;
+
+		addTokenCount(from, token, -1);
+		addTokenCount(to, token, 1);
+	}
+
+	/** Add n (possibly negative) to the summed count of token for type k */
+	protected void addTokenCount(final int k, final int token, final int n) {
+		final int f = sumCounts[k].count(token);
+		tokenFreq[k][f]--;
+		tokenFreq[k][f + n]++;
+		sumCounts[k].add(token, n);
+	}
+
+	/** @return C_k(f) over sentences (indexed by topic type then f) */
+	public int[][] getSentenceFreqs() {
+		return sentFreq;
+	}
+
+	/** @return no. sentences of each length */
+	public int[] getSentenceLengthFreqs() {
+		return sentLengthFreq;
+	}
+
+	/** @return C_k(f) over summed token counts (indexed by type then f) */
+	public int[][] getTokenFreqs() {
+		return tokenFreq;
+	}
+
+	/** @return token counts summed over all topics of each topic type */
+	public TokenCounts[] getSummedCounts() {
+		return sumCounts;
+	}
+
+}
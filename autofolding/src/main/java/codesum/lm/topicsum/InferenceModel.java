@@ -0,0 +1,497 @@
+package codesum.lm.topicsum;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.ArrayUtils;
+
+/**
+ * Compact, read-only topic model for folding, exported from a trained
+ * {@link GibbsSampler} by {@link #export(GibbsSampler, File)}. Holds only what
+ * inference needs: the smoothed token distributions (phi) of the background
+ * and content topics as dense float arrays, the document topics as sparse
+ * token counts, the hyperparameters, the vocabulary and the project/document
+ * index.
+ *
+ * <p>
+ * The model is stored in a versioned binary file that is memory-mapped by
+ * {@link #read(File)}, so it opens almost instantly whatever its size and is
+ * paged in as it is used. It is safe for concurrent use.
+ */
+public class InferenceModel implements TopicModel {
+
+	private static final int MAGIC = 0x5453494d; // "TSIM"
+	private static final int VERSION = 1;
+
+	private final int nTokensCorpus;
+	private final double[] alpham;
+	private final double[] beta;
+
+	// phi of each background and content topic
+	private final FloatBuffer[] bphi;
+	private final FloatBuffer[] cphi;
+
+	// sum_t log b_t of each background topic
+	private final DoubleBuffer logBackgroundSums;
+
+	// Backoff terms sum_t p_t log(p_t / b_t) of each content topic and each
+	// document topic, indexed by topic * nBackTopics + background topic
+	private final DoubleBuffer contentBackoffs;
+	private final DoubleBuffer docBackoffs;
+
+	// Documents of project ci are clusterStart[ci] to clusterStart[ci + 1]
+	private final IntBuffer clusterStart;
+
+	// Sparse document topic counts, document d has tokens (in order) and
+	// counts from docStart[d] to docStart[d + 1]
+	private final IntBuffer docTotals;
+	private final IntBuffer docStart;
+	private final IntBuffer docTokens;
+	private final IntBuffer docCounts;
+
+	private final String[] projects;
+	private final IntBuffer pathStart;
+	private final ByteBuffer paths;
+
+	private final Tokens alphabet;
+
+	/** Memory-map the sections of the model file */
+	private InferenceModel(final FileChannel in) throws IOException {
+		final Sections sections = new Sections(in);
+
+		final IntBuffer header = sections.map(7 * 4).asIntBuffer();
+		if (header.get(0) != MAGIC)
+			throw new IOException("Not an inference model file.");
+		if (header.get(1) != VERSION)
+			throw new IOException("Unsupported inference model version "
+					+ header.get(1));
+		if (header.get(2) != Topic.nTopics
+				|| header.get(3) != Topic.nBackTopics)
+			throw new IOException("Inference model has a different no. topics.");
+		nTokensCorpus = header.get(4);
+		final int nclusters = header.get(5);
+		final int ndocs = header.get(6);
+
+		final DoubleBuffer hyper = sections.map(2 * Topic.nTopics * 8)
+				.asDoubleBuffer();
+		alpham = new double[Topic.nTopics];
+		beta = new double[Topic.nTopics];
+		hyper.get(alpham);
+		hyper.get(beta);
+
+		bphi = new FloatBuffer[Topic.nBackTopics];
+		for (int b = 0; b < Topic.nBackTopics; b++)
+			bphi[b] = sections.map(4L * nTokensCorpus).asFloatBuffer();
+		logBackgroundSums = sections.map(Topic.nBackTopics * 8)
+				.asDoubleBuffer();
+
+		cphi = new FloatBuffer[nclusters];
+		for (int ci = 0; ci < nclusters; ci++)
+			cphi[ci] = sections.map(4L * nTokensCorpus).asFloatBuffer();
+		contentBackoffs = sections.map(8L * nclusters * Topic.nBackTopics)
+				.asDoubleBuffer();
+
+		clusterStart = sections.map(4L * (nclusters + 1)).asIntBuffer();
+		docTotals = sections.map(4L * ndocs).asIntBuffer();
+		docStart = sections.map(4L * (ndocs + 1)).asIntBuffer();
+		final int nentries = docStart.get(ndocs);
+		docTokens = sections.map(4L * nentries).asIntBuffer();
+		docCounts = sections.map(4L * nentries).asIntBuffer();
+		docBackoffs = sections.map(8L * ndocs * Topic.nBackTopics)
+				.asDoubleBuffer();
+
+		// Project names are few so are decoded up front
+		final IntBuffer projectStart = sections.map(4L * (nclusters + 1))
+				.asIntBuffer();
+		final ByteBuffer projectNames = sections.map(projectStart
+				.get(nclusters));
+		projects = new String[nclusters];
+		for (int ci = 0; ci < nclusters; ci++)
+			projects[ci] = decode(projectNames, projectStart.get(ci),
+					projectStart.get(ci + 1));
+
+		pathStart = sections.map(4L * (ndocs + 1)).asIntBuffer();
+		paths = sections.map(pathStart.get(ndocs));
+
+		alphabet = new Tokens(Vocabulary.map(sections.map(in.size()
+				- sections.pos)));
+	}
+
+	/** Memory-map an inference model written by {@link #export} */
+	public static InferenceModel read(final File file) throws IOException {
+		try (final RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			return new InferenceModel(in.getChannel());
+		}
+	}
+
+	/**
+	 * Export a compact inference model from a trained sampler, replacing any
+	 * previous model only once the new one has been completely written
+	 */
+	public static void export(final GibbsSampler sampler, final File file)
+			throws IOException {
+
+		final Corpus corpus = sampler.getCorpus();
+		final int nTokensCorpus = corpus.getAlphabet().nTokensCorpus();
+		final int nclusters = corpus.nclusters();
+		int ndocs = 0;
+		for (int ci = 0; ci < nclusters; ci++)
+			ndocs += corpus.getCluster(ci).ndocs();
+
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try (final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(Topic.nTopics);
+			out.writeInt(Topic.nBackTopics);
+			out.writeInt(nTokensCorpus);
+			out.writeInt(nclusters);
+			out.writeInt(ndocs);
+			for (int k = 0; k < Topic.nTopics; k++)
+				out.writeDouble(sampler.alpham[k]);
+			for (int k = 0; k < Topic.nTopics; k++)
+				out.writeDouble(sampler.beta[k]);
+
+			// Background topics (kept on the heap for the backoff terms)
+			final float[][] bphi = new float[Topic.nBackTopics][];
+			for (int b = 0; b < Topic.nBackTopics; b++) {
+				bphi[b] = getPhi(sampler, sampler.getBackgroundTopic(b),
+						nTokensCorpus);
+				for (final float p : bphi[b])
+					out.writeFloat(p);
+			}
+			final double[] logBackgroundSums = new double[Topic.nBackTopics];
+			for (int b = 0; b < Topic.nBackTopics; b++) {
+				for (final float p : bphi[b])
+					logBackgroundSums[b] += Math.log(p);
+				out.writeDouble(logBackgroundSums[b]);
+			}
+
+			// Content topics
+			final double[] contentBackoffs = new double[nclusters
+					* Topic.nBackTopics];
+			for (int ci = 0; ci < nclusters; ci++) {
+				final float[] phi = getPhi(sampler,
+						sampler.getContentTopic(ci), nTokensCorpus);
+				for (final float p : phi)
+					out.writeFloat(p);
+				for (int b = 0; b < Topic.nBackTopics; b++) {
+					double term = 0;
+					for (int ti = 0; ti < nTokensCorpus; ti++)
+						term += phi[ti] * Math.log(phi[ti] / bphi[b][ti]);
+					contentBackoffs[ci * Topic.nBackTopics + b] = term;
+				}
+			}
+			for (final double term : contentBackoffs)
+				out.writeDouble(term);
+
+			// Document topics
+			int start = 0;
+			out.writeInt(start);
+			for (int ci = 0; ci < nclusters; ci++) {
+				start += corpus.getCluster(ci).ndocs();
+				out.writeInt(start);
+			}
+			final int[][] tokens = new int[ndocs][];
+			final int[][] counts = new int[ndocs][];
+			final double[] docBackoffs = new double[ndocs * Topic.nBackTopics];
+			int d = 0;
+			for (int ci = 0; ci < nclusters; ci++) {
+				for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++, d++) {
+					final Topic topic = sampler.getDocumentTopic(ci, di);
+					tokens[d] = getSortedTokens(topic.getTokenCounts());
+					counts[d] = new int[tokens[d].length];
+					for (int i = 0; i < tokens[d].length; i++)
+						counts[d][i] = topic.getTokenCount(tokens[d][i]);
+					out.writeInt(topic.getTotalTokenCount());
+					for (int b = 0; b < Topic.nBackTopics; b++)
+						docBackoffs[d * Topic.nBackTopics + b] = sparseBackoffTerm(
+								tokens[d], counts[d], tokens[d].length,
+								topic.getTotalTokenCount(),
+								sampler.beta[Topic.DOCUMENT], nTokensCorpus,
+								FloatBuffer.wrap(bphi[b]), logBackgroundSums[b]);
+				}
+			}
+			start = 0;
+			out.writeInt(start);
+			for (d = 0; d < ndocs; d++) {
+				start += tokens[d].length;
+				out.writeInt(start);
+			}
+			for (d = 0; d < ndocs; d++) {
+				for (final int token : tokens[d])
+					out.writeInt(token);
+			}
+			for (d = 0; d < ndocs; d++) {
+				for (final int count : counts[d])
+					out.writeInt(count);
+			}
+			for (final double term : docBackoffs)
+				out.writeDouble(term);
+
+			// Project and document index
+			final String[] projects = new String[nclusters];
+			final String[] docPaths = new String[ndocs];
+			d = 0;
+			for (int ci = 0; ci < nclusters; ci++) {
+				projects[ci] = corpus.getProject(ci);
+				for (int di = 0; di < corpus.getCluster(ci).ndocs(); di++)
+					docPaths[d++] = corpus.getCluster(ci).getDoc(di)
+							.getDocLoc().getPath();
+			}
+			writeStrings(projects, out);
+			writeStrings(docPaths, out);
+
+			corpus.getAlphabet().getVocabulary().write(out);
+		}
+		Files.move(tmpFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static float[] getPhi(final GibbsSampler sampler,
+			final Topic topic, final int nTokensCorpus) {
+		final float[] phi = new float[nTokensCorpus];
+		for (int ti = 0; ti < nTokensCorpus; ti++)
+			phi[ti] = (float) sampler.phiHat(topic, ti);
+		return phi;
+	}
+
+	/** @return the tokens with non-zero counts, in order */
+	private static int[] getSortedTokens(final TokenCounts counts) {
+		final int[] tokens = new int[counts.slots()];
+		int ntokens = 0;
+		for (int slot = 0; slot < counts.slots(); slot++) {
+			if (counts.tokenAt(slot) != -1 && counts.countAt(slot) > 0)
+				tokens[ntokens++] = counts.tokenAt(slot);
+		}
+		final int[] sorted = Arrays.copyOf(tokens, ntokens);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/** Write strings as a table of UTF-8 byte offsets followed by the bytes */
+	private static void writeStrings(final String[] strings,
+			final DataOutputStream out) throws IOException {
+		final byte[][] bytes = new byte[strings.length][];
+		int start = 0;
+		out.writeInt(start);
+		for (int i = 0; i < strings.length; i++) {
+			bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+			start += bytes[i].length;
+			out.writeInt(start);
+		}
+		for (final byte[] b : bytes)
+			out.write(b);
+	}
+
+	private static String decode(final ByteBuffer buffer, final int start,
+			final int end) {
+		final byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Backoff term sum_t p_t log(p_t / b_t) of a sparse document topic, in
+	 * O(tokens in topic): every token with zero count has the same probability
+	 * p_0 so their terms sum to p_0 log p_0 (V - n) - p_0 (sum_t log b_t - sum
+	 * of log b_t over the n tokens with non-zero count).
+	 */
+	private static double sparseBackoffTerm(final int[] tokens,
+			final int[] counts, final int n, final int total,
+			final double beta, final int nTokensCorpus,
+			final FloatBuffer background, final double logBackgroundSum) {
+		final double norm = total + nTokensCorpus * beta;
+		final double p0 = beta / norm;
+
+		double term = 0;
+		double logBackgroundNonZero = 0;
+		for (int i = 0; i < n; i++) {
+			final double p = (counts[i] + beta) / norm;
+			final double logb = Math.log(background.get(tokens[i]));
+			term += p * (Math.log(p) - logb);
+			logBackgroundNonZero += logb;
+		}
+		return term + p0 * Math.log(p0) * (nTokensCorpus - n) - p0
+				* (logBackgroundSum - logBackgroundNonZero);
+	}
+
+	/** @return the index of the document for the given file, or -1 */
+	private int getIndexDoc(final int ci, final String file) {
+		// Same matching as Cluster#getIndexDoc
+		for (int d = clusterStart.get(ci); d < clusterStart.get(ci + 1); d++) {
+			if (decode(paths, pathStart.get(d), pathStart.get(d + 1)).contains(
+					file))
+				return d;
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean containsDocument(final String project, final String file) {
+		final int ci = ArrayUtils.indexOf(projects, project);
+		return ci != -1 && getIndexDoc(ci, file) != -1;
+	}
+
+	@Override
+	public FoldedDocument foldIn(final String project,
+			final List<String> sentences) {
+
+		final int ci = ArrayUtils.indexOf(projects, project);
+		if (ci == -1)
+			throw new IllegalArgumentException("Project " + project
+					+ " is not in the topic model.");
+
+		final FoldedDocument doc = new FoldedDocument(ci,
+				FoldedDocument.tokenize(sentences, alphabet),
+				beta[Topic.DOCUMENT], nTokensCorpus);
+
+		final TokenDistribution[] topics = new TokenDistribution[Topic.nTopics];
+		for (int b = 0; b < Topic.nBackTopics; b++)
+			topics[Topic.BACKGROUND[b]] = phi(bphi[b]);
+		topics[Topic.CONTENT] = phi(cphi[ci]);
+		doc.sample(topics, alpham, FoldedDocument.DEFAULT_SWEEPS);
+
+		return doc;
+	}
+
+	@Override
+	public KLDivEngine getKLDivEngine(final String KLDivType,
+			final int backoffTopicID, final String project, final String file,
+			final List<String> sentences) {
+
+		final int ci = ArrayUtils.indexOf(projects, project);
+		final int d = ci == -1 ? -1 : getIndexDoc(ci, file);
+		if (d == -1)
+			return getKLDivEngine(KLDivType, backoffTopicID,
+					foldIn(project, sentences));
+
+		final int b = backoffTopicID;
+		return getKLDivEngine(KLDivType, b, ci, documentPhi(d),
+				docBackoffs.get(d * Topic.nBackTopics + b),
+				FoldedDocument.tokenize(sentences, alphabet));
+	}
+
+	@Override
+	public KLDivEngine getKLDivEngine(final String KLDivType,
+			final int backoffTopicID, final FoldedDocument doc) {
+
+		final TokenCounts counts = doc.getDocumentTopic().getTokenCounts();
+		final int[] tokens = getSortedTokens(counts);
+		final int[] tokenCounts = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+			tokenCounts[i] = counts.count(tokens[i]);
+		final double backoffTerm = sparseBackoffTerm(tokens, tokenCounts,
+				tokens.length, counts.total(), beta[Topic.DOCUMENT],
+				nTokensCorpus, bphi[backoffTopicID],
+				logBackgroundSums.get(backoffTopicID));
+
+		return getKLDivEngine(KLDivType, backoffTopicID,
+				doc.getProjectIndex(), new TokenDistribution() {
+					@Override
+					public double prob(final int token) {
+						return doc.prob(token);
+					}
+				}, backoffTerm, doc.getSents());
+	}
+
+	private KLDivEngine getKLDivEngine(final String KLDivType,
+			final int backoffTopicID, final int ci,
+			final TokenDistribution docPhi, final double docBackoffTerm,
+			final int[][] sents) {
+
+		final TokenDistribution jtopic = phi(bphi[backoffTopicID]);
+		final double contentBackoffTerm = contentBackoffs.get(ci
+				* Topic.nBackTopics + backoffTopicID);
+
+		if (KLDivType.equals("KLDivFile"))
+			return new KLDivEngine(docPhi, null, jtopic, docBackoffTerm, sents);
+		else if (KLDivType.equals("KLDivProj"))
+			return new KLDivEngine(phi(cphi[ci]), null, jtopic,
+					contentBackoffTerm, sents);
+		else if (KLDivType.equals("KLDivFileMinusProj"))
+			return new KLDivEngine(docPhi, phi(cphi[ci]), jtopic,
+					docBackoffTerm - contentBackoffTerm, sents);
+		else
+			throw new RuntimeException("Incorrect KLDIV Type");
+	}
+
+	private static TokenDistribution phi(final FloatBuffer phi) {
+		return new TokenDistribution() {
+			@Override
+			public double prob(final int token) {
+				return phi.get(token);
+			}
+		};
+	}
+
+	/** @return the smoothed token distribution of trained document d */
+	private TokenDistribution documentPhi(final int d) {
+		final int start = docStart.get(d);
+		final int end = docStart.get(d + 1);
+		final double docBeta = beta[Topic.DOCUMENT];
+		final double norm = docTotals.get(d) + nTokensCorpus * docBeta;
+		return new TokenDistribution() {
+			@Override
+			public double prob(final int token) {
+				// Binary search for the token's count
+				int lo = start;
+				int hi = end - 1;
+				while (lo <= hi) {
+					final int mid = (lo + hi) >>> 1;
+					final int midToken = docTokens.get(mid);
+					if (midToken < token)
+						lo = mid + 1;
+					else if (midToken > token)
+						hi = mid - 1;
+					else
+						return (docCounts.get(mid) + docBeta) / norm;
+				}
+				return docBeta / norm;
+			}
+		};
+	}
+
+	/** @return the no. tokens in the vocabulary */
+	public int nTokensCorpus() {
+		return nTokensCorpus;
+	}
+
+	/** Maps consecutive sections of a file */
+	private static class Sections {
+
+		private final FileChannel in;
+		private long pos = 0;
+
+		public Sections(final FileChannel in) {
+			this.in = in;
+		}
+
+		public ByteBuffer map(final long size) throws IOException {
+			if (pos + size > in.size())
+				throw new IOException("Truncated inference model file.");
+			final ByteBuffer section = in.map(MapMode.READ_ONLY, pos, size);
+			pos += size;
+			return section;
+		}
+	}
+
+}
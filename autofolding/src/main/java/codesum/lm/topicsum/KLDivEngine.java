@@ -0,0 +1,132 @@
+package codesum.lm.topicsum;
+
+/**
+ * Incremental KL divergence between a topic and the token distribution of a
+ * growing set of nodes (i.e. sentences) of a document, backing off to a
+ * background topic for tokens that are not in the nodes. Equivalent to
+ * {@link GibbsSampler#getKLDiv} but scoring a node costs O(tokens in node)
+ * rather than O(vocabulary). Engines are obtained from a {@link TopicModel}.
+ *
+ * <p>
+ * Writing p for the topic, b for the background topic and q_t = c_t / N for
+ * the summary distribution, the divergence is
+ *
+ * <pre>
+ * KL = sum_t p_t log(p_t / b_t) + sum_{t in S} p_t (log b_t - log c_t) + P_S log N
+ * </pre>
+ *
+ * where S is the set of tokens in the summary and P_S the sum of p_t over S.
+ * The first (backoff) term is over the whole vocabulary and is precomputed
+ * once per topic, the others are updated as tokens are added. For the
+ * FileMinusProj divergence p_t is the difference of two topic probabilities.
+ *
+ * <p>
+ * Not thread safe, use one engine per document being folded.
+ */
+public class KLDivEngine {
+
+	private final TokenDistribution topic;
+	private final TokenDistribution minusTopic; // may be null
+	private final TokenDistribution background;
+
+	// Sentences as token ids
+	private final int[][] sents;
+
+	// Nodes in the summary and counts of their tokens
+	private final boolean[] added;
+	private final TokenCounts counts = new SparseTokenCounts();
+
+	// Backoff term summed over the whole vocabulary
+	private final double backoffTerm;
+
+	// sum_{t in S} p_t (log b_t - log c_t), sum_{t in S} p_t and N
+	private double tokenTerm = 0;
+	private double summaryProb = 0;
+	private int ntokens = 0;
+
+	/**
+	 * @param minusTopic
+	 *            topic whose divergence is subtracted (or null)
+	 * @param backoffTerm
+	 *            sum over the vocabulary of p_t log(p_t / b_t)
+	 */
+	KLDivEngine(final TokenDistribution topic,
+			final TokenDistribution minusTopic,
+			final TokenDistribution background, final double backoffTerm,
+			final int[][] sents) {
+		this.topic = topic;
+		this.minusTopic = minusTopic;
+		this.background = background;
+		this.backoffTerm = backoffTerm;
+		this.sents = sents;
+		this.added = new boolean[sents.length];
+	}
+
+	/**
+	 * Add the tokens of the given node to the summary (nodes already in the
+	 * summary are ignored)
+	 */
+	public void addNode(final int nodeID) {
+		if (added[nodeID])
+			return;
+		added[nodeID] = true;
+		for (final int token : sents[nodeID])
+			addToken(token);
+	}
+
+	/** @return the KL divergence of the current summary */
+	public double kldiv() {
+		if (ntokens == 0)
+			return backoffTerm;
+		return backoffTerm + tokenTerm + summaryProb * Math.log(ntokens);
+	}
+
+	/**
+	 * @return the KL divergence of the current summary with the tokens of the
+	 *         given node added (the summary is left unchanged)
+	 */
+	public double kldivWithNode(final int nodeID) {
+		if (added[nodeID])
+			return kldiv();
+
+		final double prevTokenTerm = tokenTerm;
+		final double prevSummaryProb = summaryProb;
+		final int prevNTokens = ntokens;
+
+		for (final int token : sents[nodeID])
+			addToken(token);
+		final double kl = kldiv();
+
+		// Restore the summary
+		for (final int token : sents[nodeID])
+			counts.add(token, -1);
+		tokenTerm = prevTokenTerm;
+		summaryProb = prevSummaryProb;
+		ntokens = prevNTokens;
+
+		return kl;
+	}
+
+	private void addToken(final int token) {
+		final int count = counts.count(token);
+		final double p = prob(token);
+		if (count == 0) {
+			tokenTerm += p * Math.log(background.prob(token));
+			summaryProb += p;
+		} else {
+			tokenTerm += p * Math.log(count);
+		}
+		tokenTerm -= p * Math.log(count + 1);
+		counts.add(token, 1);
+		ntokens++;
+	}
+
+	/** @return p_t for the given token */
+	private double prob(final int token) {
+		double p = topic.prob(token);
+		if (minusTopic != null)
+			p -= minusTopic.prob(token);
+		return p;
+	}
+
+}
@@ -0,0 +1,60 @@
+package codesum.lm.topicsum;
+
+/**
+ * Thread-local changes to shared {@link HyperparameterStats} made by the
+ * parallel sampler, which are only written back to the shared statistics on
+ * {@link #merge()}. Sentences belong to a single thread so sentence counts are
+ * simply added, summed token counts are applied one token at a time so the
+ * shared C_k(f) stays consistent.
+ */
+class LocalHyperparameterStats extends HyperparameterStats {
+
+	private final HyperparameterStats shared;
+
+	public LocalHyperparameterStats(final HyperparameterStats shared) {
+		super(newSentFreqs(shared), newSumCounts());
+		this.shared = shared;
+	}
+
+	private static int[][] newSentFreqs(final HyperparameterStats shared) {
+		final int[][] sentFreq = new int[Topic.nTopics][];
+		for (int k = 0; k < Topic.nTopics; k++)
+			sentFreq[k] = new int[shared.getSentenceFreqs()[k].length];
+		return sentFreq;
+	}
+
+	private static TokenCounts[] newSumCounts() {
+		final TokenCounts[] sumCounts = new TokenCounts[Topic.nTopics];
+		for (int k = 0; k < Topic.nTopics; k++)
+			sumCounts[k] = new SparseTokenCounts();
+		return sumCounts;
+	}
+
+	@Override
+	protected void addTokenCount(final int k, final int token, final int n) {
+		sumCounts[k].add(token, n);
+	}
+
+	/**
+	 * Apply the changes made by this thread to the shared statistics. Must not
+	 * be called while other threads are updating the shared statistics.
+	 */
+	public void merge() {
+		final int[][] sharedSentFreq = shared.getSentenceFreqs();
+		for (int k = 0; k < Topic.nTopics; k++) {
+			for (int f = 0; f < sentFreq[k].length; f++) {
+				sharedSentFreq[k][f] += sentFreq[k][f];
+				sentFreq[k][f] = 0;
+			}
+
+			final TokenCounts changes = sumCounts[k];
+			for (int slot = 0; slot < changes.slots(); slot++) {
+				final int token = changes.tokenAt(slot);
+				if (token != -1)
+					shared.addTokenCount(k, token, changes.countAt(slot));
+			}
+			changes.clear();
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+package codesum.lm.topicsum;
+
+/**
+ * Thread-local view of a shared topic used by the parallel sampler (AD-LDA).
+ * Token counts are those of the shared topic at the start of the sweep plus
+ * the changes made by this thread, which are only written back to the shared
+ * topic on {@link #merge()}.
+ *
+ * @see <a href="http://www.jmlr.org/papers/v10/newman09a.html">Newman et al.,
+ *      Distributed Algorithms for Topic Models (JMLR 2009)</a>
+ */
+class LocalTopic extends Topic {
+
+	private static final long serialVersionUID = -3180744407335418792L;
+
+	// The shared topic (read-only until merge)
+	private final Topic shared;
+
+	public LocalTopic(final Topic shared) {
+		// Token counts of this topic hold changes since the last merge
+		super(shared.getTopicID(), new SparseTokenCounts());
+		this.shared = shared;
+	}
+
+	@Override
+	public int getTokenCount(final int token) {
+		return shared.getTokenCount(token) + super.getTokenCount(token);
+	}
+
+	@Override
+	public int getTotalTokenCount() {
+		return shared.getTotalTokenCount() + super.getTotalTokenCount();
+	}
+
+	/**
+	 * Apply the changes made by this thread to the shared topic. Must not be
+	 * called while other threads are reading the shared topic.
+	 */
+	public void merge() {
+		final TokenCounts changes = getTokenCounts();
+		shared.getTokenCounts().addAll(changes);
+		changes.clear();
+	}
+
+}
@@ -0,0 +1,184 @@
+package codesum.lm.topicsum;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+
+/**
+ * Token store holding token ids and topic assignments in memory-mapped files
+ * so that only the offsets and topic counts of the corpus need to be kept on
+ * the heap. The files are mapped in fixed-size segments (a single mapping is
+ * limited to 2GB) and paged in and out by the OS as the sampler sweeps through
+ * the corpus one cluster at a time.
+ *
+ * <p>
+ * The files are kept in the given directory, which must be kept alongside the
+ * serialized sampler.
+ */
+@DefaultSerializer(CompatibleFieldSerializer.class)
+class MappedTokenStore extends TokenStore {
+
+	private static final long serialVersionUID = 2236549962018526601L;
+
+	// No. tokens in each mapped segment
+	private static final int SEG_SHIFT = 26;
+	private static final int SEG_MASK = (1 << SEG_SHIFT) - 1;
+
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private final String tokenFile;
+	private final String topicFile;
+	private int ntokens;
+
+	// Buffered channel the tokens are appended to while building
+	private transient FileChannel out;
+	private transient ByteBuffer outBuffer;
+
+	private transient volatile MappedByteBuffer[] tokenSegs;
+	private transient MappedByteBuffer[] topicSegs;
+
+	public MappedTokenStore(final File dir) {
+		dir.mkdirs();
+		tokenFile = new File(dir, "tokens.bin").getPath();
+		topicFile = new File(dir, "topics.bin").getPath();
+		try {
+			out = new RandomAccessFile(tokenFile, "rw").getChannel();
+			out.truncate(0);
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to create " + tokenFile, e);
+		}
+		outBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Override
+	void append(final int[] sent, final int start) {
+		try {
+			for (final int token : sent) {
+				if (!outBuffer.hasRemaining())
+					writeBuffer();
+				outBuffer.putInt(token);
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to write " + tokenFile, e);
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		outBuffer.flip();
+		while (outBuffer.hasRemaining())
+			out.write(outBuffer);
+		outBuffer.clear();
+	}
+
+	@Override
+	void finish(final int ntokens) {
+		this.ntokens = ntokens;
+		try {
+			writeBuffer();
+			out.close();
+			out = null;
+			outBuffer = null;
+
+			// One (initially zero) byte per token for topic assignments
+			try (final RandomAccessFile topics = new RandomAccessFile(
+					topicFile, "rw")) {
+				topics.setLength(ntokens);
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to write " + tokenFile, e);
+		}
+		map();
+	}
+
+	/** Map the token and topic files (after building or deserialization) */
+	private synchronized void map() {
+		if (tokenSegs != null)
+			return;
+
+		final int nsegs = (ntokens + SEG_MASK) >>> SEG_SHIFT;
+		final MappedByteBuffer[] tokens = new MappedByteBuffer[nsegs];
+		final MappedByteBuffer[] topics = new MappedByteBuffer[nsegs];
+		try (final RandomAccessFile tokenIn = new RandomAccessFile(tokenFile,
+				"r");
+				final RandomAccessFile topicIn = new RandomAccessFile(
+						topicFile, "rw")) {
+			for (int s = 0; s < nsegs; s++) {
+				final long start = ((long) s) << SEG_SHIFT;
+				final long size = Math.min(ntokens - start, 1L << SEG_SHIFT);
+				tokens[s] = tokenIn.getChannel().map(MapMode.READ_ONLY,
+						start * 4, size * 4);
+				tokens[s].order(ByteOrder.LITTLE_ENDIAN);
+				topics[s] = topicIn.getChannel().map(MapMode.READ_WRITE,
+						start, size);
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to map " + tokenFile, e);
+		}
+		topicSegs = topics;
+		tokenSegs = tokens;
+	}
+
+	@Override
+	int getToken(final int t) {
+		if (tokenSegs == null)
+			map();
+		return tokenSegs[t >>> SEG_SHIFT].getInt((t & SEG_MASK) << 2);
+	}
+
+	@Override
+	int getTopic(final int t) {
+		if (tokenSegs == null)
+			map();
+		return topicSegs[t >>> SEG_SHIFT].get(t & SEG_MASK);
+	}
+
+	@Override
+	void setTopic(final int t, final int topic) {
+		if (tokenSegs == null)
+			map();
+		topicSegs[t >>> SEG_SHIFT].put(t & SEG_MASK, (byte) topic);
+	}
+
+	/**
+	 * Write the topic assignments straight from the mapped segments (which
+	 * hold exactly ntokens tokens)
+	 */
+	@Override
+	void writeTopics(final WritableByteChannel out, final int ntokens)
+			throws IOException {
+		if (tokenSegs == null)
+			map();
+		for (final MappedByteBuffer seg : topicSegs)
+			writeFully(out, seg.duplicate());
+	}
+
+	/** Read the topic assignments straight into the mapped segments */
+	@Override
+	void readTopics(final ReadableByteChannel in, final int ntokens)
+			throws IOException {
+		if (tokenSegs == null)
+			map();
+		for (final MappedByteBuffer seg : topicSegs)
+			readFully(in, seg.duplicate());
+	}
+
+	@Override
+	void flush() {
+		if (tokenSegs == null)
+			return;
+		for (final MappedByteBuffer seg : topicSegs)
+			seg.force();
+	}
+
+}
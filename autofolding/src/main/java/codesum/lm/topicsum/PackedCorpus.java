@@ -0,0 +1,242 @@
+package codesum.lm.topicsum;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+
+/**
+ * Flat (structure-of-arrays) layout of the corpus: one array of token ids for
+ * the whole corpus, one byte-sized topic assignment per token and offset
+ * arrays marking sentence, document and cluster boundaries. {@link Cluster},
+ * {@link Document} and {@link Sentence} are views over this layout.
+ *
+ * <p>
+ * The corpus is built by appending clusters, documents and sentences in
+ * order, after which {@link #trimToSize()} should be called.
+ *
+ * <p>
+ * Token ids and topic assignments are held either on the heap or, for corpora
+ * larger than memory, in memory-mapped files (see {@link MappedTokenStore}).
+ */
+@DefaultSerializer(CompatibleFieldSerializer.class)
+public class PackedCorpus implements Serializable {
+
+	private static final long serialVersionUID = 8361204468915930342L;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Token ids and their topic assignments
+	private final TokenStore store;
+	private int ntokens;
+
+	// sentStart[s] is the index of the first token of sentence s
+	private int[] sentStart;
+	private int nsents;
+
+	// docStart[d] is the index of the first sentence of document d
+	private int[] docStart;
+	private int ndocs;
+
+	// clusterStart[c] is the index of the first document of cluster c
+	private int[] clusterStart;
+	private int nclusters;
+
+	/** Create a corpus holding tokens and topic assignments on the heap */
+	public PackedCorpus() {
+		this(new HeapTokenStore());
+	}
+
+	/**
+	 * Create a corpus holding tokens and topic assignments in memory-mapped
+	 * files in the given directory
+	 */
+	public PackedCorpus(final File mapDir) {
+		this(new MappedTokenStore(mapDir));
+	}
+
+	private PackedCorpus(final TokenStore store) {
+		this.store = store;
+		sentStart = new int[INITIAL_CAPACITY];
+		docStart = new int[INITIAL_CAPACITY];
+		clusterStart = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Start a new cluster, subsequent documents are added to it
+	 *
+	 * @return the index of the new cluster
+	 */
+	public int addCluster() {
+		clusterStart = ensureCapacity(clusterStart, nclusters + 2);
+		clusterStart[nclusters] = ndocs;
+		clusterStart[nclusters + 1] = ndocs;
+		return nclusters++;
+	}
+
+	/**
+	 * Start a new document in the current cluster, subsequent sentences are
+	 * added to it
+	 *
+	 * @return the index of the new document (over the whole corpus)
+	 */
+	public int addDocument() {
+		if (nclusters == 0)
+			throw new IllegalStateException("No cluster to add document to.");
+		docStart = ensureCapacity(docStart, ndocs + 2);
+		docStart[ndocs] = nsents;
+		docStart[ndocs + 1] = nsents;
+		ndocs++;
+		clusterStart[nclusters] = ndocs;
+		return ndocs - 1;
+	}
+
+	/**
+	 * Add a sentence to the current document
+	 *
+	 * @param sent
+	 *            the tokens in the sentence
+	 * @return the index of the new sentence (over the whole corpus)
+	 */
+	public int addSentence(final int[] sent) {
+		if (ndocs == 0)
+			throw new IllegalStateException("No document to add sentence to.");
+
+		// Token indices are ints, so fail rather than wrap around
+		final int end;
+		try {
+			end = Math.addExact(ntokens, sent.length);
+		} catch (final ArithmeticException e) {
+			throw new IllegalStateException("Corpus has more than "
+					+ Integer.MAX_VALUE + " tokens, use fewer documents.", e);
+		}
+
+		store.append(sent, ntokens);
+
+		sentStart = ensureCapacity(sentStart, nsents + 2);
+		sentStart[nsents] = ntokens;
+		ntokens = end;
+		sentStart[nsents + 1] = ntokens;
+		nsents++;
+		docStart[ndocs] = nsents;
+		return nsents - 1;
+	}
+
+	private static int[] ensureCapacity(final int[] array, final int capacity) {
+		if (array.length >= capacity)
+			return array;
+		return Arrays.copyOf(array,
+				Math.max(capacity, array.length + (array.length >> 1)));
+	}
+
+	/** Release unused capacity once the corpus has been built */
+	public void trimToSize() {
+		store.finish(ntokens);
+		sentStart = Arrays.copyOf(sentStart, nsents + 1);
+		docStart = Arrays.copyOf(docStart, ndocs + 1);
+		clusterStart = Arrays.copyOf(clusterStart, nclusters + 1);
+	}
+
+	public int ntokens() {
+		return ntokens;
+	}
+
+	public int nsents() {
+		return nsents;
+	}
+
+	public int ndocs() {
+		return ndocs;
+	}
+
+	public int nclusters() {
+		return nclusters;
+	}
+
+	/** @return index of the first token of sentence s */
+	public int sentStart(final int s) {
+		return sentStart[s];
+	}
+
+	/** @return index one past the last token of sentence s */
+	public int sentEnd(final int s) {
+		return sentStart[s + 1];
+	}
+
+	/** @return index of the first sentence of document d */
+	public int docStart(final int d) {
+		return docStart[d];
+	}
+
+	/** @return index one past the last sentence of document d */
+	public int docEnd(final int d) {
+		return docStart[d + 1];
+	}
+
+	/** @return index of the first document of cluster c */
+	public int clusterStart(final int c) {
+		return clusterStart[c];
+	}
+
+	/** @return index one past the last document of cluster c */
+	public int clusterEnd(final int c) {
+		return clusterStart[c + 1];
+	}
+
+	/** @return the no. tokens in cluster c */
+	public int clusterTokens(final int c) {
+		return sentStart[docStart[clusterStart[c + 1]]]
+				- sentStart[docStart[clusterStart[c]]];
+	}
+
+	/** @return the token (as an integer) at index t */
+	public int getToken(final int t) {
+		return store.getToken(t);
+	}
+
+	/** @return the topic assigned to the token at index t */
+	public int getTopic(final int t) {
+		return store.getTopic(t);
+	}
+
+	/** Assign the topic to the token at index t */
+	public void setTopic(final int t, final int topic) {
+		store.setTopic(t, topic);
+	}
+
+	/**
+	 * Count the tokens assigned to each topic in sentence s
+	 *
+	 * @param topicCount
+	 *            array of size {@link Topic#nTopics} to hold the counts
+	 */
+	public void getTopicCounts(final int s, final int[] topicCount) {
+		Arrays.fill(topicCount, 0);
+		for (int t = sentStart[s]; t < sentStart[s + 1]; t++)
+			topicCount[store.getTopic(t)]++;
+	}
+
+	/**
+	 * Write the topic assignments of all tokens to out, one byte per token,
+	 * without copying them onto the heap
+	 */
+	public void writeTopics(final WritableByteChannel out) throws IOException {
+		store.writeTopics(out, ntokens);
+	}
+
+	/** Read the topic assignments of all tokens written by writeTopics */
+	public void readTopics(final ReadableByteChannel in) throws IOException {
+		store.readTopics(in, ntokens);
+	}
+
+	/** Write any pending topic assignments to the underlying storage */
+	public void flush() {
+		store.flush();
+	}
+
+}
@@ -0,0 +1,253 @@
+package codesum.lm.topicsum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Compact snapshot of the state of a {@link GibbsSampler} that changes during
+ * training: the topic assignment of every token, the hyperparameters, the
+ * random number generator and the no. completed iterations. Token counts are
+ * rebuilt from the topic assignments and the (unchanged) corpus on resume.
+ *
+ * <p>
+ * Topic assignments are streamed between the corpus token store and the
+ * checkpoint file rather than copied onto the heap, so they are written while
+ * sampling is paused (see {@link #writeTemp(File)}) and only forcing the file
+ * to disk is left to a background thread (see {@link #commit(File, File)}).
+ */
+public class SamplerCheckpoint {
+
+	private static final int MAGIC = 0x54534350; // "TSCP"
+	private static final int VERSION = 1;
+
+	private final PackedCorpus packed;
+	private final int ntokens;
+	private final int nTokensCorpus;
+	private final int iteration;
+	private final double[] alpham;
+	private final double[] beta;
+	private final byte[] random;
+
+	// Hash of the corpus tokens (only known for read checkpoints)
+	private long tokenHash;
+
+	// File and offset of the topic assignments (only for read checkpoints)
+	private File file;
+	private long topicsOffset;
+
+	SamplerCheckpoint(final PackedCorpus packed, final int nTokensCorpus,
+			final int iteration, final double[] alpham, final double[] beta,
+			final Random random) {
+		this.packed = packed;
+		this.ntokens = packed.ntokens();
+		this.nTokensCorpus = nTokensCorpus;
+		this.iteration = iteration;
+		this.alpham = alpham.clone();
+		this.beta = beta.clone();
+		this.random = serializeRandom(random);
+	}
+
+	private SamplerCheckpoint(final int ntokens, final int nTokensCorpus,
+			final int iteration, final double[] alpham, final double[] beta,
+			final byte[] random, final long tokenHash) {
+		this.packed = null;
+		this.ntokens = ntokens;
+		this.nTokensCorpus = nTokensCorpus;
+		this.iteration = iteration;
+		this.alpham = alpham;
+		this.beta = beta;
+		this.random = random;
+		this.tokenHash = tokenHash;
+	}
+
+	/**
+	 * Write the checkpoint to the given file, replacing any previous
+	 * checkpoint only once the new one has been completely written. Sampling
+	 * must be paused until this returns.
+	 */
+	public void write(final File file) throws IOException {
+		commit(writeTemp(file), file);
+	}
+
+	/**
+	 * Write the checkpoint to a temporary file alongside the given file.
+	 * Topic assignments are read straight from the corpus, so sampling must
+	 * be paused until this returns.
+	 *
+	 * @return the temporary file to {@link #commit(File, File)}
+	 */
+	File writeTemp(final File file) throws IOException {
+
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try (final FileChannel channel = FileChannel.open(tmpFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(ntokens);
+			out.writeInt(nTokensCorpus);
+			out.writeLong(hashTokens(packed));
+			out.writeInt(iteration);
+
+			out.writeInt(alpham.length);
+			for (int k = 0; k < alpham.length; k++) {
+				out.writeDouble(alpham[k]);
+				out.writeDouble(beta[k]);
+			}
+
+			out.writeInt(random.length);
+			out.write(random);
+			out.flush();
+
+			packed.writeTopics(channel);
+		}
+		return tmpFile;
+	}
+
+	/**
+	 * Force a checkpoint written by {@link #writeTemp(File)} to disk and
+	 * move it over the previous checkpoint. This does not touch the corpus
+	 * so it may run while sampling continues.
+	 */
+	static void commit(final File tmpFile, final File file)
+			throws IOException {
+		try (final FileChannel channel = FileChannel.open(tmpFile.toPath(),
+				StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(tmpFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read in the header of a checkpoint written by {@link #write(File)}, the
+	 * topic assignments are read by {@link #readTopics(PackedCorpus)}
+	 */
+	public static SamplerCheckpoint read(final File file) throws IOException {
+
+		try (final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a sampler checkpoint");
+			final int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version "
+						+ version);
+
+			final int ntokens = in.readInt();
+			final int nTokensCorpus = in.readInt();
+			final long tokenHash = in.readLong();
+			final int iteration = in.readInt();
+
+			final int nTopics = in.readInt();
+			final double[] alpham = new double[nTopics];
+			final double[] beta = new double[nTopics];
+			for (int k = 0; k < nTopics; k++) {
+				alpham[k] = in.readDouble();
+				beta[k] = in.readDouble();
+			}
+
+			final byte[] random = new byte[in.readInt()];
+			in.readFully(random);
+
+			final SamplerCheckpoint checkpoint = new SamplerCheckpoint(
+					ntokens, nTokensCorpus, iteration, alpham, beta, random,
+					tokenHash);
+			checkpoint.file = file;
+			checkpoint.topicsOffset = 4 * 4 + 8 + 4 + 4 + 16 * nTopics + 4
+					+ random.length;
+			return checkpoint;
+		}
+	}
+
+	/**
+	 * Stream the checkpointed topic assignments into the given corpus, which
+	 * must have passed {@link #checkCorpus(Corpus)}
+	 */
+	public void readTopics(final PackedCorpus corpus) throws IOException {
+		if (file == null)
+			throw new IllegalStateException("Checkpoint was not read from file.");
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			channel.position(topicsOffset);
+			corpus.readTopics(channel);
+		}
+	}
+
+	/**
+	 * Check that this checkpoint was taken from a sampler on the given corpus
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the corpus differs
+	 */
+	public void checkCorpus(final Corpus corpus) {
+		if (ntokens != corpus.getPacked().ntokens()
+				|| nTokensCorpus != corpus.getAlphabet().nTokensCorpus()
+				|| tokenHash != hashTokens(corpus.getPacked()))
+			throw new IllegalArgumentException(
+					"Checkpoint was taken on a different corpus.");
+		if (alpham.length != Topic.nTopics)
+			throw new IllegalArgumentException(
+					"Checkpoint has a different no. topics.");
+	}
+
+	/** FNV-1a style hash of the token ids in the corpus */
+	private static long hashTokens(final PackedCorpus packed) {
+		long hash = 0xcbf29ce484222325L;
+		for (int t = 0; t < packed.ntokens(); t++)
+			hash = (hash ^ packed.getToken(t)) * 0x100000001b3L;
+		return hash;
+	}
+
+	private static byte[] serializeRandom(final Random random) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(random);
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to serialize random state", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/** @return the no. iterations completed */
+	public int getIteration() {
+		return iteration;
+	}
+
+	public double[] getAlpham() {
+		return alpham;
+	}
+
+	public double[] getBeta() {
+		return beta;
+	}
+
+	/** @return the random number generator in its checkpointed state */
+	public Random getRandom() {
+		try (final ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(random))) {
+			return (Random) in.readObject();
+		} catch (final IOException | ClassNotFoundException e) {
+			throw new RuntimeException("Unable to read random state", e);
+		}
+	}
+
+}
@@ -1,39 +1,41 @@
 package codesum.lm.topicsum;
 
 import java.io.IOException;
-import java.io.Serializable;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.LineIterator;
 
-import com.esotericsoftware.kryo.DefaultSerializer;
-import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+/**
+ * View of a sentence in the {@link PackedCorpus}. Topic counts are taken from
+ * the packed topic assignments when the view is created and kept up to date
+ * through {@link #setTopic(int, int)} and {@link #decrementTopicCount(int)}.
+ */
+public class Sentence {
 
-@DefaultSerializer(CompatibleFieldSerializer.class)
-public class Sentence implements Serializable {
-
-	private static final long serialVersionUID = 1104198323000292263L;
+	private final PackedCorpus packed; // the corpus this sentence is from
+	private final int sentIndex; // index of this sentence in the corpus
+	private final int start; // index of the first token in the corpus
 
 	private final Document doc; // the document that this sentence is from
 	private final int nsent; // the sentence this is from the original document
 
-	private final int[] tokens; // the tokens in this sentence
 	private final int ntokens; // the number of tokens in the sentence
 
-	private final int[] topics; // the topics that generated these tokens
 	private final int[] topicCount; // the number of tokens in each topic in
 									// this sentence
 
-	public Sentence(final String sent, final int nsent, final Document doc,
-			final Tokens alphabet) {
+	Sentence(final PackedCorpus packed, final int sentIndex,
+			final Document doc, final int nsent) {
+		this.packed = packed;
+		this.sentIndex = sentIndex;
 		this.nsent = nsent;
 		this.doc = doc;
 
-		tokens = alphabet.readSent(sent);
-		ntokens = tokens.length;
+		start = packed.sentStart(sentIndex);
+		ntokens = packed.sentEnd(sentIndex) - start;
 
-		topics = new int[ntokens];
 		topicCount = new int[Topic.nTopics];
+		packed.getTopicCounts(sentIndex, topicCount);
 	}
 
 	/**
@@ -45,7 +47,8 @@ public class Sentence implements Serializable {
 	 *            the new topic being assigned
 	 */
 	public void setTopic(final int tokenIndex, final int topic) {
-		topics[tokenIndex] = topic; // update the assigned topic for this token
+		// update the assigned topic for this token
+		packed.setTopic(start + tokenIndex, topic);
 		topicCount[topic]++; // add one to count of the new topic
 	}
 
@@ -68,6 +71,13 @@ public class Sentence implements Serializable {
 		return nsent;
 	}
 
+	/**
+	 * @return the index of this sentence in the packed corpus
+	 */
+	public int getIndex() {
+		return sentIndex;
+	}
+
 	/**
 	 * @return the original document that this sentence is from
 	 */
@@ -81,7 +91,7 @@ public class Sentence implements Serializable {
 	 * @return token (as an integer)
 	 */
 	public int getToken(final int tokenIndex) {
-		return tokens[tokenIndex];
+		return packed.getToken(start + tokenIndex);
 	}
 
 	/**
@@ -90,7 +100,7 @@ public class Sentence implements Serializable {
 	 * @return topic of the token
 	 */
 	public int getTopic(final int tokenIndex) {
-		return topics[tokenIndex];
+		return packed.getTopic(start + tokenIndex);
 	}
 
 	/**
@@ -0,0 +1,148 @@
+package codesum.lm.topicsum;
+
+import java.util.Arrays;
+
+/**
+ * Token counts stored in an open-addressing (linear probing) hash table, for
+ * the many small topics that only see a few tokens (document topics). Tokens
+ * whose count drops to zero are removed from the table.
+ */
+public class SparseTokenCounts extends TokenCounts {
+
+	private static final long serialVersionUID = 4139004718811937592L;
+
+	private static final int EMPTY = -1;
+	private static final int DEFAULT_CAPACITY = 8;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	private int shift;
+	private int size = 0;
+
+	public SparseTokenCounts() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            initial capacity (rounded up to a power of two)
+	 */
+	public SparseTokenCounts(final int capacity) {
+		allocate(Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1));
+	}
+
+	private void allocate(final int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+		shift = Integer.numberOfLeadingZeros(capacity) + 1;
+	}
+
+	/** Fibonacci hashing of token to slot */
+	private int slot(final int token) {
+		return (token * 0x9E3779B9) >>> shift;
+	}
+
+	@Override
+	public int count(final int token) {
+		for (int i = slot(token);; i = (i + 1) & mask) {
+			final int key = keys[i];
+			if (key == token)
+				return values[i];
+			if (key == EMPTY)
+				return 0;
+		}
+	}
+
+	@Override
+	public void add(final int token, final int n) {
+		if (n == 0)
+			return;
+		total += n;
+
+		int i = slot(token);
+		for (;; i = (i + 1) & mask) {
+			final int key = keys[i];
+			if (key == token) {
+				values[i] += n;
+				if (values[i] == 0)
+					remove(i);
+				return;
+			}
+			if (key == EMPTY)
+				break;
+		}
+
+		// New token
+		keys[i] = token;
+		values[i] = n;
+		size++;
+		if (2 * size > keys.length)
+			rehash(2 * keys.length);
+	}
+
+	/** Remove slot i using backward shift deletion */
+	private void remove(int i) {
+		size--;
+		for (int j = (i + 1) & mask;; j = (j + 1) & mask) {
+			final int key = keys[j];
+			if (key == EMPTY)
+				break;
+			// Shift entry j back to i unless its home slot lies in (i, j]
+			final int home = slot(key);
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+				continue;
+			keys[i] = key;
+			values[i] = values[j];
+			i = j;
+		}
+		keys[i] = EMPTY;
+		values[i] = 0;
+	}
+
+	private void rehash(final int capacity) {
+		final int[] oldKeys = keys;
+		final int[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+			int j = slot(oldKeys[i]);
+			while (keys[j] != EMPTY)
+				j = (j + 1) & mask;
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(values, 0);
+		size = 0;
+		total = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int slots() {
+		return keys.length;
+	}
+
+	@Override
+	public int tokenAt(final int slot) {
+		return keys[slot];
+	}
+
+	@Override
+	public int countAt(final int slot) {
+		return values[slot];
+	}
+
+}
@@ -0,0 +1,80 @@
+package codesum.lm.topicsum;
+
+import java.io.Serializable;
+
+/**
+ * Primitive map from token (as an integer) to count. Keeps a running total so
+ * the total token count is O(1).
+ *
+ * <p>
+ * Counts are iterated without boxing by scanning slots, e.g.
+ *
+ * <pre>
+ * for (int slot = 0; slot &lt; counts.slots(); slot++) {
+ * 	final int token = counts.tokenAt(slot);
+ * 	if (token != -1)
+ * 		process(token, counts.countAt(slot));
+ * }
+ * </pre>
+ */
+public abstract class TokenCounts implements Serializable {
+
+	private static final long serialVersionUID = 8807104532255133318L;
+
+	// Sum of all token counts
+	protected int total = 0;
+
+	/**
+	 * @return the number of times the token has been counted
+	 */
+	public abstract int count(int token);
+
+	/**
+	 * Add n (possibly negative) to the count of the token
+	 */
+	public abstract void add(int token, int n);
+
+	/**
+	 * Reset all counts to zero
+	 */
+	public abstract void clear();
+
+	/**
+	 * @return the no. tokens with non-zero count
+	 */
+	public abstract int size();
+
+	/**
+	 * @return the no. slots to scan when iterating over counts
+	 */
+	public abstract int slots();
+
+	/**
+	 * @return the token in the given slot, or -1 if the slot has zero count
+	 */
+	public abstract int tokenAt(int slot);
+
+	/**
+	 * @return the count of the token in the given slot
+	 */
+	public abstract int countAt(int slot);
+
+	/**
+	 * @return the sum of all token counts
+	 */
+	public int total() {
+		return total;
+	}
+
+	/**
+	 * Add all counts in other to these counts
+	 */
+	public void addAll(final TokenCounts other) {
+		for (int slot = 0; slot < other.slots(); slot++) {
+			final int token = other.tokenAt(slot);
+			if (token != -1)
+				add(token, other.countAt(slot));
+		}
+	}
+
+}
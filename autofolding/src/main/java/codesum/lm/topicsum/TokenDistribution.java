@@ -0,0 +1,12 @@
+package codesum.lm.topicsum;
+
+/**
+ * Smoothed probability distribution over the tokens of the vocabulary, i.e.
+ * the phi of a topic
+ */
+interface TokenDistribution {
+
+	/** @return the probability of the token */
+	double prob(int token);
+
+}
@@ -0,0 +1,81 @@
+package codesum.lm.topicsum;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Storage for the token ids and per-token topic assignments of a
+ * {@link PackedCorpus}. Tokens are appended while the corpus is read in and
+ * are read-only once {@link #finish(int)} has been called.
+ */
+abstract class TokenStore implements Serializable {
+
+	private static final long serialVersionUID = 4425950146106155094L;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Append the tokens of a sentence starting at index start */
+	abstract void append(final int[] sent, final int start);
+
+	/** Finish building the store, it holds ntokens tokens */
+	abstract void finish(final int ntokens);
+
+	/** @return the token (as an integer) at index t */
+	abstract int getToken(final int t);
+
+	/** @return the topic assigned to the token at index t */
+	abstract int getTopic(final int t);
+
+	/** Assign the topic to the token at index t */
+	abstract void setTopic(final int t, final int topic);
+
+	/** Write the topic assignments of the first ntokens tokens to out */
+	void writeTopics(final WritableByteChannel out, final int ntokens)
+			throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		for (int t = 0; t < ntokens; t++) {
+			buffer.put((byte) getTopic(t));
+			if (!buffer.hasRemaining() || t == ntokens - 1) {
+				buffer.flip();
+				writeFully(out, buffer);
+				buffer.clear();
+			}
+		}
+	}
+
+	/** Read the topic assignments of the first ntokens tokens from in */
+	void readTopics(final ReadableByteChannel in, final int ntokens)
+			throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		for (int t = 0; t < ntokens;) {
+			buffer.clear();
+			buffer.limit(Math.min(BUFFER_SIZE, ntokens - t));
+			readFully(in, buffer);
+			buffer.flip();
+			while (buffer.hasRemaining())
+				setTopic(t++, buffer.get());
+		}
+	}
+
+	static void writeFully(final WritableByteChannel out,
+			final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			out.write(buffer);
+	}
+
+	static void readFully(final ReadableByteChannel in, final ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining())
+			if (in.read(buffer) < 0)
+				throw new EOFException("Missing topic assignments.");
+	}
+
+	/** Write any pending topic assignments to the underlying storage */
+	void flush() {
+	}
+
+}
@@ -0,0 +1,71 @@
+package codesum.lm.topicsum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A document whose sentences have been tokenized against a vocabulary local
+ * to the document, so documents can be read in parallel. Local token ids are
+ * assigned in order of first occurrence, so mapping the local vocabulary into
+ * the corpus {@link Tokens} in document order gives exactly the token ids of
+ * reading the documents one after the other.
+ */
+class TokenizedDocument {
+
+	private final File docLoc;
+
+	// Local vocabulary, in order of first occurrence
+	private final String[] words;
+
+	// Sentences as local token ids
+	private final int[][] sents;
+
+	public TokenizedDocument(final File docLoc, final List<String> sentences) {
+		this.docLoc = docLoc;
+
+		final HashMap<String, Integer> localIDs = new HashMap<>();
+		final List<String> wordList = new ArrayList<>();
+		sents = new int[sentences.size()][];
+		for (int si = 0; si < sents.length; si++) {
+			final String[] sentWords = Tokens.getWords(sentences.get(si)
+					.trim());
+			sents[si] = new int[sentWords.length];
+			for (int i = 0; i < sentWords.length; i++) {
+				Integer id = localIDs.get(sentWords[i]);
+				if (id == null) {
+					id = wordList.size();
+					localIDs.put(sentWords[i], id);
+					wordList.add(sentWords[i]);
+				}
+				sents[si][i] = id;
+			}
+		}
+		words = wordList.toArray(new String[wordList.size()]);
+	}
+
+	public File getDocLoc() {
+		return docLoc;
+	}
+
+	/**
+	 * Map the local vocabulary into the corpus vocabulary (adding any new
+	 * tokens) and return the sentences as corpus token ids
+	 */
+	public int[][] getSents(final Tokens alphabet) {
+
+		final int[] globalIDs = new int[words.length];
+		for (int w = 0; w < words.length; w++)
+			globalIDs[w] = alphabet.getIntialTokenInt(words[w]);
+
+		final int[][] globalSents = new int[sents.length][];
+		for (int si = 0; si < sents.length; si++) {
+			globalSents[si] = new int[sents[si].length];
+			for (int i = 0; i < sents[si].length; i++)
+				globalSents[si][i] = globalIDs[sents[si][i]];
+		}
+		return globalSents;
+	}
+
+}
@@ -5,8 +5,6 @@ import java.util.ArrayList;
 
 import com.esotericsoftware.kryo.DefaultSerializer;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import com.google.common.collect.Lists;
 
 /**
@@ -21,14 +19,20 @@ import com.google.common.collect.Lists;
 @DefaultSerializer(JavaSerializer.class)
 public class Tokens implements Serializable {
 
-	private static final long serialVersionUID = 324698620349272635L;
+	private static final long serialVersionUID = -1572938746123541873L;
 
-	private final BiMap<String, Integer> tokenID;
-	private int nTokensCorpus;
+	private final Vocabulary vocabulary;
 
 	public Tokens() {
-		tokenID = HashBiMap.create();
-		nTokensCorpus = 0;
+		vocabulary = new Vocabulary();
+	}
+
+	/**
+	 * @param vocabulary
+	 *            existing (possibly memory-mapped) vocabulary
+	 */
+	public Tokens(final Vocabulary vocabulary) {
+		this.vocabulary = vocabulary;
 	}
 
 	/**
@@ -38,17 +42,7 @@ public class Tokens implements Serializable {
 	 *         seen before.
 	 */
 	public int getIntialTokenInt(final String word) {
-		if (tokenID.containsKey(word))
-			return tokenID.get(word);
-		else // if we have not seen this string before
-		{
-			tokenID.put(word, nTokensCorpus);
-			tokenID.inverse().put(nTokensCorpus, word);
-
-			nTokensCorpus++;
-
-			return tokenID.get(word);
-		}
+		return vocabulary.add(word);
 	}
 
 	/**
@@ -57,11 +51,7 @@ public class Tokens implements Serializable {
 	 * @return the integer that is mapped to this word.
 	 */
 	public int getTokenInt(final String word) {
-		final Integer id = tokenID.get(word);
-		if (id != null)
-			return id;
-		else
-			return -1;
+		return vocabulary.get(word);
 	}
 
 	/**
@@ -70,14 +60,21 @@ public class Tokens implements Serializable {
 	 * @return the word that is mapped to this int
 	 */
 	public String getTokenString(final int token) {
-		return tokenID.inverse().get(token);
+		return vocabulary.getString(token);
 	}
 
 	/**
 	 * @return the number of tokens in the corpus
 	 */
 	public int nTokensCorpus() {
-		return nTokensCorpus;
+		return vocabulary.size();
+	}
+
+	/**
+	 * @return the underlying vocabulary
+	 */
+	public Vocabulary getVocabulary() {
+		return vocabulary;
 	}
 
 	/**
@@ -101,7 +98,7 @@ public class Tokens implements Serializable {
 	 * @param sentence
 	 * @return an array of the words from this sentence
 	 */
-	private static String[] getWords(final String sentence) {
+	static String[] getWords(final String sentence) {
 
 		final String[] sent = sentence.split(" ");
 
@@ -4,13 +4,11 @@ import java.io.Serializable;
 
 import com.esotericsoftware.kryo.DefaultSerializer;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
 
 @DefaultSerializer(JavaSerializer.class)
 public class Topic implements Serializable {
 
-	private static final long serialVersionUID = -6737290631881566109L;
+	private static final long serialVersionUID = -1836418225935305916L;
 
 	// Topic type IDs
 	protected static final int[] BACKGROUND = new int[] { 0, 1, 2 };
@@ -21,26 +19,43 @@ public class Topic implements Serializable {
 	// public static final int SENTENCE;
 	public static final int nTopics = 5;
 
-	// Multiset of all tokens assigned to this topic
-	private final Multiset<Integer> tokens;
+	// Counts of all tokens assigned to this topic
+	private final TokenCounts tokens;
 
 	// The type assigned to this topic (background, content, etc.)
 	private final int topicID;
 
 	public Topic(final int topicID) {
-		this.tokens = HashMultiset.create();
+		this(topicID, 0);
+	}
+
+	/**
+	 * @param nTokens
+	 *            expected vocabulary size (used to size dense token counts)
+	 */
+	public Topic(final int topicID, final int nTokens) {
+		// Document topics only see a handful of tokens
+		this(topicID, topicID == DOCUMENT ? new SparseTokenCounts()
+				: new DenseTokenCounts(nTokens));
+	}
+
+	Topic(final int topicID, final TokenCounts tokens) {
+		this.tokens = tokens;
 		this.topicID = topicID;
 	}
 
 	public void decrementTokenCount(final int token) {
-		tokens.remove(token);
+		tokens.add(token, -1);
 	}
 
 	public void incrementTokenCount(final int token) {
-		tokens.add(token);
+		tokens.add(token, 1);
 	}
 
-	public Multiset<Integer> getTokenMultiSet() {
+	/**
+	 * @return the counts of all tokens assigned to this topic
+	 */
+	public TokenCounts getTokenCounts() {
 		return tokens;
 	}
 
@@ -54,7 +69,7 @@ public class Topic implements Serializable {
 	}
 
 	public int getTotalTokenCount() {
-		return tokens.size();
+		return tokens.total();
 	}
 
 	/**
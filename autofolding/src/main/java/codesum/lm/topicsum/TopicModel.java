@@ -0,0 +1,47 @@
+package codesum.lm.topicsum;
+
+import java.util.List;
+
+/**
+ * Trained topic model that files can be folded against: either the full
+ * {@link GibbsSampler} or the compact, read-only {@link InferenceModel}
+ * exported from it.
+ */
+public interface TopicModel {
+
+	/**
+	 * @return true if the given file of the project was in the training corpus
+	 */
+	boolean containsDocument(String project, String file);
+
+	/**
+	 * Fold a document that was not in the training corpus into the model,
+	 * holding the trained topics fixed
+	 *
+	 * @param project
+	 *            project the document belongs to
+	 * @param sentences
+	 *            space separated tokens of each sentence (i.e. foldable node)
+	 * @return the folded document
+	 */
+	FoldedDocument foldIn(String project, List<String> sentences);
+
+	/**
+	 * Get an incremental KL divergence engine for scoring the nodes of the
+	 * given file, using its trained document topic if it was in the training
+	 * corpus or folding it in otherwise
+	 *
+	 * @param sentences
+	 *            space separated tokens of each sentence (i.e. foldable node)
+	 */
+	KLDivEngine getKLDivEngine(String KLDivType, int backoffTopicID,
+			String project, String file, List<String> sentences);
+
+	/**
+	 * Get an incremental KL divergence engine for scoring the nodes of a
+	 * document folded into the model
+	 */
+	KLDivEngine getKLDivEngine(String KLDivType, int backoffTopicID,
+			FoldedDocument doc);
+
+}
@@ -1,5 +1,7 @@
 package codesum.lm.topicsum;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -15,20 +17,108 @@ import java.util.Arrays;
  */
 public class TopicSum {
 
+	/** Name of the exported inference model in the source folder */
+	public static final String INFERENCE_MODEL_NAME = "InferenceModel.bin";
+
 	/** Train and serialize the TopicSum Model */
 	public static GibbsSampler trainTopicSum(final String sourceFolder,
 			final String[] projects, final String savedStateName,
 			final int iterations) {
+		return trainTopicSum(sourceFolder, projects, savedStateName,
+				iterations, 1);
+	}
+
+	/**
+	 * Train and serialize the TopicSum Model, reading and sampling projects on
+	 * nThreads threads
+	 */
+	public static GibbsSampler trainTopicSum(final String sourceFolder,
+			final String[] projects, final String savedStateName,
+			final int iterations, final int nThreads) {
+		return trainTopicSum(sourceFolder, projects, savedStateName,
+				iterations, nThreads, false);
+	}
+
+	/**
+	 * Train and serialize the TopicSum Model, reading and sampling projects on
+	 * nThreads threads. If outOfCore is set, corpus tokens and topic
+	 * assignments are kept in memory-mapped files in
+	 * sourceFolder/savedStateName.corpus/ which must be kept alongside the
+	 * serialized model.
+	 */
+	public static GibbsSampler trainTopicSum(final String sourceFolder,
+			final String[] projects, final String savedStateName,
+			final int iterations, final int nThreads, final boolean outOfCore) {
+		return trainTopicSum(new FileDocumentSource(new File(sourceFolder)),
+				sourceFolder, projects, savedStateName, iterations, nThreads,
+				outOfCore, false);
+	}
+
+	/**
+	 * Resume training the TopicSum Model from the checkpoint in
+	 * sourceFolder/savedStateName.ckpt (or start from scratch if there is no
+	 * checkpoint). The corpus must be unchanged since the checkpoint was taken.
+	 */
+	public static GibbsSampler resumeTopicSum(final String sourceFolder,
+			final String[] projects, final String savedStateName,
+			final int iterations, final int nThreads, final boolean outOfCore) {
+		return trainTopicSum(new FileDocumentSource(new File(sourceFolder)),
+				sourceFolder, projects, savedStateName, iterations, nThreads,
+				outOfCore, true);
+	}
+
+	/**
+	 * Train and serialize the TopicSum Model on the documents from the given
+	 * source, optionally resuming from a checkpoint. The model (and any
+	 * checkpoint or memory-mapped files) are saved in sourceFolder.
+	 *
+	 * @see #trainTopicSum(String, String[], String, int, int, boolean)
+	 * @see #resumeTopicSum(String, String[], String, int, int, boolean)
+	 */
+	public static GibbsSampler trainTopicSum(final DocumentSource source,
+			final String sourceFolder, final String[] projects,
+			final String savedStateName, final int iterations,
+			final int nThreads, final boolean outOfCore, final boolean resume) {
 
 		System.out.println("\nRunning TopicSum... ");
 
 		System.out.println("\n===== Reading Training Corpus... ");
-		final Corpus corpus = new Corpus(sourceFolder, projects);
+		final File mapDir = outOfCore ? new File(sourceFolder + savedStateName
+				+ ".corpus") : null;
+		final Corpus corpus = new Corpus(sourceFolder, projects, mapDir,
+				source, nThreads);
 
 		// Build the sampler
 		System.out.println("\n===== Training the model...");
-		final GibbsSampler gibbsSampler = new GibbsSampler(corpus);
-		gibbsSampler.estimate(iterations, 10, 50, 1000, savedStateName);
+		final File checkpointFile = new File(sourceFolder + savedStateName
+				+ ".ckpt");
+		final GibbsSampler gibbsSampler;
+		if (resume && checkpointFile.exists()) {
+			System.out.println("Resuming from checkpoint " + checkpointFile);
+			try {
+				gibbsSampler = new GibbsSampler(corpus,
+						SamplerCheckpoint.read(checkpointFile));
+			} catch (final IOException e) {
+				throw new RuntimeException("Unable to read checkpoint "
+						+ checkpointFile, e);
+			}
+		} else {
+			if (resume)
+				System.out.println("No checkpoint found, starting afresh.");
+			gibbsSampler = new GibbsSampler(corpus);
+		}
+		gibbsSampler.estimate(iterations, 10, 50, 1000, savedStateName,
+				nThreads);
+
+		// Export compact model for folding
+		final File modelFile = new File(sourceFolder + INFERENCE_MODEL_NAME);
+		System.out.println("\nExporting inference model to " + modelFile);
+		try {
+			InferenceModel.export(gibbsSampler, modelFile);
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to export inference model "
+					+ modelFile, e);
+		}
 
 		printSamplerStats(gibbsSampler);
 		// outputTopicSumSummary(corpus, gibbsSampler);
@@ -38,6 +128,23 @@ public class TopicSum {
 		return gibbsSampler;
 	}
 
+	/**
+	 * Read the trained topic model for folding: the exported inference model
+	 * in sourceFolder if there is one, otherwise the serialized sampler
+	 */
+	public static TopicModel readTopicModel(final String sourceFolder,
+			final String savedStateName) {
+		final File modelFile = new File(sourceFolder + INFERENCE_MODEL_NAME);
+		if (!modelFile.exists())
+			return GibbsSampler.readCorpus(sourceFolder + savedStateName);
+		try {
+			return InferenceModel.read(modelFile);
+		} catch (final IOException e) {
+			throw new RuntimeException("Unable to read inference model "
+					+ modelFile, e);
+		}
+	}
+
 	/**
 	 * Output standard TopicSum summary (using BackTopic[0])
 	 */
@@ -0,0 +1,302 @@
+package codesum.lm.topicsum;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact two-way mapping between token strings and integer ids. All strings
+ * are kept in a single UTF-8 byte arena with an offset table, and looked up
+ * through an open-addressing (linear probing) index of ids, so there are no
+ * per-entry objects.
+ *
+ * <p>
+ * The binary image written by {@link #write(File)} can be memory-mapped by
+ * {@link #map(File)} without any parsing, giving a read-only vocabulary.
+ */
+public class Vocabulary implements Serializable {
+
+	private static final long serialVersionUID = -4619201577404813155L;
+
+	private static final int MAGIC = 0x54535643; // "TSVC"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 5 * 4;
+
+	private static final int EMPTY = -1;
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	// UTF-8 bytes of all tokens, token i is at offsets[i] to offsets[i + 1]
+	private transient ByteBuffer arena;
+	private transient IntBuffer offsets;
+
+	// Open-addressing index of token ids
+	private transient IntBuffer table;
+	private transient int mask;
+
+	private transient int size;
+	private transient boolean readOnly;
+
+	public Vocabulary() {
+		arena = ByteBuffer.allocate(8 * DEFAULT_CAPACITY);
+		offsets = IntBuffer.allocate(DEFAULT_CAPACITY + 1);
+		allocateTable(2 * DEFAULT_CAPACITY);
+	}
+
+	private Vocabulary(final ByteBuffer arena, final IntBuffer offsets,
+			final IntBuffer table, final int size, final boolean readOnly) {
+		this.arena = arena;
+		this.offsets = offsets;
+		this.table = table;
+		this.mask = table.capacity() - 1;
+		this.size = size;
+		this.readOnly = readOnly;
+	}
+
+	private void allocateTable(final int capacity) {
+		final int[] slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		table = IntBuffer.wrap(slots);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return the id of the token, or -1 if it is not in the vocabulary
+	 */
+	public int get(final String token) {
+		final byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+		return table.get(find(bytes, hash(bytes)));
+	}
+
+	/**
+	 * @return the id of the token, adding it to the vocabulary if not present
+	 */
+	public int add(final String token) {
+		final byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+		int slot = find(bytes, hash(bytes));
+		if (table.get(slot) != EMPTY)
+			return table.get(slot);
+
+		if (readOnly)
+			throw new UnsupportedOperationException(
+					"Memory-mapped vocabulary is read-only.");
+
+		// Append token bytes to the arena
+		final int start = offsets.get(size);
+		ensureCapacity(start + bytes.length);
+		for (int i = 0; i < bytes.length; i++)
+			arena.put(start + i, bytes[i]);
+		offsets.put(size + 1, start + bytes.length);
+		table.put(slot, size);
+		size++;
+
+		// Keep the load factor at most 0.5
+		if (2 * size > table.capacity()) {
+			rehash(2 * table.capacity());
+			slot = find(bytes, hash(bytes));
+		}
+		return table.get(slot);
+	}
+
+	/**
+	 * @return the token with the given id, or null if there is no such token
+	 */
+	public String getString(final int id) {
+		if (id < 0 || id >= size)
+			return null;
+		final int start = offsets.get(id);
+		final byte[] bytes = new byte[offsets.get(id + 1) - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = arena.get(start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the no. tokens in the vocabulary
+	 */
+	public int size() {
+		return size;
+	}
+
+	/** @return the index slot holding the token, or the empty slot for it */
+	private int find(final byte[] bytes, final int hash) {
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			final int id = table.get(slot);
+			if (id == EMPTY || matches(id, bytes))
+				return slot;
+		}
+	}
+
+	private boolean matches(final int id, final byte[] bytes) {
+		final int start = offsets.get(id);
+		if (offsets.get(id + 1) - start != bytes.length)
+			return false;
+		for (int i = 0; i < bytes.length; i++) {
+			if (arena.get(start + i) != bytes[i])
+				return false;
+		}
+		return true;
+	}
+
+	/** FNV-1a hash of the token bytes, with a final avalanche */
+	private static int hash(final byte[] bytes) {
+		int h = 0x811c9dc5;
+		for (final byte b : bytes)
+			h = (h ^ b) * 0x01000193;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	private void ensureCapacity(final int arenaSize) {
+		if (arena.capacity() < arenaSize)
+			arena = ByteBuffer.wrap(Arrays.copyOf(arena.array(),
+					Math.max(arenaSize, 2 * arena.capacity())));
+		if (offsets.capacity() < size + 2)
+			offsets = IntBuffer.wrap(Arrays.copyOf(offsets.array(),
+					2 * offsets.capacity()));
+	}
+
+	private void rehash(final int capacity) {
+		allocateTable(capacity);
+		for (int id = 0; id < size; id++) {
+			final int start = offsets.get(id);
+			final byte[] bytes = new byte[offsets.get(id + 1) - start];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = arena.get(start + i);
+			table.put(find(bytes, hash(bytes)), id);
+		}
+	}
+
+	/**
+	 * Write the vocabulary to file in a format that can be memory-mapped by
+	 * {@link #map(File)}
+	 */
+	public void write(final File file) throws IOException {
+		try (final OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(file))) {
+			write(out);
+		}
+	}
+
+	/** Write the binary image of the vocabulary to the given stream */
+	public void write(final OutputStream os) throws IOException {
+		final DataOutputStream out = new DataOutputStream(os);
+		final int arenaSize = offsets.get(size);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(size);
+		out.writeInt(arenaSize);
+		out.writeInt(table.capacity());
+		for (int id = 0; id <= size; id++)
+			out.writeInt(offsets.get(id));
+		for (int slot = 0; slot < table.capacity(); slot++)
+			out.writeInt(table.get(slot));
+		for (int i = 0; i < arenaSize; i++)
+			out.writeByte(arena.get(i));
+		out.flush();
+	}
+
+	/**
+	 * Memory-map a vocabulary written by {@link #write(File)}. The returned
+	 * vocabulary is read-only.
+	 */
+	public static Vocabulary map(final File file) throws IOException {
+		try (final RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			return fromImage(
+					in.getChannel().map(MapMode.READ_ONLY, 0, in.length()),
+					true);
+		}
+	}
+
+	/**
+	 * View a binary image of a vocabulary (e.g. a section of a memory-mapped
+	 * file) as a read-only vocabulary
+	 */
+	public static Vocabulary map(final ByteBuffer image) throws IOException {
+		return fromImage(image, true);
+	}
+
+	/**
+	 * Read the binary image of a vocabulary, either as views over the image
+	 * (read-only) or as a writable copy
+	 */
+	private static Vocabulary fromImage(final ByteBuffer image,
+			final boolean readOnly) throws IOException {
+		if (image.getInt(0) != MAGIC)
+			throw new IOException("Not a vocabulary file.");
+		if (image.getInt(4) != VERSION)
+			throw new IOException("Unsupported vocabulary version "
+					+ image.getInt(4));
+		final int size = image.getInt(8);
+		final int arenaSize = image.getInt(12);
+		final int tableSize = image.getInt(16);
+
+		final int offsetsStart = HEADER_SIZE;
+		final int tableStart = offsetsStart + 4 * (size + 1);
+		final int arenaStart = tableStart + 4 * tableSize;
+
+		final IntBuffer offsets = slice(image, offsetsStart, 4 * (size + 1))
+				.asIntBuffer();
+		final IntBuffer table = slice(image, tableStart, 4 * tableSize)
+				.asIntBuffer();
+		final ByteBuffer arena = slice(image, arenaStart, arenaSize);
+		if (readOnly)
+			return new Vocabulary(arena, offsets, table, size, true);
+
+		// Writable copy with room to grow
+		final int[] offsetsCopy = new int[Math.max(size + 2, DEFAULT_CAPACITY)];
+		offsets.get(offsetsCopy, 0, size + 1);
+		final int[] tableCopy = new int[tableSize];
+		table.get(tableCopy);
+		final byte[] arenaCopy = new byte[Math.max(arenaSize, 1)];
+		arena.get(arenaCopy, 0, arenaSize);
+		return new Vocabulary(ByteBuffer.wrap(arenaCopy),
+				IntBuffer.wrap(offsetsCopy), IntBuffer.wrap(tableCopy), size,
+				false);
+	}
+
+	private static ByteBuffer slice(final ByteBuffer image, final int start,
+			final int length) {
+		final ByteBuffer dup = image.duplicate();
+		dup.position(start);
+		dup.limit(start + length);
+		return dup.slice();
+	}
+
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		final ByteArrayOutputStream image = new ByteArrayOutputStream();
+		write(image);
+		out.writeInt(image.size());
+		image.writeTo(out);
+	}
+
+	private void readObject(final ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		final byte[] image = new byte[in.readInt()];
+		in.readFully(image);
+		final Vocabulary copy = fromImage(ByteBuffer.wrap(image), false);
+		arena = copy.arena;
+		offsets = copy.offsets;
+		table = copy.table;
+		mask = copy.mask;
+		size = copy.size;
+		readOnly = false;
+	}
+
+}
@@ -0,0 +1,63 @@
+package codesum.lm.tui;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+import codesum.lm.vsm.IdfTable;
+
+public class BuildIdfTable {
+
+	/** Command line parameters */
+	public static class Parameters {
+
+		@Parameter(names = { "-d", "--dir" }, description = "Directory of source files (project or corpus) to count", required = true)
+		File dir;
+
+		@Parameter(names = { "-o", "--outFile" }, description = "Where to save the IDF table (updated if it exists)", required = true)
+		File outFile;
+
+		@Parameter(names = { "-t", "--threads" }, description = "No. threads to parse files on")
+		int nThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	public static void main(final String[] args) throws IOException {
+
+		final Parameters params = new Parameters();
+		final JCommander jc = new JCommander(params);
+
+		try {
+			jc.parse(args);
+			buildIdfTable(params.dir, params.outFile, params.nThreads);
+		} catch (final ParameterException e) {
+			System.out.println(e.getMessage());
+			jc.usage();
+		}
+
+	}
+
+	/**
+	 * Build the IDF table used for tf-idf VSM folding, only counting files
+	 * added or changed since the table was last built
+	 *
+	 * @param dir
+	 *            directory of source files (project or corpus) to count
+	 * @param outFile
+	 *            where to save the IDF table
+	 * @param nThreads
+	 *            no. threads to parse files on
+	 */
+	public static void buildIdfTable(final File dir, final File outFile, final int nThreads) throws IOException {
+
+		System.out.println("TASSAL: Tree-based Autofolding Software Summarization ALgorithm");
+		System.out.println("===============================================================");
+
+		System.out.println("\nBuilding IDF table for " + dir + "...");
+		final IdfTable table = IdfTable.build(dir, outFile, nThreads);
+		System.out.println("done. Counted " + table.ndocs() + " files.");
+	}
+
+}
@@ -0,0 +1,62 @@
+package codesum.lm.tui;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+import codesum.lm.topicsum.GibbsSampler;
+import codesum.lm.topicsum.InferenceModel;
+import codesum.lm.topicsum.TopicSum;
+
+public class ExportInferenceModel {
+
+	/** Command line parameters */
+	public static class Parameters {
+
+		@Parameter(names = { "-w", "--workingDir" }, description = "Working directory where the topic model creates necessary files", required = true)
+		String workingDir;
+	}
+
+	public static void main(final String[] args) throws IOException {
+
+		final Parameters params = new Parameters();
+		final JCommander jc = new JCommander(params);
+
+		try {
+			jc.parse(args);
+			exportInferenceModel(params.workingDir);
+		} catch (final ParameterException e) {
+			System.out.println(e.getMessage());
+			jc.usage();
+		}
+
+	}
+
+	/**
+	 * Re-export the compact inference model used for folding from the saved
+	 * sampler state. Sampler states saved by earlier versions of TASSAL can't
+	 * be read, such topic models must be retrained.
+	 *
+	 * @param workingDir
+	 *            working directory where the topic model creates necessary files
+	 */
+	public static void exportInferenceModel(final String workingDir) throws IOException {
+
+		System.out.println("TASSAL: Tree-based Autofolding Software Summarization ALgorithm");
+		System.out.println("===============================================================");
+
+		final String sourceFolder = workingDir + "TopicSum/Source/";
+
+		System.out.println("\nDeserializing the model...");
+		final GibbsSampler sampler = GibbsSampler.readCorpus(sourceFolder + "SamplerState.ser");
+
+		final File modelFile = new File(sourceFolder + TopicSum.INFERENCE_MODEL_NAME);
+		System.out.println("Exporting inference model to " + modelFile + "...");
+		InferenceModel.export(sampler, modelFile);
+		System.out.println("done.");
+	}
+
+}
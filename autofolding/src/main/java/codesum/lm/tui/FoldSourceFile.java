@@ -17,10 +17,12 @@ import codesum.lm.main.ASTVisitors;
 import codesum.lm.main.ASTVisitors.TreeCreatorVisitor;
 import codesum.lm.main.CodeUtils;
 import codesum.lm.main.Settings;
+import codesum.lm.main.SourceBuffer;
 import codesum.lm.main.UnfoldAlgorithms;
 import codesum.lm.main.UnfoldAlgorithms.GreedyTopicSumAlgorithm;
-import codesum.lm.topicsum.GibbsSampler;
 import codesum.lm.topicsum.Topic;
+import codesum.lm.topicsum.TopicModel;
+import codesum.lm.topicsum.TopicSum;
 
 public class FoldSourceFile {
 
@@ -46,6 +48,10 @@ public class FoldSourceFile {
 
 		@Parameter(names = { "-o", "--outFile" }, description = "Where to save folded source file")
 		File outFile = null;
+
+		@Parameter(names = { "-l",
+				"--lazyGreedy" }, description = "Only re-evaluate the best candidate node at each unfolding step (faster, but may unfold different nodes)")
+		boolean lazyGreedy = false;
 	}
 
 	public static void main(final String[] args) {
@@ -56,7 +62,7 @@ public class FoldSourceFile {
 		try {
 			jc.parse(args);
 			foldSourceFile(params.workingDir, params.file, params.project, params.compressionRatio, params.backoffTopic,
-					params.outFile);
+					params.lazyGreedy, params.outFile);
 		} catch (final ParameterException e) {
 			System.out.println(e.getMessage());
 			jc.usage();
@@ -84,6 +90,19 @@ public class FoldSourceFile {
 	 */
 	public static String foldSourceFile(final String workingDir, final File file, final String project,
 			final int compressionRatio, final int backoffTopic, final File outFile) {
+		return foldSourceFile(workingDir, file, project, compressionRatio, backoffTopic, false, outFile);
+	}
+
+	/**
+	 * Fold given source file and return folded file
+	 *
+	 * @param lazyGreedy
+	 *            use the lazy greedy unfolding (see {@link Settings#lazyGreedy})
+	 *
+	 * @see #foldSourceFile(String, File, String, int, int, File)
+	 */
+	public static String foldSourceFile(final String workingDir, final File file, final String project,
+			final int compressionRatio, final int backoffTopic, final boolean lazyGreedy, final File outFile) {
 
 		System.out.println("TASSAL: Tree-based Autofolding Software Summarization ALgorithm");
 		System.out.println("===============================================================");
@@ -97,17 +116,19 @@ public class FoldSourceFile {
 		set.backoffTopicID = backoffTopic;
 		set.curProj = project;
 		set.compressionRatio = compressionRatio;
+		set.lazyGreedy = lazyGreedy;
 
 		// Load Topic Model
-		System.out.println("Deserializing the model...");
-		final GibbsSampler sampler = GibbsSampler.readCorpus(workingDir + "TopicSum/Source/SamplerState.ser");
+		System.out.println("Loading the model...");
+		final TopicModel sampler = TopicSum.readTopicModel(workingDir + "TopicSum/Source/", "SamplerState.ser");
 
-		// Generate AST
-		final CompilationUnit cu = CodeUtils.getAST(file);
+		// Read file and generate AST
+		final SourceBuffer source = CodeUtils.readSource(file);
+		final CompilationUnit cu = CodeUtils.getAST(source);
 
 		// Create folded tree
 		final ASTVisitors.TreeCreatorVisitor tcv = new TreeCreatorVisitor();
-		tcv.process(cu, file, null, sampler, set);
+		tcv.process(cu, source, null, sampler, set);
 
 		// Run selected algorithm on folded tree and return regions to unfold
 		final ArrayList<Range<Integer>> unfoldedFolds = UnfoldAlgorithms.unfoldTree(tcv.getTree(),
@@ -124,8 +145,7 @@ public class FoldSourceFile {
 		System.out.println("done.");
 
 		// Get folded file
-		final String fileString = CodeUtils.readFileString(file);
-		final String foldedFile = CodeUtils.getFolded(fileString, folds, tcv);
+		final String foldedFile = CodeUtils.getFolded(source.getString(), folds, tcv);
 		System.out.println("\nFolded file " + file.getName() + ": \n\n" + foldedFile);
 
 		// Save folded file if requested
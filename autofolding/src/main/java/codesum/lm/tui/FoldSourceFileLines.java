@@ -14,9 +14,11 @@ import codesum.lm.main.ASTVisitors;
 import codesum.lm.main.ASTVisitors.TreeCreatorVisitor;
 import codesum.lm.main.CodeUtils;
 import codesum.lm.main.Settings;
+import codesum.lm.main.SourceBuffer;
 import codesum.lm.main.UnfoldAlgorithms;
 import codesum.lm.main.UnfoldAlgorithms.GreedyTopicSumAlgorithm;
-import codesum.lm.topicsum.GibbsSampler;
+import codesum.lm.topicsum.TopicModel;
+import codesum.lm.topicsum.TopicSum;
 
 public class FoldSourceFileLines extends FoldSourceFile {
 
@@ -55,21 +57,23 @@ public class FoldSourceFileLines extends FoldSourceFile {
 		set.compressionRatio = compressionRatio;
 
 		// Load Topic Model
-		final GibbsSampler sampler = GibbsSampler.readCorpus(workingDir + "TopicSum/Source/SamplerState.ser");
+		final TopicModel sampler = TopicSum.readTopicModel(workingDir + "TopicSum/Source/", "SamplerState.ser");
 
-		// Generate AST
-		final CompilationUnit cu = CodeUtils.getAST(file);
+		// Read file and generate AST
+		final SourceBuffer source = CodeUtils.readSource(file);
+		final CompilationUnit cu = CodeUtils.getAST(source);
 
 		// Create folded tree
 		final ASTVisitors.TreeCreatorVisitor tcv = new TreeCreatorVisitor();
-		tcv.process(cu, file, null, sampler, set);
+		tcv.process(cu, source, null, sampler, set);
 
 		// Run selected algorithm on folded tree and return regions to unfold
 		final ArrayList<Range<Integer>> unfoldedFolds = UnfoldAlgorithms.unfoldTree(tcv.getTree(),
 				new GreedyTopicSumAlgorithm(), false);
 
 		// Get folded nodes as LOC ranges
-		final ArrayList<Range<Integer>> foldedLOC = CodeUtils.getFoldedLOCRanges(file, unfoldedFolds, tcv.allFolds);
+		final ArrayList<Range<Integer>> foldedLOC = CodeUtils.getFoldedLOCRanges(source.getLineIndex(), unfoldedFolds,
+				tcv.allFolds);
 
 		// Save folds to file if requested
 		if (outFile != null)
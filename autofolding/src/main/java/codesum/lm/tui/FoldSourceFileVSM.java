@@ -1,6 +1,7 @@
 package codesum.lm.tui;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -17,8 +18,10 @@ import codesum.lm.main.ASTVisitors.SimpleNameFileVisitor;
 import codesum.lm.main.ASTVisitors.TreeCreatorVisitor;
 import codesum.lm.main.CodeUtils;
 import codesum.lm.main.Settings;
+import codesum.lm.main.SourceBuffer;
 import codesum.lm.main.UnfoldAlgorithms;
 import codesum.lm.main.UnfoldAlgorithms.GreedyVSMAlgorithm;
+import codesum.lm.vsm.IdfTable;
 import codesum.lm.vsm.TokenVector;
 
 public class FoldSourceFileVSM {
@@ -35,16 +38,24 @@ public class FoldSourceFileVSM {
 		@Parameter(names = { "-o", "--outFile" }, description = "Where to save folded source file")
 		File outFile = null;
 
+		@Parameter(names = { "-i", "--idfTable" }, description = "IDF table for tf-idf weighting (see BuildIdfTable)")
+		File idfTable = null;
+
+		@Parameter(names = { "-l",
+				"--lazyGreedy" }, description = "Only re-evaluate the best candidate node at each unfolding step (faster, but may unfold different nodes)")
+		boolean lazyGreedy = false;
+
 	}
 
-	public static void main(final String[] args) {
+	public static void main(final String[] args) throws IOException {
 
 		final Parameters params = new Parameters();
 		final JCommander jc = new JCommander(params);
 
 		try {
 			jc.parse(args);
-			foldSourceFileVSM(params.file, params.compressionRatio, params.outFile);
+			final IdfTable idfTable = params.idfTable != null ? IdfTable.read(params.idfTable) : null;
+			foldSourceFileVSM(params.file, params.compressionRatio, idfTable, params.lazyGreedy, params.outFile);
 		} catch (final ParameterException e) {
 			System.out.println(e.getMessage());
 			jc.usage();
@@ -52,6 +63,15 @@ public class FoldSourceFileVSM {
 
 	}
 
+	/**
+	 * Fold given source file and return folded file
+	 *
+	 * @see #foldSourceFileVSM(File, int, IdfTable, File)
+	 */
+	public static String foldSourceFileVSM(final File file, final int compressionRatio, final File outFile) {
+		return foldSourceFileVSM(file, compressionRatio, null, outFile);
+	}
+
 	/**
 	 * Fold given source file and return folded file
 	 *
@@ -59,12 +79,28 @@ public class FoldSourceFileVSM {
 	 *            file to fold
 	 * @param compressionRatio
 	 *            (%) desired compression ratio
+	 * @param idfTable
+	 *            (optional) corpus IDF table for tf-idf weights
 	 * @param outFile
 	 *            (optional) where to save folded source file
 	 *
 	 * @return folded file
 	 */
-	public static String foldSourceFileVSM(final File file, final int compressionRatio, final File outFile) {
+	public static String foldSourceFileVSM(final File file, final int compressionRatio, final IdfTable idfTable,
+			final File outFile) {
+		return foldSourceFileVSM(file, compressionRatio, idfTable, false, outFile);
+	}
+
+	/**
+	 * Fold given source file and return folded file
+	 *
+	 * @param lazyGreedy
+	 *            use the lazy greedy unfolding (see {@link Settings#lazyGreedy})
+	 *
+	 * @see #foldSourceFileVSM(File, int, IdfTable, File)
+	 */
+	public static String foldSourceFileVSM(final File file, final int compressionRatio, final IdfTable idfTable,
+			final boolean lazyGreedy, final File outFile) {
 
 		System.out.println("TASSAL VSM: Tree-based Autofolding Software Summarization ALgorithm");
 		System.out.println("===============================================================");
@@ -76,19 +112,21 @@ public class FoldSourceFileVSM {
 		// Main code folder settings
 		set.profitType = "CSimFile";
 		set.compressionRatio = compressionRatio;
+		set.lazyGreedy = lazyGreedy;
 
-		// Generate AST
-		final CompilationUnit cu = CodeUtils.getAST(file);
+		// Read file and generate AST
+		final SourceBuffer source = CodeUtils.readSource(file);
+		final CompilationUnit cu = CodeUtils.getAST(source);
 
 		// Create file term vector
 		System.out.println("Creating file term vector...");
 		final SimpleNameFileVisitor snfv = new SimpleNameFileVisitor();
 		snfv.process(cu, set.splitTokens);
-		final TokenVector fileVec = new TokenVector(snfv.tf);
+		final TokenVector fileVec = new TokenVector(snfv.tf, idfTable);
 
 		// Create folded tree
 		final ASTVisitors.TreeCreatorVisitor tcv = new TreeCreatorVisitor();
-		tcv.process(cu, file, fileVec, null, set);
+		tcv.process(cu, source, fileVec, null, set);
 
 		// Run selected algorithm on folded tree and return regions to unfold
 		final ArrayList<Range<Integer>> unfoldedFolds = UnfoldAlgorithms.unfoldTree(tcv.getTree(),
@@ -105,8 +143,7 @@ public class FoldSourceFileVSM {
 		System.out.println("done.");
 
 		// Get folded file
-		final String fileString = CodeUtils.readFileString(file);
-		final String foldedFile = CodeUtils.getFolded(fileString, folds, tcv);
+		final String foldedFile = CodeUtils.getFolded(source.getString(), folds, tcv);
 		System.out.println("\nFolded file " + file.getName() + ": \n\n" + foldedFile);
 
 		// Save folded file if requested
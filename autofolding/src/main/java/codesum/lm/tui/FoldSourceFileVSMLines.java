@@ -15,6 +15,7 @@ import codesum.lm.main.ASTVisitors.SimpleNameFileVisitor;
 import codesum.lm.main.ASTVisitors.TreeCreatorVisitor;
 import codesum.lm.main.CodeUtils;
 import codesum.lm.main.Settings;
+import codesum.lm.main.SourceBuffer;
 import codesum.lm.main.UnfoldAlgorithms;
 import codesum.lm.main.UnfoldAlgorithms.GreedyVSMAlgorithm;
 import codesum.lm.vsm.TokenVector;
@@ -52,8 +53,9 @@ public class FoldSourceFileVSMLines extends FoldSourceFileVSM {
 		set.profitType = "CSimFile";
 		set.compressionRatio = compressionRatio;
 
-		// Generate AST
-		final CompilationUnit cu = CodeUtils.getAST(file);
+		// Read file and generate AST
+		final SourceBuffer source = CodeUtils.readSource(file);
+		final CompilationUnit cu = CodeUtils.getAST(source);
 
 		// Create file term vector
 		final SimpleNameFileVisitor snfv = new SimpleNameFileVisitor();
@@ -62,14 +64,15 @@ public class FoldSourceFileVSMLines extends FoldSourceFileVSM {
 
 		// Create folded tree
 		final ASTVisitors.TreeCreatorVisitor tcv = new TreeCreatorVisitor();
-		tcv.process(cu, file, fileVec, null, set);
+		tcv.process(cu, source, fileVec, null, set);
 
 		// Run selected algorithm on folded tree and return regions to unfold
 		final ArrayList<Range<Integer>> unfoldedFolds = UnfoldAlgorithms.unfoldTree(tcv.getTree(),
 				new GreedyVSMAlgorithm(), false);
 
 		// Get folded nodes as LOC ranges
-		final ArrayList<Range<Integer>> foldedLOC = CodeUtils.getFoldedLOCRanges(file, unfoldedFolds, tcv.allFolds);
+		final ArrayList<Range<Integer>> foldedLOC = CodeUtils.getFoldedLOCRanges(source.getLineIndex(), unfoldedFolds,
+				tcv.allFolds);
 
 		// Save folds to file if requested
 		if (outFile != null)
@@ -5,9 +5,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
+import org.eclipse.jdt.core.dom.CompilationUnit;
 
 import codesum.lm.main.CodeUtils;
 import codesum.lm.main.Settings;
@@ -82,21 +87,32 @@ public class ListSalientFiles {
 				workingDir + project + "/"),
 				new String[] { "java" }, true);
 		
-		int count = 0;
+		// Ignore empty files
+		final List<File> nonEmptyFiles = new ArrayList<File>();
+		for (final File file : files) {
+			if (file.length() != 0)
+				nonEmptyFiles.add(file);
+		}
+
+		// Parse files in batches and get their token lists
+		final Map<File, List<String>> tokenLists = new ConcurrentHashMap<File, List<String>>();
+		final AtomicInteger count = new AtomicInteger();
+		CodeUtils.getASTs(nonEmptyFiles, Runtime.getRuntime().availableProcessors(),
+				new BiConsumer<File, CompilationUnit>() {
+					@Override
+					public void accept(final File file, final CompilationUnit cu) {
+						final int done = count.getAndIncrement();
+						if (done % 50 == 0)
+							System.out.println("At file " + done + " of "
+									+ nonEmptyFiles.size());
+						tokenLists.put(file, CodeUtils.getTokenList(cu, file, set));
+					}
+				});
 		
 		List<FileScore> fileScores = new ArrayList<ListSalientFiles.FileScore>();
-		for (final File file : files) {
-			
-			// Ignore empty files
-			if (file.length() == 0)
-				continue;
-
-			if (count % 50 == 0)
-				System.out.println("At file " + count + " of "
-						+ files.size());
-			count++;
+		for (final File file : nonEmptyFiles) {
 			
-			List<String> lines = CodeUtils.getTokenList(file, set);
+			List<String> lines = tokenLists.get(file);
 			
 			List<Integer> lineNumbers = new ArrayList<Integer>();
 			for(int i=0; i < lines.size(); i++){
@@ -3,9 +3,7 @@ package codesum.lm.tui;
 import java.io.File;
 import java.io.FilenameFilter;
 
-import org.apache.commons.io.FileUtils;
-
-import codesum.lm.main.CodeUtils;
+import codesum.lm.main.NodeTokenSource;
 import codesum.lm.main.Settings;
 import codesum.lm.topicsum.TopicSum;
 
@@ -27,6 +25,18 @@ public class TrainTopicModel {
 		@Parameter(names = { "-i", "--iterations" }, description = "Number of iterations for the topic model")
 		int iterations = 1000;
 
+		@Parameter(names = { "-t", "--threads" }, description = "Number of threads to read and sample projects on")
+		int nThreads = 1;
+
+		@Parameter(names = { "-m", "--outOfCore" }, description = "Keep corpus tokens and topic assignments in memory-mapped files")
+		boolean outOfCore = false;
+
+		@Parameter(names = { "-r", "--resume" }, description = "Resume training from the last checkpoint")
+		boolean resume = false;
+
+		@Parameter(names = { "-s", "--saveTokens" }, description = "Also write out the node tokens of each file (for debugging)")
+		boolean saveTokens = false;
+
 	}
 
 	public static void main(final String[] args) throws Exception {
@@ -37,7 +47,8 @@ public class TrainTopicModel {
 		try {
 			jc.parse(args);
 			trainTopicModel(params.workingDir, params.projectsDir,
-					params.iterations);
+					params.iterations, params.nThreads, params.outOfCore,
+					params.resume, params.saveTokens);
 		} catch (final ParameterException e) {
 			System.out.println(e.getMessage());
 			jc.usage();
@@ -62,6 +73,76 @@ public class TrainTopicModel {
 	 */
 	public static void trainTopicModel(final String workingDir,
 			final String projectsDir, final int iterations) throws Exception {
+		trainTopicModel(workingDir, projectsDir, iterations, 1);
+	}
+
+	/**
+	 * Train topic model for source code autofolding, sampling projects in
+	 * parallel.
+	 *
+	 * @param nThreads
+	 *            number of threads to read and sample projects on
+	 * @see #trainTopicModel(String, String, int)
+	 */
+	public static void trainTopicModel(final String workingDir,
+			final String projectsDir, final int iterations, final int nThreads)
+			throws Exception {
+		trainTopicModel(workingDir, projectsDir, iterations, nThreads, false);
+	}
+
+	/**
+	 * Train topic model for source code autofolding, sampling projects in
+	 * parallel and optionally out-of-core.
+	 *
+	 * <p>
+	 * If outOfCore is set, corpus tokens and topic assignments are kept in
+	 * memory-mapped files in workingDir/TopicSum/Source/SamplerState.ser.corpus/
+	 * rather than on the heap, these must be kept alongside the trained model.
+	 *
+	 * @param nThreads
+	 *            number of threads to read and sample projects on
+	 * @param outOfCore
+	 *            whether to keep the corpus in memory-mapped files
+	 * @see #trainTopicModel(String, String, int)
+	 */
+	public static void trainTopicModel(final String workingDir,
+			final String projectsDir, final int iterations,
+			final int nThreads, final boolean outOfCore) throws Exception {
+		trainTopicModel(workingDir, projectsDir, iterations, nThreads,
+				outOfCore, false);
+	}
+
+	/**
+	 * Train topic model for source code autofolding, optionally resuming from
+	 * the checkpoint in workingDir/TopicSum/Source/SamplerState.ser.ckpt
+	 * which is written periodically during training.
+	 *
+	 * @param resume
+	 *            whether to resume from the last checkpoint
+	 * @see #trainTopicModel(String, String, int, int, boolean)
+	 */
+	public static void trainTopicModel(final String workingDir,
+			final String projectsDir, final int iterations,
+			final int nThreads, final boolean outOfCore, final boolean resume)
+			throws Exception {
+		trainTopicModel(workingDir, projectsDir, iterations, nThreads,
+				outOfCore, resume, false);
+	}
+
+	/**
+	 * Train topic model for source code autofolding, reading the tokens of
+	 * each foldable node straight from the source files. If saveTokens is set,
+	 * the tokens are also written out to workingDir/TopicSum/Source/ with one
+	 * line per foldable node (for debugging).
+	 *
+	 * @param saveTokens
+	 *            whether to write out the node tokens of each file
+	 * @see #trainTopicModel(String, String, int, int, boolean, boolean)
+	 */
+	public static void trainTopicModel(final String workingDir,
+			final String projectsDir, final int iterations,
+			final int nThreads, final boolean outOfCore, final boolean resume,
+			final boolean saveTokens) throws Exception {
 
 		System.out
 				.println("TASSAL: Tree-based Autofolding Software Summarization ALgorithm");
@@ -81,20 +162,15 @@ public class TrainTopicModel {
 		// Set paths and default code folder settings
 		final Settings set = new Settings(workingDir, projectsDir, projects);
 
-		// Create topic model base files in workingDir/TopicSum/Source/
-		CodeUtils.saveFileTokensByNodeID(set);
+		// Topic model files are saved in workingDir/TopicSum/Source/
+		final String sourceFolder = workingDir + "TopicSum/Source/";
+		new File(sourceFolder).mkdirs();
 
-		// Train topic model and serialize model to
-		// workingDir/TopicSum/Source/SamplerState.ser
-		TopicSum.trainTopicSum(workingDir + "TopicSum/Source/", projects,
-				"SamplerState.ser", iterations);
-
-		// Delete temporary directories
-		final File dir = new File(workingDir + "TopicSum/Source/");
-		for (final File file : dir.listFiles()) {
-			if (!file.getName().contains("SamplerState.ser"))
-				FileUtils.deleteDirectory(file);
-		}
+		// Train topic model on the node tokens of each source file and
+		// serialize model to workingDir/TopicSum/Source/SamplerState.ser
+		TopicSum.trainTopicSum(new NodeTokenSource(set, saveTokens),
+				sourceFolder, projects, "SamplerState.ser", iterations,
+				nThreads, outOfCore, resume);
 	}
 
 	private TrainTopicModel() {
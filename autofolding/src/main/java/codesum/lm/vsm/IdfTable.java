@@ -0,0 +1,349 @@
+package codesum.lm.vsm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+import codesum.lm.main.ASTVisitors.SimpleNameFileVisitor;
+import codesum.lm.main.CodeUtils;
+import codesum.lm.topicsum.Vocabulary;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+/**
+ * Document frequencies of identifier parts over a corpus of source files, for
+ * idf weighting of {@link TokenVector}s (idfT=0). The table is built by
+ * {@link #build} and memory-mapped by {@link #read}, giving O(1) lookups
+ * without loading the table into the heap.
+ *
+ * <p>
+ * The table also records the terms of each file it counted (and which files
+ * couldn't be parsed), so rebuilding it over the same directory only re-counts
+ * files that were added or changed (and discounts files that were removed).
+ */
+public class IdfTable {
+
+	private static final int MAGIC = 0x54534946; // "TSIF"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 5 * 4;
+
+	// No. files counted at once (bounds memory use)
+	private static final int BATCH_SIZE = 1000;
+
+	// Term count recorded for files that couldn't be parsed
+	private static final int UNPARSEABLE = -1;
+
+	// No. parsed files (documents) and no. files recorded, incl. unparseable
+	private final int ndocs;
+	private final IntBuffer docFreqs;
+	private final ByteBuffer files;
+	private final int nfiles;
+	private final Vocabulary vocabulary;
+	private final String id;
+
+	/** Memory-map the sections of the table file */
+	private IdfTable(final ByteBuffer image, final String id)
+			throws IOException {
+		this.id = id;
+		if (image.getInt(0) != MAGIC)
+			throw new IOException("Not an IDF table file.");
+		if (image.getInt(4) != VERSION)
+			throw new IOException("Unsupported IDF table version "
+					+ image.getInt(4));
+		ndocs = image.getInt(8);
+		final int nterms = image.getInt(12);
+		nfiles = image.getInt(16);
+
+		final int filesStart = HEADER_SIZE + 4 * nterms + 4;
+		final int filesSize = image.getInt(filesStart - 4);
+		docFreqs = slice(image, HEADER_SIZE, 4 * nterms).asIntBuffer();
+		files = slice(image, filesStart, filesSize);
+		vocabulary = Vocabulary.map(slice(image, filesStart + filesSize,
+				image.capacity() - filesStart - filesSize));
+	}
+
+	/** Memory-map an IDF table written by {@link #build} */
+	public static IdfTable read(final File file) throws IOException {
+		try (final RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			return new IdfTable(in.getChannel().map(MapMode.READ_ONLY, 0,
+					in.length()), com.google.common.io.Files.asByteSource(file)
+					.hash(Hashing.murmur3_128()).toString());
+		}
+	}
+
+	/**
+	 * Count document frequencies of all java files in the given directory,
+	 * updating the table in tableFile if it exists
+	 *
+	 * @param dir
+	 *            directory of source files (a project or corpus)
+	 * @param tableFile
+	 *            where to save the table
+	 * @param nThreads
+	 *            no. threads to parse files on
+	 * @return the memory-mapped table
+	 */
+	public static IdfTable build(final File dir, final File tableFile,
+			final int nThreads) throws IOException {
+		final Builder builder = new Builder();
+		if (tableFile.exists()) {
+			try {
+				builder.load(read(tableFile));
+			} catch (final IOException e) {
+				System.out.println("Unable to read " + tableFile
+						+ ", counting all files again: " + e.getMessage());
+			}
+		}
+		builder.update(dir, nThreads);
+		builder.write(tableFile);
+		return read(tableFile);
+	}
+
+	/** @return id and version of the table (hash of its file) */
+	public String getId() {
+		return id;
+	}
+
+	/** @return no. documents (parsed files) counted */
+	public int ndocs() {
+		return ndocs;
+	}
+
+	/** @return no. documents containing the term */
+	public int getDocFreq(final String term) {
+		final int id = vocabulary.get(term);
+		return id == -1 ? 0 : docFreqs.get(id);
+	}
+
+	/**
+	 * @return smoothed inverse document frequency of the term, 1 + log((1 +
+	 *         N) / (1 + df)), which is positive even for terms in every
+	 *         document
+	 */
+	public double idf(final String term) {
+		return 1 + Math.log((1. + ndocs) / (1. + getDocFreq(term)));
+	}
+
+	private static ByteBuffer slice(final ByteBuffer image, final int start,
+			final int length) {
+		final ByteBuffer dup = image.duplicate();
+		dup.position(start);
+		dup.limit(start + length);
+		return dup.slice();
+	}
+
+	/** Terms (ids) of a counted file */
+	private static class FileTerms {
+		private final long lastModified;
+
+		// Null if the file couldn't be parsed
+		private final int[] terms;
+
+		public FileTerms(final long lastModified, final int[] terms) {
+			this.lastModified = lastModified;
+			this.terms = terms;
+		}
+	}
+
+	/** Mutable table of document frequencies */
+	private static class Builder {
+
+		private final Vocabulary vocabulary = new Vocabulary();
+		private int[] docFreqs = new int[1024];
+
+		// Counted files keyed by path relative to the directory
+		private final TreeMap<String, FileTerms> files = new TreeMap<>();
+
+		/** Load a previously built table */
+		void load(final IdfTable table) throws IOException {
+			for (int id = 0; id < table.vocabulary.size(); id++)
+				vocabulary.add(table.vocabulary.getString(id));
+			docFreqs = new int[Math.max(vocabulary.size(), 1024)];
+			table.docFreqs.duplicate().get(docFreqs, 0, vocabulary.size());
+
+			final byte[] filesImage = new byte[table.files.capacity()];
+			table.files.duplicate().get(filesImage);
+			final DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(filesImage));
+			for (int i = 0; i < table.nfiles; i++) {
+				final String path = in.readUTF();
+				final long lastModified = in.readLong();
+				final int nterms = in.readInt();
+				if (nterms == UNPARSEABLE) {
+					files.put(path, new FileTerms(lastModified, null));
+					continue;
+				}
+				final int[] terms = new int[nterms];
+				for (int j = 0; j < terms.length; j++)
+					terms[j] = in.readInt();
+				files.put(path, new FileTerms(lastModified, terms));
+			}
+		}
+
+		/** Count new and changed files in dir, discount removed files */
+		void update(final File dir, final int nThreads) throws IOException {
+
+			// Get all java files in dir
+			final TreeMap<String, File> current = new TreeMap<>();
+			for (final File file : FileUtils.listFiles(dir,
+					new String[] { "java" }, true))
+				current.put(getPath(dir, file), file);
+
+			// Discount removed and changed files
+			for (final Iterator<Map.Entry<String, FileTerms>> it = files
+					.entrySet().iterator(); it.hasNext();) {
+				final Map.Entry<String, FileTerms> entry = it.next();
+				final File file = current.get(entry.getKey());
+				if (file == null
+						|| file.lastModified() != entry.getValue().lastModified) {
+					if (entry.getValue().terms != null) {
+						for (final int id : entry.getValue().terms)
+							docFreqs[id]--;
+					}
+					it.remove();
+				}
+			}
+
+			// Count new and changed files
+			final List<File> toCount = new ArrayList<>();
+			for (final Map.Entry<String, File> entry : current.entrySet()) {
+				if (!files.containsKey(entry.getKey()))
+					toCount.add(entry.getValue());
+			}
+			System.out.println("Counting terms in " + toCount.size()
+					+ " files (" + files.size() + " unchanged)...");
+
+			int count = 0;
+			for (final List<File> batch : Lists.partition(toCount, BATCH_SIZE)) {
+
+				// Parse files in parallel batches
+				final Map<File, Set<String>> results = new ConcurrentHashMap<>();
+				CodeUtils.getASTs(batch, nThreads,
+						new BiConsumer<File, CompilationUnit>() {
+							@Override
+							public void accept(final File file,
+									final CompilationUnit cu) {
+								if (cu == null)
+									System.out.println("Skipping unparseable file "
+											+ file);
+								else
+									results.put(file, getTerms(cu));
+							}
+						});
+
+				// Add terms in file order so that ids are deterministic,
+				// recording unparseable files so they aren't parsed again
+				// until they change
+				for (final File file : batch) {
+					final Set<String> terms = results.get(file);
+					if (terms != null)
+						add(getPath(dir, file), file.lastModified(), terms);
+					else
+						files.put(getPath(dir, file), new FileTerms(
+								file.lastModified(), null));
+				}
+				count += batch.size();
+				System.out.println("Counted " + count + "/" + toCount.size()
+						+ " files.");
+			}
+		}
+
+		private void add(final String path, final long lastModified,
+				final Collection<String> terms) {
+			final int[] ids = new int[terms.size()];
+			int i = 0;
+			for (final String term : terms) {
+				final int id = vocabulary.add(term);
+				if (id >= docFreqs.length)
+					docFreqs = Arrays.copyOf(docFreqs, 2 * docFreqs.length);
+				docFreqs[id]++;
+				ids[i++] = id;
+			}
+			Arrays.sort(ids);
+			files.put(path, new FileTerms(lastModified, ids));
+		}
+
+		/**
+		 * Write the table, replacing any previous table only once the new one
+		 * has been completely written
+		 */
+		void write(final File file) throws IOException {
+
+			// Serialize the file terms first as their size goes in the header
+			final ByteArrayOutputStream filesImage = new ByteArrayOutputStream();
+			final DataOutputStream filesOut = new DataOutputStream(filesImage);
+			int ndocs = 0;
+			for (final Map.Entry<String, FileTerms> entry : files.entrySet()) {
+				final int[] terms = entry.getValue().terms;
+				filesOut.writeUTF(entry.getKey());
+				filesOut.writeLong(entry.getValue().lastModified);
+				if (terms == null) {
+					filesOut.writeInt(UNPARSEABLE);
+					continue;
+				}
+				filesOut.writeInt(terms.length);
+				for (final int id : terms)
+					filesOut.writeInt(id);
+				ndocs++;
+			}
+			filesOut.flush();
+
+			final File tmpFile = new File(file.getPath() + ".tmp");
+			try (final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(ndocs);
+				out.writeInt(vocabulary.size());
+				out.writeInt(files.size());
+				for (int id = 0; id < vocabulary.size(); id++)
+					out.writeInt(docFreqs[id]);
+				out.writeInt(filesImage.size());
+				filesImage.writeTo(out);
+				vocabulary.write(out);
+			}
+			Files.move(tmpFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/** Get the set of identifier parts in the file */
+	private static Set<String> getTerms(final CompilationUnit cu) {
+		// Split tokens as the file vector does when folding
+		final SimpleNameFileVisitor snfv = new SimpleNameFileVisitor();
+		snfv.process(cu, true);
+		return new HashSet<>(snfv.tf.elementSet());
+	}
+
+	private static String getPath(final File dir, final File file) {
+		return dir.toURI().relativize(file.toURI()).getPath();
+	}
+
+}
@@ -0,0 +1,133 @@
+package codesum.lm.vsm;
+
+import java.util.Arrays;
+
+/**
+ * Log tf weighted TokenVector (tfT=2, idfT=0 or 1) that keeps a running dot
+ * product with a fixed weight vector and a running squared norm, so that
+ * adding terms and the cosine similarity with added terms take time linear in
+ * the no. added terms rather than the no. terms in the vector. Terms are keyed
+ * by id in a {@link TermDictionary}.
+ */
+public class IncrementalTokenVector {
+
+	// Fixed weights to calculate cosine similarity with (indexed by term id)
+	private final double[] otherWeights;
+	private final double otherNorm;
+
+	// Term idfs (indexed by term id, NaN if not yet looked up)
+	private final TermDictionary dict;
+	private final IdfTable idfTable;
+	private double[] idfs = new double[0];
+
+	// Term counts (indexed by term id)
+	private int[] tf;
+	private double dot = 0;
+	private double sqNorm = 0;
+
+	/**
+	 * @param other
+	 *            fixed weight vector to calculate cosine similarity with
+	 * @param dict
+	 *            dictionary of term ids
+	 * @param idfTable
+	 *            corpus table for idf weights (or null for no idf)
+	 */
+	public IncrementalTokenVector(final SparseVector other, final TermDictionary dict, final IdfTable idfTable) {
+		this.dict = dict;
+		this.idfTable = idfTable;
+		otherWeights = new double[other.maxId() + 1];
+		for (int i = 0; i < other.size(); i++)
+			otherWeights[other.getId(i)] = other.getValue(i);
+		otherNorm = other.norm();
+		tf = new int[otherWeights.length];
+	}
+
+	/** @return true if the incremental vector weights terms as tv does */
+	public static boolean isSupported(final TokenVector tv) {
+		return tv.tfT == 2 && (tv.idfT == 1 || tv.idfT == 0 && tv.idfTable != null);
+	}
+
+	/** Add given term counts to the vector */
+	public void add(final SparseVector termFreqs) {
+		for (int i = 0; i < termFreqs.size(); i++) {
+			final int id = termFreqs.getId(i);
+			final int n = (int) termFreqs.getValue(i);
+			final int count = getCount(id);
+			dot += dotDelta(id, count, n);
+			sqNorm += sqNormDelta(id, count, n);
+			if (id >= tf.length)
+				tf = Arrays.copyOf(tf, Math.max(id + 1, 2 * tf.length));
+			tf[id] += n;
+		}
+	}
+
+	/** @return cosine similarity with the fixed vector */
+	public double cosSim() {
+		return cosSim(dot, sqNorm);
+	}
+
+	/**
+	 * @return cosine similarity with the fixed vector if given term counts
+	 *         were added (without adding them)
+	 */
+	public double cosSimWith(final SparseVector termFreqs) {
+		double newDot = dot;
+		double newSqNorm = sqNorm;
+		for (int i = 0; i < termFreqs.size(); i++) {
+			final int id = termFreqs.getId(i);
+			final int n = (int) termFreqs.getValue(i);
+			final int count = getCount(id);
+			newDot += dotDelta(id, count, n);
+			newSqNorm += sqNormDelta(id, count, n);
+		}
+		return cosSim(newDot, newSqNorm);
+	}
+
+	private double cosSim(final double dot, final double sqNorm) {
+		if (sqNorm <= 0 || otherNorm == 0)
+			return 0;
+		return dot / (Math.sqrt(sqNorm) * otherNorm);
+	}
+
+	private int getCount(final int id) {
+		return id < tf.length ? tf[id] : 0;
+	}
+
+	/** Change in dot product when term count goes from count to count+n */
+	private double dotDelta(final int id, final int count, final int n) {
+		if (id >= otherWeights.length || otherWeights[id] == 0)
+			return 0;
+		return (weight(count + n) - weight(count)) * idf(id) * otherWeights[id];
+	}
+
+	/** Change in squared norm when term count goes from count to count+n */
+	private double sqNormDelta(final int id, final int count, final int n) {
+		final double oldWeight = weight(count);
+		final double newWeight = weight(count + n);
+		final double idf = idf(id);
+		return (newWeight * newWeight - oldWeight * oldWeight) * idf * idf;
+	}
+
+	/** Idf weight (see {@link TokenVector#calcWeights()}) */
+	private double idf(final int id) {
+		if (idfTable == null)
+			return 1.0;
+		if (id >= idfs.length) {
+			final int oldLength = idfs.length;
+			idfs = Arrays.copyOf(idfs, Math.max(id + 1, 2 * oldLength));
+			Arrays.fill(idfs, oldLength, idfs.length, Double.NaN);
+		}
+		if (Double.isNaN(idfs[id]))
+			idfs[id] = idfTable.idf(dict.getTerm(id));
+		return idfs[id];
+	}
+
+	/** Log tf weight (see {@link TokenVector#calcWeights()}) */
+	private static double weight(final int count) {
+		if (count == 0)
+			return 0;
+		return 1 + Math.log(count);
+	}
+
+}
@@ -0,0 +1,112 @@
+package codesum.lm.vsm;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Sparse vector keyed by term id (see {@link TermDictionary}), stored as
+ * parallel arrays of ids (sorted) and values.
+ */
+public class SparseVector {
+
+	private final int[] ids;
+	private final double[] values;
+
+	/**
+	 * @param ids
+	 *            term ids in increasing order
+	 * @param values
+	 *            value for each term id
+	 */
+	public SparseVector(final int[] ids, final double[] values) {
+		this.ids = ids;
+		this.values = values;
+	}
+
+	/** Create vector of term counts */
+	public static SparseVector fromCounts(final Multiset<String> termFreqs, final TermDictionary dict) {
+		final int[] ids = getSortedIds(termFreqs.elementSet(), dict);
+		final double[] values = new double[ids.length];
+		for (int i = 0; i < ids.length; i++)
+			values[i] = termFreqs.count(dict.getTerm(ids[i]));
+		return new SparseVector(ids, values);
+	}
+
+	/** Create vector of term weights */
+	public static SparseVector fromWeights(final Map<String, Double> weights, final TermDictionary dict) {
+		final int[] ids = getSortedIds(weights.keySet(), dict);
+		final double[] values = new double[ids.length];
+		for (int i = 0; i < ids.length; i++)
+			values[i] = weights.get(dict.getTerm(ids[i]));
+		return new SparseVector(ids, values);
+	}
+
+	private static int[] getSortedIds(final Iterable<String> terms, final TermDictionary dict) {
+		int[] ids = new int[16];
+		int n = 0;
+		for (final String term : terms) {
+			if (n == ids.length)
+				ids = Arrays.copyOf(ids, 2 * n);
+			ids[n++] = dict.getId(term);
+		}
+		ids = Arrays.copyOf(ids, n);
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/** @return no. non-zero terms */
+	public int size() {
+		return ids.length;
+	}
+
+	/** @return id of the i-th non-zero term */
+	public int getId(final int i) {
+		return ids[i];
+	}
+
+	/** @return value of the i-th non-zero term */
+	public double getValue(final int i) {
+		return values[i];
+	}
+
+	/** @return largest term id (or -1 if the vector is empty) */
+	public int maxId() {
+		return ids.length == 0 ? -1 : ids[ids.length - 1];
+	}
+
+	public double norm() {
+		double sqNorm = 0;
+		for (final double value : values)
+			sqNorm += value * value;
+		return Math.sqrt(sqNorm);
+	}
+
+	/** Dot product with given vector (merge-join on term ids) */
+	public double dot(final SparseVector other) {
+		double sum = 0;
+		int i = 0;
+		int j = 0;
+		while (i < ids.length && j < other.ids.length) {
+			if (ids[i] < other.ids[j]) {
+				i++;
+			} else if (ids[i] > other.ids[j]) {
+				j++;
+			} else {
+				sum += values[i] * other.values[j];
+				i++;
+				j++;
+			}
+		}
+		return sum;
+	}
+
+	/** Cosine similarity with given vector (zero if either is empty) */
+	public double cosSim(final SparseVector other) {
+		if (ids.length == 0 || other.ids.length == 0)
+			return 0;
+		return dot(other) / (norm() * other.norm());
+	}
+
+}
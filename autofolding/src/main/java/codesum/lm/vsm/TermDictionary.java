@@ -0,0 +1,39 @@
+package codesum.lm.vsm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Dictionary interning the terms of a file to consecutive int ids, so that
+ * term vectors of the file can be keyed by int rather than String.
+ */
+public class TermDictionary {
+
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private final ArrayList<String> terms = new ArrayList<>();
+
+	/**
+	 * @return the id of the given term (adding it to the dictionary if not
+	 *         seen before)
+	 */
+	public int getId(final String term) {
+		Integer id = ids.get(term);
+		if (id == null) {
+			id = terms.size();
+			ids.put(term, id);
+			terms.add(term);
+		}
+		return id;
+	}
+
+	/** @return the term with the given id */
+	public String getTerm(final int id) {
+		return terms.get(id);
+	}
+
+	/** @return no. terms in the dictionary */
+	public int size() {
+		return terms.size();
+	}
+
+}
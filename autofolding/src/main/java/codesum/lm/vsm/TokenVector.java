@@ -15,9 +15,10 @@ public class TokenVector implements Serializable {
 
 	// Choose tf and idf types as follows:
 	// tfT: 0 - Augmented, 1 - TT, 2 - log, 3 - Log average
-	// idfT: 0 - standard idf, 1 - None
+	// idfT: 0 - standard idf (from idfTable), 1 - None
 	public int tfT = 2;
 	public int idfT = 1;
+	public transient IdfTable idfTable;
 	public final double tfWeight = 0.4; // For tfT=0 (Aug)
 	public double tfTTWeight = 0.1; // For tfT=1 (TT)
 
@@ -30,6 +31,18 @@ public class TokenVector implements Serializable {
 
 	/** Calculates tf-idf weights for snippet */
 	public TokenVector(final Multiset<String> termFreqs) {
+		this(termFreqs, null);
+	}
+
+	/**
+	 * Calculates tf-idf weights for snippet, using standard idf from the given
+	 * corpus table (or no idf if null)
+	 */
+	public TokenVector(final Multiset<String> termFreqs, final IdfTable idfTable) {
+		if (idfTable != null) {
+			this.idfTable = idfTable;
+			idfT = 0;
+		}
 		tf.addAll(termFreqs);
 		for (final String term : termFreqs.elementSet()) {
 			maxFreq = Math.max(maxFreq, tf.count(term));
@@ -64,8 +77,9 @@ public class TokenVector implements Serializable {
 			// Calculate inverse document-frequency
 			double idfW;
 			if (idfT == 0) {
-				throw new UnsupportedOperationException(
-						"IDF not implemented yet.");
+				if (idfTable == null)
+					throw new IllegalStateException("No IDF table set.");
+				idfW = idfTable.idf(term);
 			} else if (idfT == 1)
 				idfW = 1.0;
 			else
@@ -79,6 +93,11 @@ public class TokenVector implements Serializable {
 
 	}
 
+	/** Get tf-idf weights as a sparse vector keyed by term id */
+	public SparseVector toSparseVector(final TermDictionary dict) {
+		return SparseVector.fromWeights(weights, dict);
+	}
+
 	/**
 	 * Calculate cosine similarity between current TokenVector weights and given
 	 * TokenVector weights
@@ -0,0 +1,176 @@
+package codesum.lm.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codesum.lm.main.Settings;
+import codesum.lm.main.SourceBuffer;
+import codesum.lm.topicsum.TopicSum;
+
+import com.google.common.io.Files;
+
+public class FoldCacheTest {
+
+	// Includes decreasing and repeated lines to exercise the delta encoding
+	private static final ArrayList<Integer> FOLDED_LOC = new ArrayList<>(Arrays.asList(3, 4, 5, 200, 1, 1, 70000));
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger folds = new AtomicInteger();
+
+	@Test
+	public void testMemoryHit() {
+		final FoldCache cache = new FoldCache(FoldCache.DEFAULT_MAX_BYTES, null);
+		assertEquals(FOLDED_LOC, cache.get(key("class A {}", 50), folder()));
+		assertEquals(FOLDED_LOC, cache.get(key("class A {}", 50), folder()));
+		assertEquals(1, folds.get());
+		assertEquals(2, cache.lookupCount());
+		assertEquals(1, cache.hitCount());
+		assertEquals(1, cache.missCount());
+
+		// Other content or settings miss
+		cache.get(key("class B {}", 50), folder());
+		cache.get(key("class A {}", 30), folder());
+		assertEquals(3, folds.get());
+	}
+
+	@Test
+	public void testDiskHit() {
+		new FoldCache(FoldCache.DEFAULT_MAX_BYTES, folder.getRoot()).get(key("class A {}", 50), folder());
+
+		final FoldCache cache = new FoldCache(FoldCache.DEFAULT_MAX_BYTES, folder.getRoot());
+		assertEquals(FOLDED_LOC, cache.get(key("class A {}", 50), folder()));
+		assertEquals(1, folds.get());
+		assertEquals(1, cache.diskHitCount());
+		assertEquals(0, cache.missCount());
+	}
+
+	@Test
+	public void testTruncatedEntry() throws IOException {
+		new FoldCache(FoldCache.DEFAULT_MAX_BYTES, folder.getRoot()).get(key("class A {}", 50), folder());
+		final File entry = getEntryFile();
+		try (final RandomAccessFile raf = new RandomAccessFile(entry, "rw")) {
+			raf.setLength(raf.length() - 2);
+		}
+
+		final FoldCache cache = new FoldCache(FoldCache.DEFAULT_MAX_BYTES, folder.getRoot());
+		assertEquals(FOLDED_LOC, cache.get(key("class A {}", 50), folder()));
+		assertEquals(2, folds.get());
+		assertEquals(0, cache.diskHitCount());
+		assertEquals(1, cache.missCount());
+
+		// Entry is rewritten on the miss
+		assertEquals(FOLDED_LOC, new FoldCache(FoldCache.DEFAULT_MAX_BYTES, folder.getRoot())
+				.get(key("class A {}", 50), folder()));
+		assertEquals(2, folds.get());
+	}
+
+	@Test
+	public void testConcurrentGet() throws Exception {
+		final FoldCache cache = new FoldCache(FoldCache.DEFAULT_MAX_BYTES, folder.getRoot());
+		final int nThreads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			final List<Future<ArrayList<Integer>>> results = new ArrayList<>();
+			for (int i = 0; i < nThreads; i++) {
+				results.add(executor.submit(new Callable<ArrayList<Integer>>() {
+					@Override
+					public ArrayList<Integer> call() throws Exception {
+						start.await();
+						return cache.get(key("class A {}", 50), new Callable<ArrayList<Integer>>() {
+							@Override
+							public ArrayList<Integer> call() throws Exception {
+								// Give the other threads time to ask for the key
+								Thread.sleep(200);
+								return folder().call();
+							}
+						});
+					}
+				}));
+			}
+			start.countDown();
+			for (final Future<ArrayList<Integer>> result : results)
+				assertEquals(FOLDED_LOC, result.get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, folds.get());
+		assertEquals(1, cache.missCount());
+		assertEquals(nThreads - 1, cache.hitCount());
+	}
+
+	@Test
+	public void testModelIdChangesWithContent() throws IOException {
+		final String workingDir = folder.getRoot().getPath() + File.separator;
+		final File modelFile = new File(workingDir + "TopicSum/Source/" + TopicSum.INFERENCE_MODEL_NAME);
+		modelFile.getParentFile().mkdirs();
+
+		Files.write("model one", modelFile, StandardCharsets.UTF_8);
+		final String id = FoldSourceFile.getModelId(workingDir);
+		final long lastModified = modelFile.lastModified();
+
+		// Same size and modification time but different content
+		Files.write("model two", modelFile, StandardCharsets.UTF_8);
+		modelFile.setLastModified(lastModified);
+		assertNotEquals(id, FoldSourceFile.getModelId(workingDir));
+
+		Files.write("model one", modelFile, StandardCharsets.UTF_8);
+		assertEquals(id, FoldSourceFile.getModelId(workingDir));
+	}
+
+	/** Count folds and return the folded LOC */
+	private Callable<ArrayList<Integer>> folder() {
+		return new Callable<ArrayList<Integer>>() {
+			@Override
+			public ArrayList<Integer> call() {
+				folds.incrementAndGet();
+				return new ArrayList<>(FOLDED_LOC);
+			}
+		};
+	}
+
+	private static FoldCache.Key key(final String content, final int compressionRatio) {
+		final Settings set = new Settings();
+		set.profitType = "CSimFile";
+		set.compressionRatio = compressionRatio;
+		return new FoldCache.Key(SourceBuffer.of(new File("A.java"), content), null, "tf", "vsm", set);
+	}
+
+	/** @return the only entry in the disk tier */
+	private File getEntryFile() {
+		File entry = null;
+		for (final File shard : folder.getRoot().listFiles()) {
+			final File[] files = shard.listFiles();
+			assertNotNull(files);
+			for (final File file : files) {
+				assertFalse("More than one entry", entry != null);
+				entry = file;
+			}
+		}
+		assertNotNull(entry);
+		return entry;
+	}
+
+}
@@ -0,0 +1,204 @@
+package codesum.lm.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+
+import codesum.lm.main.ASTVisitors.TreeCreatorVisitor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+
+public class CodeUtilsTest {
+
+	private static final String FILE = "/** Doc */\nclass A {\n\tvoid f() {\n\t\tint x = 1; // one\n\t}\n\t/* block */\n}\n";
+
+	@Test
+	public void testGetFoldedNoFolds() {
+		assertFoldedMatches(FILE, new HashMap<Range<Integer>, Boolean>(), null);
+		assertFoldedMatches("", new HashMap<Range<Integer>, Boolean>(), null);
+	}
+
+	@Test
+	public void testGetFoldedUnfoldedFolds() {
+		final HashMap<Range<Integer>, Boolean> folds = Maps.newHashMap();
+		folds.put(Range.closed(10, 20), false);
+		folds.put(Range.closed(30, 40), true);
+		assertFoldedMatches(FILE, folds, null);
+	}
+
+	@Test
+	public void testGetFoldedNested() {
+		final HashMap<Range<Integer>, Boolean> folds = Maps.newHashMap();
+		folds.put(Range.closed(19, 60), true);
+		folds.put(Range.closed(29, 50), true);
+		folds.put(Range.closed(35, 40), true);
+		assertFoldedMatches(FILE, folds, null);
+
+		// Unfolded parent with folded child
+		folds.put(Range.closed(19, 60), false);
+		assertFoldedMatches(FILE, folds, null);
+	}
+
+	@Test
+	public void testGetFoldedOverlapping() {
+		final HashMap<Range<Integer>, Boolean> folds = Maps.newHashMap();
+		folds.put(Range.closed(10, 30), true);
+		folds.put(Range.closed(25, 45), true);
+		folds.put(Range.closed(30, 31), true);
+		folds.put(Range.closed(46, 46), true);
+		assertFoldedMatches(FILE, folds, null);
+	}
+
+	@Test
+	public void testGetFoldedAtStart() {
+		final HashMap<Range<Integer>, Boolean> folds = Maps.newHashMap();
+		folds.put(Range.closed(0, 9), true);
+		assertFoldedMatches(FILE, folds, null);
+
+		folds.put(Range.closed(0, 0), true);
+		assertFoldedMatches(FILE, folds, null);
+	}
+
+	@Test
+	public void testGetFoldedPastEnd() {
+		final HashMap<Range<Integer>, Boolean> folds = Maps.newHashMap();
+		folds.put(Range.closed(FILE.length() - 5, FILE.length()), true);
+		assertFoldedMatches(FILE, folds, null);
+
+		folds.clear();
+		folds.put(Range.closed(FILE.length() - 1, FILE.length() + 10), true);
+		assertFoldedMatches(FILE, folds, null);
+
+		folds.clear();
+		folds.put(Range.closed(FILE.length(), FILE.length()), true);
+		assertFoldedMatches(FILE, folds, null);
+	}
+
+	@Test
+	public void testGetFoldedCommentMarkers() {
+		final TreeCreatorVisitor tcv = new TreeCreatorVisitor();
+		final HashMap<Range<Integer>, Boolean> folds = Maps.newHashMap();
+
+		final Range<Integer> javadoc = Range.closed(0, 9);
+		final Range<Integer> lineComment = Range.closed(FILE.indexOf("//"), FILE.indexOf("one") + 2);
+		final Range<Integer> blockComment = Range.closed(FILE.indexOf("/*", 1), FILE.indexOf("*/", 20) + 1);
+		final Range<Integer> method = Range.closed(FILE.indexOf("{", 12), FILE.indexOf("\t}") + 1);
+		tcv.javadocFolds.put(javadoc, " Doc");
+		tcv.lineCommentFolds.put(lineComment, " one");
+		tcv.blockCommentFolds.put(blockComment, " block");
+		folds.put(javadoc, true);
+		folds.put(lineComment, true);
+		folds.put(blockComment, true);
+		folds.put(method, false);
+		assertFoldedMatches(FILE, folds, tcv);
+
+		// Line comment inside a folded method
+		folds.put(method, true);
+		assertFoldedMatches(FILE, folds, tcv);
+	}
+
+	@Test
+	public void testGetFoldedRandom() {
+		final Random random = new Random(3);
+		for (int t = 0; t < 3000; t++) {
+			final int len = random.nextInt(300);
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < len; i++)
+				sb.append("ab\ncd {}x".charAt(random.nextInt(9)));
+			final String fileString = sb.toString();
+
+			final HashMap<Range<Integer>, Boolean> folds = Maps.newHashMap();
+			final TreeCreatorVisitor tcv = random.nextBoolean() ? new TreeCreatorVisitor() : null;
+			final int nfolds = random.nextInt(8);
+			for (int f = 0; f < nfolds && len > 0; f++) {
+				final int lower = random.nextInt(len);
+				int upper = lower + random.nextInt(Math.max(1, len - lower));
+				if (random.nextInt(5) == 0)
+					upper = Math.min(len, upper + 1);
+				final Range<Integer> range = Range.closed(lower, upper);
+				folds.put(range, random.nextInt(4) != 0);
+				if (tcv != null) {
+					final int kind = random.nextInt(4);
+					if (kind == 0)
+						tcv.javadocFolds.put(range, "j" + f);
+					else if (kind == 1)
+						tcv.blockCommentFolds.put(range, "b" + f);
+					else if (kind == 2)
+						tcv.lineCommentFolds.put(range, "l" + f);
+				}
+			}
+			assertFoldedMatches(fileString, folds, tcv);
+		}
+	}
+
+	private static void assertFoldedMatches(final String fileString, final HashMap<Range<Integer>, Boolean> folds,
+			final TreeCreatorVisitor tcv) {
+		assertEquals(fileString + "\n" + folds, getFoldedReference(fileString, folds, tcv),
+				CodeUtils.getFolded(fileString, folds, tcv));
+	}
+
+	/**
+	 * Original implementation of {@link CodeUtils#getFolded}, which checks
+	 * every position against lists of removed chars (quadratic in the file
+	 * size), kept as a reference for the output of the single sweep
+	 */
+	private static String getFoldedReference(final String fileString, final HashMap<Range<Integer>, Boolean> folds,
+			final TreeCreatorVisitor tcv) {
+
+		// Set up containers for removed chars, dots comments and javadocs
+		final ArrayList<Integer> rems = Lists.newArrayList();
+		final ArrayList<Integer> dots = Lists.newArrayList();
+		final HashMap<Integer, String> blockComments = Maps.newHashMap();
+		final HashMap<Integer, String> lineComments = Maps.newHashMap();
+		final HashMap<Integer, String> javadocs = Maps.newHashMap();
+
+		// Fill containers with char ranges
+		for (final Entry<Range<Integer>, Boolean> entry : folds.entrySet()) {
+			if (entry.getValue()) {
+				rems.addAll(CodeUtils.range(entry.getKey().lowerEndpoint() + 1, entry.getKey().upperEndpoint() + 2));
+				dots.add(entry.getKey().lowerEndpoint());
+			}
+		}
+
+		// Discern javadocs and block comments
+		if (tcv != null) {
+			for (final Entry<Range<Integer>, String> entry : tcv.blockCommentFolds.entrySet())
+				blockComments.put(entry.getKey().lowerEndpoint(), entry.getValue());
+			for (final Entry<Range<Integer>, String> entry : tcv.lineCommentFolds.entrySet())
+				lineComments.put(entry.getKey().lowerEndpoint(), entry.getValue());
+			for (final Entry<Range<Integer>, String> entry : tcv.javadocFolds.entrySet())
+				javadocs.put(entry.getKey().lowerEndpoint(), entry.getValue());
+		}
+
+		// Print relevant folded markers in string
+		final StringBuffer stringBuffer = new StringBuffer();
+		for (int i = 0; i <= fileString.length(); i++) {
+			if (rems.contains(i))
+				continue;
+			if (dots.contains(i)) {
+				if (javadocs.containsKey(i))
+					stringBuffer.append(" /**" + javadocs.get(i) + "..*/");
+				else if (blockComments.containsKey(i))
+					stringBuffer.append(" /*" + blockComments.get(i) + "..*/");
+				else if (lineComments.containsKey(i))
+					stringBuffer.append(" //" + lineComments.get(i) + "...");
+				else
+					stringBuffer.append(" {...}");
+				continue;
+			}
+			if (i != 0)
+				stringBuffer.append(fileString.charAt(i - 1));
+		}
+
+		// Return folded string
+		return stringBuffer.toString();
+	}
+
+}
@@ -0,0 +1,94 @@
+package codesum.lm.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LineIndexTest {
+
+	@Test
+	public void testGetSplitLineCount() {
+		assertEquals(1, new LineIndex("").getSplitLineCount(0));
+		assertEquals(0, new LineIndex("\n").getSplitLineCount(1));
+		assertEquals(0, new LineIndex("\n\n").getSplitLineCount(2));
+		assertEquals(1, new LineIndex("a\n\n").getSplitLineCount(3));
+		assertEquals(2, new LineIndex("\na").getSplitLineCount(2));
+		assertEquals(1, new LineIndex("\r\n").getSplitLineCount(2));
+	}
+
+	@Test
+	public void testGetLine() {
+		assertEquals(1, new LineIndex("").getLine(0));
+		assertEquals(2, new LineIndex("\n").getLine(1));
+		assertEquals(2, new LineIndex("\n\n").getLine(1));
+		assertEquals(3, new LineIndex("a\n\n").getLine(3));
+		assertEquals(2, new LineIndex("\na").getLine(1));
+		assertEquals(1, new LineIndex("\r\n").getLine(1));
+		assertEquals(2, new LineIndex("\r\n").getLine(2));
+		assertEquals(2, new LineIndex("\r").getLine(1));
+		assertEquals(2, new LineIndex("a\rb").getLine(2));
+		assertEquals(2, new LineIndex("\r\r\n").getLine(2));
+		assertEquals(3, new LineIndex("\r\r\n").getLine(3));
+		assertEquals(3, new LineIndex("\n\r").getLine(2));
+		assertEquals(-1, new LineIndex("a").getLine(2));
+		assertEquals(-1, new LineIndex("a").getLine(-1));
+	}
+
+	@Test
+	public void testEdgeCases() {
+		for (final String fileString : new String[] { "", "\n", "\n\n", "a\n\n", "\na", "\r\n", "\r", "\r\r\n",
+				"\n\r", "a\rb\r\nc\nd" })
+			assertMatchesSplit(fileString);
+	}
+
+	@Test
+	public void testRandom() {
+		final Random random = new Random(5);
+		for (int t = 0; t < 20000; t++) {
+			final int len = random.nextInt(40);
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < len; i++)
+				sb.append("a\n\r ".charAt(random.nextInt(random.nextBoolean() ? 2 : 4)));
+			assertMatchesSplit(sb.toString());
+		}
+	}
+
+	/**
+	 * Check line counts of every prefix match those given by splitting the
+	 * prefix on newlines, lines match those given by counting line ends, and
+	 * that lines and offsets round trip
+	 */
+	private static void assertMatchesSplit(final String fileString) {
+		final LineIndex lines = new LineIndex(fileString);
+		assertEquals(countLines(fileString, fileString.length()), lines.getLineCount());
+		for (int offset = 0; offset <= fileString.length(); offset++) {
+			final String prefix = fileString.substring(0, offset);
+			final String msg = "\"" + escape(fileString) + "\" at " + offset;
+			assertEquals(msg, prefix.split("\n").length, lines.getSplitLineCount(offset));
+			assertEquals(msg, countLines(fileString, offset), lines.getLine(offset));
+		}
+		for (int line = 1; line <= lines.getLineCount(); line++)
+			assertEquals(line, lines.getLine(lines.getOffset(line)));
+	}
+
+	/**
+	 * @return line of the char at offset, counting '\n', '\r' and "\r\n" line
+	 *         ends one char at a time
+	 */
+	private static int countLines(final String fileString, final int offset) {
+		int line = 1;
+		for (int i = 0; i < offset; i++) {
+			final char c = fileString.charAt(i);
+			if (c == '\n' || c == '\r' && (i + 1 == fileString.length() || fileString.charAt(i + 1) != '\n'))
+				line++;
+		}
+		return line;
+	}
+
+	private static String escape(final String s) {
+		return s.replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+}
@@ -0,0 +1,151 @@
+package codesum.lm.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.Block;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codesum.lm.main.FoldableTree.FoldableNode;
+import codesum.lm.main.UnfoldAlgorithms.GreedyTopicSumAlgorithm;
+import codesum.lm.main.UnfoldAlgorithms.GreedyUnfoldAlgorithm;
+import codesum.lm.main.UnfoldAlgorithms.GreedyVSMAlgorithm;
+import codesum.lm.topicsum.GibbsSampler;
+import codesum.lm.topicsum.TestCorpus;
+import codesum.lm.topicsum.TopicModel;
+import codesum.lm.vsm.TokenVector;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+
+public class UnfoldAlgorithmsTest {
+
+	// One char per line so line l starts at offset 2 * (l - 1)
+	private static final String FILE = Strings.repeat("x\n", 40);
+
+	private final AST ast = AST.newAST(AST.JLS8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testLazyMatchesExact() {
+		for (int ratio = 0; ratio <= 100; ratio += 5) {
+			final ArrayList<Range<Integer>> exact = unfold(false, ratio);
+			final ArrayList<Range<Integer>> lazy = unfold(true, ratio);
+			assertEquals("ratio " + ratio, exact, lazy);
+		}
+	}
+
+	@Test
+	public void testUnfoldsSomeNodes() {
+		final ArrayList<Range<Integer>> unfolded = unfold(false, 50);
+		assertFalse(unfolded.isEmpty());
+		assertTrue(unfolded.size() < 9);
+	}
+
+	@Test
+	public void testVSMSweepMatchesSeparateUnfolding() {
+		for (final boolean lazyGreedy : new boolean[] { false, true }) {
+			final FoldableTree tree = createTree(getVSMSettings(lazyGreedy), null);
+			assertSweepMatches(tree, new GreedyVSMAlgorithm());
+		}
+	}
+
+	@Test
+	public void testTopicSweepMatchesSeparateUnfolding() {
+		final GibbsSampler sampler = TestCorpus.train(folder.getRoot(), 20);
+		for (final boolean lazyGreedy : new boolean[] { false, true }) {
+			final Settings set = new Settings();
+			set.profitType = "KLDivFile";
+			set.curProj = "lists";
+			set.lazyGreedy = lazyGreedy;
+			final FoldableTree tree = createTree(set, sampler);
+			assertSweepMatches(tree, new GreedyTopicSumAlgorithm());
+		}
+	}
+
+	/**
+	 * Check that unfolding the tree at several ratios at once (in no
+	 * particular order) gives the same nodes as unfolding it at each ratio
+	 */
+	private static void assertSweepMatches(final FoldableTree tree, final GreedyUnfoldAlgorithm algorithm) {
+		final int[] ratios = { 50, 0, 90, 25, 75, 100, 10, 60, 35 };
+		final ArrayList<ArrayList<Range<Integer>>> sweep = UnfoldAlgorithms.unfoldTree(tree, algorithm, ratios,
+				false);
+		assertEquals(ratios.length, sweep.size());
+		assertFalse(sweep.get(0).isEmpty());
+		for (int i = 0; i < ratios.length; i++) {
+			tree.foldAll();
+			tree.setBudget(tree.getBudget(ratios[i]));
+			final ArrayList<Range<Integer>> separate = UnfoldAlgorithms.unfoldTree(tree, algorithm, false);
+			assertEquals("ratio " + ratios[i], Sets.newHashSet(separate), Sets.newHashSet(sweep.get(i)));
+		}
+	}
+
+	/** Unfold a fresh tree at the given compression ratio */
+	private ArrayList<Range<Integer>> unfold(final boolean lazyGreedy, final int ratio) {
+		final FoldableTree tree = createTree(getVSMSettings(lazyGreedy), null);
+		tree.setBudget(tree.getBudget(ratio));
+		return UnfoldAlgorithms.unfoldTree(tree, new GreedyVSMAlgorithm(), false);
+	}
+
+	private static Settings getVSMSettings(final boolean lazyGreedy) {
+		final Settings set = new Settings();
+		set.profitType = "CSimFile";
+		set.lazyGreedy = lazyGreedy;
+		return set;
+	}
+
+	/**
+	 * Create a tree of a class with methods (some with nested blocks) whose
+	 * terms overlap to differing degrees with those of the file (which is in
+	 * the test topic model's corpus)
+	 */
+	private FoldableTree createTree(final Settings set, final TopicModel sampler) {
+
+		final Multiset<String> fileTerms = HashMultiset.create();
+		fileTerms.addAll(Arrays.asList("list", "list", "list", "add", "add", "size", "get", "get", "index", "remove",
+				"clear", "node", "node", "next", "value"));
+		final FoldableTree tree = new FoldableTree(null, new File("lists/ArrayList.java"),
+				new TokenVector(fileTerms), sampler, set, new LineIndex(FILE));
+
+		final FoldableNode root = node(tree, null, 1, 40, "list");
+		tree.setRoot(root);
+		final FoldableNode type = node(tree, root, 2, 39, "list", "node");
+		node(tree, type, 3, 10, "add", "list", "size");
+		final FoldableNode get = node(tree, type, 12, 20, "get", "index");
+		node(tree, get, 14, 18, "node", "next", "next", "value");
+		node(tree, type, 22, 30, "remove", "node", "unrelated", "other");
+		final FoldableNode clear = node(tree, type, 32, 38, "clear");
+		node(tree, clear, 33, 35, "node", "value");
+		node(tree, clear, 36, 37, "size", "get");
+		tree.setLevels();
+		return tree;
+	}
+
+	/** Create a node spanning the given lines (and add it to its parent) */
+	private FoldableNode node(final FoldableTree tree, final FoldableNode parent, final int startLine,
+			final int endLine, final String... terms) {
+		final Block block = ast.newBlock();
+		block.setSourceRange(2 * (startLine - 1), 2 * (endLine - startLine) + 1);
+		final FoldableNode node = tree.new FoldableNode(block);
+		node.addTerms(Arrays.asList(terms));
+		if (parent != null)
+			parent.addChild(node);
+		return node;
+	}
+
+}
@@ -0,0 +1,94 @@
+package codesum.lm.topicsum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InferenceModelTest {
+
+	private static final String[] KLDIV_TYPES = { "KLDivFile", "KLDivProj", "KLDivFileMinusProj" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private GibbsSampler sampler;
+	private InferenceModel model;
+
+	@Before
+	public void setUp() throws IOException {
+		sampler = TestCorpus.train(folder.getRoot(), 20);
+		final File file = new File(folder.getRoot(), TopicSum.INFERENCE_MODEL_NAME);
+		InferenceModel.export(sampler, file);
+		model = InferenceModel.read(file);
+	}
+
+	@Test
+	public void testContainsDocument() {
+		final TestCorpus corpus = new TestCorpus();
+		for (final String project : TestCorpus.PROJECTS) {
+			for (final File doc : corpus.getDocuments(project))
+				assertTrue(doc.getPath(), model.containsDocument(project, doc.getPath()));
+		}
+		assertFalse(model.containsDocument("lists", "lists/Vector.java"));
+		assertFalse(model.containsDocument("sets", "sets/HashSet.java"));
+		assertEquals(sampler.getCorpus().getAlphabet().nTokensCorpus(), model.nTokensCorpus());
+	}
+
+	@Test
+	public void testTrainedDocuments() {
+		final TestCorpus corpus = new TestCorpus();
+		for (final String project : TestCorpus.PROJECTS) {
+			for (final File doc : corpus.getDocuments(project)) {
+				final List<String> sents = corpus.getSentences(doc);
+				for (final String type : KLDIV_TYPES) {
+					for (int backoff = 0; backoff < Topic.nBackTopics; backoff++)
+						assertMatches(sents.size(),
+								sampler.getKLDivEngine(type, backoff, project, doc.getPath(), sents),
+								model.getKLDivEngine(type, backoff, project, doc.getPath(), sents));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFoldedDocument() {
+		final List<String> sents = Arrays.asList("list get node", "", "array index size", "stack push");
+		final FoldedDocument doc = model.foldIn("lists", sents);
+		for (final String type : KLDIV_TYPES) {
+			for (int backoff = 0; backoff < Topic.nBackTopics; backoff++)
+				assertMatches(sents.size(), sampler.getKLDivEngine(type, backoff, doc),
+						model.getKLDivEngine(type, backoff, doc));
+		}
+	}
+
+	/**
+	 * Add the nodes one at a time, checking the model's divergences with and
+	 * without each node against the sampler's
+	 */
+	private static void assertMatches(final int nsents, final KLDivEngine expected, final KLDivEngine actual) {
+		for (int node = 0; node < nsents; node++) {
+			assertClose(expected.kldiv(), actual.kldiv());
+			for (int other = node; other < nsents; other++)
+				assertClose(expected.kldivWithNode(other), actual.kldivWithNode(other));
+			expected.addNode(node);
+			actual.addNode(node);
+		}
+		assertClose(expected.kldiv(), actual.kldiv());
+	}
+
+	/** The model holds its distributions as floats */
+	private static void assertClose(final double expected, final double actual) {
+		assertEquals(expected, actual, 1E-4 * Math.max(1, Math.abs(expected)));
+	}
+
+}
@@ -0,0 +1,93 @@
+package codesum.lm.topicsum;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KLDivEngineTest {
+
+	private static final String[] KLDIV_TYPES = { "KLDivFile", "KLDivProj", "KLDivFileMinusProj" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private GibbsSampler sampler;
+
+	@Before
+	public void setUp() {
+		sampler = TestCorpus.train(folder.getRoot(), 20);
+	}
+
+	@Test
+	public void testMatchesGibbsSampler() {
+		final TestCorpus corpus = new TestCorpus();
+		for (final String type : KLDIV_TYPES) {
+			for (int backoff = 0; backoff < Topic.nBackTopics; backoff++) {
+				assertMatches(type, backoff, "lists", "lists/ArrayList.java",
+						corpus.getSentences("lists/ArrayList.java"), new int[] { 2, 0, 4, 5, 1, 3 });
+				assertMatches(type, backoff, "maps", "maps/TreeMap.java",
+						corpus.getSentences("maps/TreeMap.java"), new int[] { 4, 1, 3, 0, 2 });
+			}
+		}
+	}
+
+	/**
+	 * Add the given nodes one at a time, checking the divergence with and
+	 * without each remaining node against the divergence over the vocabulary
+	 */
+	private void assertMatches(final String type, final int backoff, final String project, final String file,
+			final List<String> sents, final int[] order) {
+
+		final KLDivEngine engine = sampler.getKLDivEngine(type, backoff, project, file, sents);
+		final List<Integer> nodeIDs = new ArrayList<>();
+		for (final int nodeID : order) {
+			assertClose(type, sampler.getKLDiv(type, backoff, project, file, nodeIDs), engine.kldiv());
+
+			for (int other = 0; other < sents.size(); other++) {
+				if (nodeIDs.contains(other))
+					continue;
+				final List<Integer> withNode = new ArrayList<>(nodeIDs);
+				withNode.add(other);
+				assertClose(type, sampler.getKLDiv(type, backoff, project, file, withNode),
+						engine.kldivWithNode(other));
+			}
+
+			engine.addNode(nodeID);
+			nodeIDs.add(nodeID);
+		}
+		assertClose(type, sampler.getKLDiv(type, backoff, project, file, nodeIDs), engine.kldiv());
+	}
+
+	@Test
+	public void testAddedNode() {
+		final List<String> sents = new TestCorpus().getSentences("lists/LinkedList.java");
+		for (final String type : KLDIV_TYPES) {
+			final KLDivEngine engine = sampler.getKLDivEngine(type, 2, "lists", "lists/LinkedList.java", sents);
+			engine.addNode(1);
+			engine.addNode(3);
+			final double kl = engine.kldiv();
+
+			// Already added nodes don't change the summary
+			assertEquals(kl, engine.kldivWithNode(1), 0);
+			assertEquals(kl, engine.kldivWithNode(3), 0);
+			engine.addNode(1);
+			assertEquals(kl, engine.kldiv(), 0);
+
+			final List<Integer> nodeIDs = new ArrayList<>();
+			nodeIDs.add(1);
+			nodeIDs.add(3);
+			assertClose(type, sampler.getKLDiv(type, 2, "lists", "lists/LinkedList.java", nodeIDs), kl);
+		}
+	}
+
+	private static void assertClose(final String type, final double expected, final double actual) {
+		assertEquals(type, expected, actual, 1E-9 * Math.max(1, Math.abs(expected)));
+	}
+
+}
@@ -0,0 +1,153 @@
+package codesum.lm.topicsum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackedCorpusTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testHeapCorpus() {
+		assertLayout(new PackedCorpus());
+	}
+
+	@Test
+	public void testMappedCorpus() {
+		assertLayout(new PackedCorpus(new File(folder.getRoot(), "corpus")));
+	}
+
+	/**
+	 * Build a corpus with empty clusters, documents and sentences and check
+	 * its offsets, tokens and topics
+	 */
+	private static void assertLayout(final PackedCorpus packed) {
+		// clusters -> documents -> sentences (tokens)
+		final int[][][] corpus = {
+				{ { 1, 2, 3 }, {}, { 4 } },
+				{},
+				{ {}, { 5, 5 } },
+		};
+		final int[][][][] clusters = { { corpus[0] }, {}, { corpus[1], corpus[2] } };
+
+		for (int c = 0; c < clusters.length; c++) {
+			assertEquals(c, packed.addCluster());
+			for (final int[][] doc : clusters[c]) {
+				packed.addDocument();
+				for (final int[] sent : doc)
+					packed.addSentence(sent);
+			}
+		}
+		packed.trimToSize();
+
+		assertEquals(3, packed.nclusters());
+		assertEquals(3, packed.ndocs());
+		assertEquals(5, packed.nsents());
+		assertEquals(6, packed.ntokens());
+
+		assertEquals(0, packed.clusterStart(0));
+		assertEquals(1, packed.clusterEnd(0));
+		assertEquals(1, packed.clusterStart(1));
+		assertEquals(1, packed.clusterEnd(1));
+		assertEquals(1, packed.clusterStart(2));
+		assertEquals(3, packed.clusterEnd(2));
+		assertEquals(4, packed.clusterTokens(0));
+		assertEquals(0, packed.clusterTokens(1));
+		assertEquals(2, packed.clusterTokens(2));
+
+		// Empty document has no sentences
+		assertEquals(packed.docStart(1), packed.docEnd(1));
+
+		int s = 0;
+		int t = 0;
+		for (int d = 0; d < corpus.length; d++) {
+			assertEquals(s, packed.docStart(d));
+			for (final int[] sent : corpus[d]) {
+				assertEquals(t, packed.sentStart(s));
+				assertEquals(t + sent.length, packed.sentEnd(s));
+				for (final int token : sent)
+					assertEquals(token, packed.getToken(t++));
+				s++;
+			}
+			assertEquals(s, packed.docEnd(d));
+		}
+
+		for (t = 0; t < packed.ntokens(); t++)
+			packed.setTopic(t, t % Topic.nTopics);
+		final int[] topicCount = new int[Topic.nTopics];
+		packed.getTopicCounts(0, topicCount);
+		assertEquals(1, topicCount[0]);
+		assertEquals(1, topicCount[1]);
+		assertEquals(1, topicCount[2]);
+		packed.getTopicCounts(1, topicCount);
+		assertEquals(0, topicCount[0]);
+	}
+
+	@Test
+	public void testMappedMatchesHeap() {
+		final PackedCorpus heap = new PackedCorpus();
+		final PackedCorpus mapped = new PackedCorpus(folder.getRoot());
+
+		// Enough tokens to fill several write buffers
+		final Random random = new Random(11);
+		final List<int[]> sents = new ArrayList<>();
+		for (int s = 0; s < 20000; s++) {
+			final int[] sent = new int[random.nextInt(15)];
+			for (int i = 0; i < sent.length; i++)
+				sent[i] = random.nextInt(50000);
+			sents.add(sent);
+		}
+		for (final PackedCorpus packed : new PackedCorpus[] { heap, mapped }) {
+			for (int s = 0; s < sents.size(); s++) {
+				if (s % 5000 == 0)
+					packed.addCluster();
+				if (s % 100 == 0)
+					packed.addDocument();
+				packed.addSentence(sents.get(s));
+			}
+			packed.trimToSize();
+		}
+
+		assertEquals(heap.ntokens(), mapped.ntokens());
+		assertEquals(heap.ndocs(), mapped.ndocs());
+		for (int t = 0; t < heap.ntokens(); t++) {
+			final int topic = random.nextInt(Topic.nTopics);
+			heap.setTopic(t, topic);
+			mapped.setTopic(t, topic);
+		}
+		mapped.flush();
+		for (int t = 0; t < heap.ntokens(); t++) {
+			assertEquals(heap.getToken(t), mapped.getToken(t));
+			assertEquals(heap.getTopic(t), mapped.getTopic(t));
+		}
+	}
+
+	@Test
+	public void testAddWithoutParent() {
+		final PackedCorpus packed = new PackedCorpus();
+		try {
+			packed.addDocument();
+			fail("Expected document without cluster to fail");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		packed.addCluster();
+		try {
+			packed.addSentence(new int[] { 1 });
+			fail("Expected sentence without document to fail");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+}
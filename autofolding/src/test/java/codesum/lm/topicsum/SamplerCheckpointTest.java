@@ -0,0 +1,92 @@
+package codesum.lm.topicsum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SamplerCheckpointTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testHeapRoundTrip() throws IOException {
+		assertRoundTrip(new PackedCorpus(), new PackedCorpus());
+	}
+
+	@Test
+	public void testMappedRoundTrip() throws IOException {
+		assertRoundTrip(new PackedCorpus(new File(folder.getRoot(), "a")),
+				new PackedCorpus(new File(folder.getRoot(), "b")));
+	}
+
+	@Test
+	public void testTruncatedTopics() throws IOException {
+		final PackedCorpus packed = buildCorpus(new PackedCorpus(), 1000);
+		final File file = new File(folder.getRoot(), "truncated.ckpt");
+		newCheckpoint(packed).write(file);
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 10);
+		}
+
+		final SamplerCheckpoint read = SamplerCheckpoint.read(file);
+		try {
+			read.readTopics(buildCorpus(new PackedCorpus(), 1000));
+			fail("Expected truncated checkpoint to fail");
+		} catch (final EOFException e) {
+			// expected
+		}
+	}
+
+	private void assertRoundTrip(final PackedCorpus written,
+			final PackedCorpus restored) throws IOException {
+		buildCorpus(written, 5000);
+		final Random random = new Random(7);
+		for (int t = 0; t < written.ntokens(); t++)
+			written.setTopic(t, random.nextInt(Topic.nTopics));
+
+		final File file = new File(folder.getRoot(), "sampler.ckpt");
+		newCheckpoint(written).write(file);
+		final SamplerCheckpoint read = SamplerCheckpoint.read(file);
+		assertEquals(3, read.getIteration());
+		assertEquals(new Random(1).nextLong(), read.getRandom().nextLong());
+
+		buildCorpus(restored, 5000);
+		read.readTopics(restored);
+		for (int t = 0; t < written.ntokens(); t++)
+			assertEquals("token " + t, written.getTopic(t),
+					restored.getTopic(t));
+	}
+
+	private static SamplerCheckpoint newCheckpoint(final PackedCorpus packed) {
+		final double[] alpham = new double[Topic.nTopics];
+		final double[] beta = new double[Topic.nTopics];
+		return new SamplerCheckpoint(packed, 10, 3, alpham, beta,
+				new Random(1));
+	}
+
+	/** Build a corpus of one cluster with sentences of varying length */
+	private static PackedCorpus buildCorpus(final PackedCorpus packed,
+			final int nsents) {
+		packed.addCluster();
+		packed.addDocument();
+		for (int s = 0; s < nsents; s++) {
+			final int[] sent = new int[s % 13];
+			for (int i = 0; i < sent.length; i++)
+				sent[i] = (s + i) % 10;
+			packed.addSentence(sent);
+		}
+		packed.trimToSize();
+		return packed;
+	}
+
+}
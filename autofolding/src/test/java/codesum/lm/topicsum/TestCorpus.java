@@ -0,0 +1,65 @@
+package codesum.lm.topicsum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Small in-memory corpus of two projects for training test samplers */
+public class TestCorpus implements DocumentSource {
+
+	static final String[] PROJECTS = { "lists", "maps" };
+
+	private final Map<File, List<String>> docs = new LinkedHashMap<>();
+
+	TestCorpus() {
+		add("lists/ArrayList.java", "array list add", "list get index", "list size",
+				"array copy grow capacity", "", "remove index list shift");
+		add("lists/LinkedList.java", "linked list node", "node next prev", "list add node",
+				"list get index node next", "remove node unlink");
+		add("lists/Stack.java", "stack push pop", "stack peek list", "array list size");
+		add("maps/HashMap.java", "hash map put", "map get key hash", "bucket index hash",
+				"resize table capacity", "entry key value next");
+		add("maps/TreeMap.java", "tree map put key", "map get key compare", "entry left right",
+				"rotate left right node", "key value entry");
+	}
+
+	private void add(final String path, final String... sents) {
+		docs.put(new File(path), Arrays.asList(sents));
+	}
+
+	/** @return the sentences of the given document in the corpus */
+	List<String> getSentences(final String path) {
+		return docs.get(new File(path));
+	}
+
+	@Override
+	public List<File> getDocuments(final String project) {
+		final List<File> files = new ArrayList<>();
+		for (final File file : docs.keySet()) {
+			if (file.getParent().equals(project))
+				files.add(file);
+		}
+		return files;
+	}
+
+	@Override
+	public List<String> getSentences(final File docLoc) {
+		return docs.get(docLoc);
+	}
+
+	/**
+	 * Train a sampler on the corpus for a few iterations, saving its state
+	 * in the given folder
+	 */
+	public static GibbsSampler train(final File folder, final int iterations) {
+		final Corpus corpus = new Corpus(folder.getPath() + File.separator, PROJECTS, null,
+				new TestCorpus());
+		final GibbsSampler sampler = new GibbsSampler(corpus);
+		sampler.estimate(iterations, -1, -1, -1, "SamplerState.ser");
+		return sampler;
+	}
+
+}
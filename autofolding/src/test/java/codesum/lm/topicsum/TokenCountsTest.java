@@ -0,0 +1,142 @@
+package codesum.lm.topicsum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TokenCountsTest {
+
+	@Test
+	public void testSparseRemoveToZero() {
+		assertRemoveToZero(new SparseTokenCounts());
+	}
+
+	@Test
+	public void testDenseRemoveToZero() {
+		assertRemoveToZero(new DenseTokenCounts(4));
+	}
+
+	private static void assertRemoveToZero(final TokenCounts counts) {
+		counts.add(3, 2);
+		counts.add(7, 1);
+		counts.add(3, -2);
+		assertEquals(0, counts.count(3));
+		assertEquals(1, counts.size());
+		assertEquals(1, counts.total());
+		assertMatches(counts, map(7, 1));
+
+		counts.add(7, -1);
+		assertEquals(0, counts.size());
+		assertEquals(0, counts.total());
+		assertMatches(counts, map());
+
+		// Adding zero doesn't add the token
+		counts.add(5, 0);
+		assertEquals(0, counts.size());
+	}
+
+	@Test
+	public void testSparseRehash() {
+		final SparseTokenCounts counts = new SparseTokenCounts(2);
+		final Map<Integer, Integer> expected = new HashMap<>();
+		for (int token = 0; token < 1000; token++) {
+			counts.add(token * 31, token + 1);
+			expected.put(token * 31, token + 1);
+		}
+		assertMatches(counts, expected);
+
+		// Remove every other token after growing
+		for (int token = 0; token < 1000; token += 2) {
+			counts.add(token * 31, -(token + 1));
+			expected.remove(token * 31);
+		}
+		assertMatches(counts, expected);
+	}
+
+	@Test
+	public void testDenseGrow() {
+		final DenseTokenCounts counts = new DenseTokenCounts(1);
+		counts.add(100, 3);
+		assertEquals(3, counts.count(100));
+		assertEquals(0, counts.count(1000));
+		assertMatches(counts, map(100, 3));
+	}
+
+	@Test
+	public void testRandom() {
+		final Random random = new Random(3);
+		final TokenCounts sparse = new SparseTokenCounts();
+		final TokenCounts dense = new DenseTokenCounts(8);
+		final Map<Integer, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			final int token = random.nextInt(200);
+			final Integer count = expected.get(token);
+
+			// Remove the whole count of some tokens so they drop to zero
+			final int n;
+			if (count != null && random.nextInt(4) == 0)
+				n = -count;
+			else
+				n = 1 + random.nextInt(3);
+
+			sparse.add(token, n);
+			dense.add(token, n);
+			if (count == null)
+				expected.put(token, n);
+			else if (count + n == 0)
+				expected.remove(token);
+			else
+				expected.put(token, count + n);
+
+			if (i % 1000 == 0) {
+				assertMatches(sparse, expected);
+				assertMatches(dense, expected);
+			}
+		}
+
+		final TokenCounts sum = new SparseTokenCounts();
+		sum.addAll(sparse);
+		sum.addAll(dense);
+		for (final Map.Entry<Integer, Integer> entry : expected.entrySet())
+			entry.setValue(2 * entry.getValue());
+		assertMatches(sum, expected);
+
+		sparse.clear();
+		dense.clear();
+		assertMatches(sparse, map());
+		assertMatches(dense, map());
+	}
+
+	/** Check counts, size, total and iteration over slots match expected */
+	private static void assertMatches(final TokenCounts counts,
+			final Map<Integer, Integer> expected) {
+		int total = 0;
+		for (final Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			assertEquals((long) entry.getValue(), counts.count(entry.getKey()));
+			total += entry.getValue();
+		}
+		assertEquals(expected.size(), counts.size());
+		assertEquals(total, counts.total());
+
+		final Map<Integer, Integer> iterated = new HashMap<>();
+		for (int slot = 0; slot < counts.slots(); slot++) {
+			final int token = counts.tokenAt(slot);
+			if (token != -1)
+				assertNull(iterated.put(token, counts.countAt(slot)));
+		}
+		assertEquals(expected, iterated);
+	}
+
+	private static Map<Integer, Integer> map(final int... tokenCounts) {
+		final Map<Integer, Integer> map = new HashMap<>();
+		for (int i = 0; i < tokenCounts.length; i += 2)
+			map.put(tokenCounts[i], tokenCounts[i + 1]);
+		return map;
+	}
+
+}
@@ -0,0 +1,122 @@
+package codesum.lm.topicsum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VocabularyTest {
+
+	// Includes an empty and non-ASCII tokens
+	private static final String[] TOKENS = { "list", "", "gr\u00f6\u00dfe", "\u5217\u8868", "a", "ab" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testAddGet() {
+		final Vocabulary vocab = new Vocabulary();
+		for (int i = 0; i < TOKENS.length; i++)
+			assertEquals(i, vocab.add(TOKENS[i]));
+		assertEquals(2, vocab.add("gr\u00f6\u00dfe"));
+		assertMatches(vocab, TOKENS);
+	}
+
+	@Test
+	public void testGrow() {
+		// Grow the arena, offsets and index past their default capacities
+		final Vocabulary vocab = new Vocabulary();
+		final String[] tokens = new String[5000];
+		for (int i = 0; i < tokens.length; i++) {
+			tokens[i] = "token" + i;
+			assertEquals(i, vocab.add(tokens[i]));
+		}
+		assertMatches(vocab, tokens);
+	}
+
+	@Test
+	public void testWriteMap() throws IOException {
+		final Vocabulary vocab = new Vocabulary();
+		for (final String token : TOKENS)
+			vocab.add(token);
+		final File file = new File(folder.getRoot(), "vocab.bin");
+		vocab.write(file);
+
+		final Vocabulary mapped = Vocabulary.map(file);
+		assertMatches(mapped, TOKENS);
+
+		// Mapped vocabulary is read-only
+		assertEquals(3, mapped.add("\u5217\u8868"));
+		try {
+			mapped.add("missing");
+			fail("Expected mapped vocabulary to be read-only");
+		} catch (final UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMapEmpty() throws IOException {
+		final ByteArrayOutputStream image = new ByteArrayOutputStream();
+		new Vocabulary().write(image);
+		final Vocabulary mapped = Vocabulary.map(ByteBuffer.wrap(image.toByteArray()));
+		assertEquals(0, mapped.size());
+		assertEquals(-1, mapped.get("list"));
+		assertNull(mapped.getString(0));
+	}
+
+	@Test
+	public void testMapNotVocabulary() {
+		try {
+			Vocabulary.map(ByteBuffer.wrap(new byte[20]));
+			fail("Expected image without magic number to fail");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSerialization() throws IOException, ClassNotFoundException {
+		final Vocabulary vocab = new Vocabulary();
+		for (final String token : TOKENS)
+			vocab.add(token);
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(vocab);
+		}
+		final Vocabulary read;
+		try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			read = (Vocabulary) in.readObject();
+		}
+		assertMatches(read, TOKENS);
+
+		// Deserialized vocabulary can still grow
+		assertEquals(TOKENS.length, read.add("new"));
+		assertEquals("new", read.getString(TOKENS.length));
+	}
+
+	/** Check the vocabulary holds exactly the given tokens, in order */
+	private static void assertMatches(final Vocabulary vocab, final String[] tokens) {
+		assertEquals(tokens.length, vocab.size());
+		for (int i = 0; i < tokens.length; i++) {
+			assertEquals(i, vocab.get(tokens[i]));
+			assertEquals(tokens[i], vocab.getString(i));
+		}
+		assertEquals(-1, vocab.get("missing"));
+		assertNull(vocab.getString(-1));
+		assertNull(vocab.getString(tokens.length));
+	}
+
+}
@@ -5,25 +5,39 @@ package codemining.java.codeutils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTParser;
 import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.FileASTRequestor;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 
 import codemining.java.tokenizers.JavaTokenizer;
 import codemining.languagetools.ITokenizer;
 import codemining.languagetools.ParseType;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 /**
  * A utility class to retrieve an Eclipse AST.
  *
@@ -42,6 +56,14 @@ public class JavaASTExtractor {
 		}
 	}
 
+	/**
+	 * Default no. files parsed with each parser by {@link #getASTs}.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	private static final Logger LOGGER = Logger
+			.getLogger(JavaASTExtractor.class.getName());
+
 	/**
 	 * Remembers if the given Extractor will calculate the bindings.
 	 */
@@ -94,6 +116,176 @@ public class JavaASTExtractor {
 	public final CompilationUnit getAST(final File file,
 			final Set<String> srcPaths) throws IOException {
 		final String sourceFile = FileUtils.readFileToString(file);
+		return getAST(sourceFile.toCharArray(), file, srcPaths);
+	}
+
+	/**
+	 * Get the AST of the given content of a file, without reading the file.
+	 * It is assumed that a CompilationUnit will be returned. A heuristic is
+	 * used to set the file's path variable.
+	 *
+	 * @param content
+	 *            content of the file
+	 * @param file
+	 *            path of the file (need not exist)
+	 * @return the compilation unit of the file
+	 */
+	public final CompilationUnit getAST(final char[] content, final File file) {
+		return getAST(content, file, new HashSet<String>());
+	}
+
+	/**
+	 * Get the AST of the given content of a file, including additional source
+	 * paths to resolve cross-file bindings.
+	 *
+	 * @param content
+	 *            content of the file
+	 * @param file
+	 *            path of the file (need not exist)
+	 * @param srcPaths
+	 *            for binding resolution
+	 * @return the compilation unit of the file
+	 * @see #getAST(File, Set)
+	 */
+	public final CompilationUnit getAST(final char[] content, final File file,
+			final Set<String> srcPaths) {
+
+		// Add file to source paths if not already present
+		srcPaths.add(getSourcePath(file));
+
+		final ASTParser parser = createParser(srcPaths);
+		parser.setSource(content); // set source
+		parser.setUnitName(file.getAbsolutePath());
+
+		final CompilationUnit compilationUnit = (CompilationUnit) parser
+				.createAST(null);
+		return compilationUnit;
+	}
+
+	/**
+	 * Get the ASTs of many files, parsing them in batches that each share a
+	 * single parser and name environment (instead of creating a parser per
+	 * file) and passing each compilation unit to the callback as soon as it
+	 * is parsed, so that the ASTs of a batch need not be held in memory
+	 * together.
+	 * <p>
+	 * The callback is called concurrently from up to nThreads threads. Files
+	 * that cannot be parsed are passed to the callback with a null
+	 * compilation unit.
+	 *
+	 * @param files
+	 *            the files to parse
+	 * @param srcPaths
+	 *            additional source paths for binding resolution
+	 * @param batchSize
+	 *            no. files to parse with each parser
+	 * @param nThreads
+	 *            no. batches to parse in parallel
+	 * @param callback
+	 *            called with each file and its compilation unit
+	 */
+	public final void getASTs(final Collection<File> files,
+			final Set<String> srcPaths, final int batchSize,
+			final int nThreads,
+			final BiConsumer<File, CompilationUnit> callback) {
+		final List<List<File>> batches = Lists.partition(
+				new ArrayList<File>(files), batchSize);
+		if (nThreads <= 1) {
+			for (final List<File> batch : batches) {
+				parseBatch(batch, srcPaths, callback);
+			}
+			return;
+		}
+
+		final ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			final List<Future<?>> results = Lists.newArrayList();
+			for (final List<File> batch : batches) {
+				results.add(pool.submit(() -> parseBatch(batch, srcPaths,
+						callback)));
+			}
+			for (final Future<?> result : results) {
+				result.get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while parsing", e);
+		} catch (final ExecutionException e) {
+			throw Throwables.propagate(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Parse a batch of files with one parser. Should the batch parse fail,
+	 * the files it did not get to are parsed one at a time.
+	 */
+	private void parseBatch(final List<File> batch,
+			final Set<String> srcPaths,
+			final BiConsumer<File, CompilationUnit> callback) {
+		final Set<String> batchSrcPaths = new HashSet<String>(srcPaths);
+		final Map<String, File> filesByPath = Maps.newLinkedHashMap();
+		for (final File file : batch) {
+			batchSrcPaths.add(getSourcePath(file));
+			filesByPath.put(file.getAbsolutePath(), file);
+		}
+
+		final Set<String> parsed = new HashSet<String>();
+		final FileASTRequestor requestor = new FileASTRequestor() {
+			@Override
+			public void acceptAST(final String sourceFilePath,
+					final CompilationUnit ast) {
+				parsed.add(sourceFilePath);
+				try {
+					callback.accept(filesByPath.get(sourceFilePath), ast);
+				} catch (final RuntimeException e) {
+					throw new CallbackException(e);
+				}
+			}
+		};
+
+		try {
+			createParser(batchSrcPaths).createASTs(
+					filesByPath.keySet().toArray(
+							new String[filesByPath.size()]), null,
+					new String[0], requestor, null);
+		} catch (final CallbackException e) {
+			throw (RuntimeException) e.getCause();
+		} catch (final RuntimeException e) {
+			LOGGER.warning("Failed to parse batch, parsing remaining files individually: "
+					+ ExceptionUtils.getFullStackTrace(e));
+		}
+
+		for (final Map.Entry<String, File> entry : filesByPath.entrySet()) {
+			if (parsed.contains(entry.getKey())) {
+				continue;
+			}
+			CompilationUnit cu = null;
+			try {
+				cu = getAST(entry.getValue(), new HashSet<String>(srcPaths));
+			} catch (final Exception e) {
+				LOGGER.warning("Failed to parse " + entry.getValue() + ": "
+						+ ExceptionUtils.getFullStackTrace(e));
+			}
+			callback.accept(entry.getValue(), cu);
+		}
+	}
+
+	/** Wraps an exception thrown by a batch callback */
+	private static final class CallbackException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		CallbackException(final RuntimeException cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Create a compilation unit parser with the given source paths for
+	 * binding resolution.
+	 */
+	private ASTParser createParser(final Set<String> srcPaths) {
 		final ASTParser parser = ASTParser.newParser(AST.JLS8);
 		parser.setKind(ASTParser.K_COMPILATION_UNIT);
 
@@ -105,34 +297,28 @@ public class JavaASTExtractor {
 			options.put(JavaCore.COMPILER_DOC_COMMENT_SUPPORT, JavaCore.ENABLED);
 		}
 		parser.setCompilerOptions(options);
-		parser.setSource(sourceFile.toCharArray()); // set source
 		parser.setResolveBindings(useBindings);
 		parser.setBindingsRecovery(useBindings);
 
 		parser.setStatementsRecovery(true);
 
-		parser.setUnitName(file.getAbsolutePath());
-
-		// Heuristic to retrieve source file path
-		final String srcFilePath;
-		if (file.getAbsolutePath().contains("/src")) {
-			srcFilePath = file.getAbsolutePath().substring(0,
-					file.getAbsolutePath().indexOf("src", 0) + 3);
-		} else {
-			srcFilePath = "";
-		}
-
-		// Add file to source paths if not already present
-		srcPaths.add(srcFilePath);
-
 		final String[] sourcePathEntries = srcPaths.toArray(new String[srcPaths
 				.size()]);
 		final String[] classPathEntries = new String[0];
 		parser.setEnvironment(classPathEntries, sourcePathEntries, null, true);
+		return parser;
+	}
 
-		final CompilationUnit compilationUnit = (CompilationUnit) parser
-				.createAST(null);
-		return compilationUnit;
+	/**
+	 * Heuristic to retrieve the source path of a file (up to its src folder).
+	 */
+	private static String getSourcePath(final File file) {
+		if (file.getAbsolutePath().contains("/src")) {
+			return file.getAbsolutePath().substring(0,
+					file.getAbsolutePath().indexOf("src", 0) + 3);
+		} else {
+			return "";
+		}
 	}
 
 	/**
@@ -4,9 +4,8 @@
 package codemining.java.codeutils;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -14,7 +13,6 @@ import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
-import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.ITypeBinding;
@@ -248,13 +246,20 @@ public class JavaTypeHierarchyExtractor {
 	private final ClassHierarchy hierarchy = new ClassHierarchy();
 
 	public void addFilesToCorpus(final Collection<File> files) {
-		files.parallelStream()
-				.map(f -> getParentTypeRelationshipsFrom(f))
-				.flatMap(rel -> rel.stream())
-				.sequential()
-				.forEach(
-						rel -> hierarchy.addParentToType(rel.second, rel.first));
-
+		final JavaASTExtractor ex = new JavaASTExtractor(true);
+		ex.getASTs(files, new HashSet<String>(),
+				JavaASTExtractor.DEFAULT_BATCH_SIZE, Runtime.getRuntime()
+						.availableProcessors(), (f, cu) -> {
+					if (cu == null) {
+						LOGGER.warning("Failed to get type hierarchy from " + f);
+						return;
+					}
+					final Collection<Pair<String, String>> relationships = getParentTypeRelationshipsFrom(cu);
+					synchronized (hierarchy) {
+						relationships.forEach(rel -> hierarchy.addParentToType(
+								rel.second, rel.first));
+					}
+				});
 	}
 
 	public ClassHierarchy getHierarchy() {
@@ -262,17 +267,10 @@ public class JavaTypeHierarchyExtractor {
 	}
 
 	private Collection<Pair<String, String>> getParentTypeRelationshipsFrom(
-			final File file) {
-		final JavaASTExtractor ex = new JavaASTExtractor(true);
-		try {
-			final CompilationUnit ast = ex.getAST(file);
-			final HierarchyExtractor hEx = new HierarchyExtractor();
-			ast.accept(hEx);
-			return hEx.parentChildRelationships;
-		} catch (final IOException e) {
-			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
-		}
-		return Collections.emptySet();
+			final CompilationUnit ast) {
+		final HierarchyExtractor hEx = new HierarchyExtractor();
+		ast.accept(hEx);
+		return hEx.parentChildRelationships;
 	}
 
 	@Override
@@ -5,6 +5,7 @@ package codemining.java.codeutils;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Stack;
 import java.util.logging.Logger;
 
@@ -168,14 +169,17 @@ public class MethodsInClass {
 	public void scan(final Collection<File> files) {
 		final MethodExtractor me = new MethodExtractor();
 		final JavaASTExtractor jEx = new JavaASTExtractor(false);
-		for (final File f : files) {
-			try {
-				final CompilationUnit cu = jEx.getAST(f);
-				cu.accept(me);
-			} catch (final Throwable e) {
-				LOGGER.warning("Failed to get methods from " + f);
-			}
-		}
+		jEx.getASTs(files, new HashSet<String>(),
+				JavaASTExtractor.DEFAULT_BATCH_SIZE, Runtime.getRuntime()
+						.availableProcessors(), (f, cu) -> {
+					try {
+						synchronized (me) {
+							cu.accept(me);
+						}
+					} catch (final Throwable e) {
+						LOGGER.warning("Failed to get methods from " + f);
+					}
+				});
 	}
 
 	/*
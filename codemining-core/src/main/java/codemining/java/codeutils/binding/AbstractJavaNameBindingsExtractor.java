@@ -5,12 +5,16 @@ package codemining.java.codeutils.binding;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
+import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jdt.core.dom.ASTNode;
 
 import codemining.java.codeutils.JavaASTExtractor;
@@ -51,6 +55,9 @@ public abstract class AbstractJavaNameBindingsExtractor extends
 		return positionToIndex;
 	}
 
+	private static final Logger LOGGER = Logger
+			.getLogger(AbstractJavaNameBindingsExtractor.class.getName());
+
 	final ITokenizer tokenizer;
 
 	public AbstractJavaNameBindingsExtractor(final ITokenizer tokenizer) {
@@ -124,6 +131,37 @@ public abstract class AbstractJavaNameBindingsExtractor extends
 				getNameBindings(ex.getAST(f)), f.getAbsolutePath());
 	}
 
+	/**
+	 * Get the resolved source code of many files, parsing them in batches
+	 * that share a parser (see {@link JavaASTExtractor#getASTs}) and passing
+	 * each to the callback as soon as it is resolved. The callback is called
+	 * concurrently from up to nThreads threads. Files that fail to parse or
+	 * resolve are logged and skipped.
+	 *
+	 * @param files
+	 * @param nThreads
+	 * @param callback
+	 */
+	public void getResolvedSourceCode(final Collection<File> files,
+			final int nThreads,
+			final BiConsumer<File, ResolvedSourceCode> callback) {
+		final JavaASTExtractor ex = createExtractor();
+		ex.getASTs(files, Sets.newHashSet(),
+				JavaASTExtractor.DEFAULT_BATCH_SIZE, nThreads, (f, cu) -> {
+					final ResolvedSourceCode resolved;
+					try {
+						resolved = getResolvedSourceCode(
+								FileUtils.readFileToString(f),
+								getNameBindings(cu), f.getAbsolutePath());
+					} catch (final Throwable t) {
+						LOGGER.warning("Error for file " + f + ": "
+								+ ExceptionUtils.getFullStackTrace(t));
+						return;
+					}
+					callback.accept(f, resolved);
+				});
+	}
+
 	public ResolvedSourceCode getResolvedSourceCode(final File f,
 			final Predicate<ASTNode> includeNode) throws IOException {
 		final JavaASTExtractor ex = createExtractor();
@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -84,13 +86,15 @@ public class JavaBindingsToJson {
 		final Collection<File> allFiles = FileUtils
 				.listFiles(inputFolder, JavaTokenizer.javaCodeFileFilter,
 						DirectoryFileFilter.DIRECTORY);
+		final Map<File, SerializableResolvedSourceCode> resolvedByFile = new ConcurrentHashMap<>();
+		bindingExtractor.getResolvedSourceCode(allFiles, Runtime.getRuntime()
+				.availableProcessors(), (f, r) -> resolvedByFile.put(f,
+				SerializableResolvedSourceCode.fromResolvedSourceCode(r)));
+
+		// Keep the files in order
 		final List<SerializableResolvedSourceCode> resolvedCode = allFiles
-				.parallelStream()
-				.map(f -> getResolvedCode(f, bindingExtractor))
-				.filter(r -> r != null)
-				.map(r -> SerializableResolvedSourceCode
-						.fromResolvedSourceCode(r))
-				.filter(s -> !s.boundVariables.isEmpty())
+				.stream().map(f -> resolvedByFile.get(f))
+				.filter(s -> s != null && !s.boundVariables.isEmpty())
 				.collect(Collectors.toList());
 
 		final FileWriter writer = new FileWriter(outputFile);
@@ -3,16 +3,28 @@
  */
 package codemining.java.codeutils;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jdt.core.dom.ASTMatcher;
 import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
 
 import codemining.java.tokenizers.JavaTokenizer;
 import codemining.languagetools.ParseType;
@@ -26,6 +38,9 @@ public class JavaAstExtractorTest {
 	String classContent;
 	String methodContent;
 
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
 	@Before
 	public void setUp() throws IOException {
 		classContent = FileUtils.readFileToString(new File(
@@ -58,6 +73,53 @@ public class JavaAstExtractorTest {
 		assertTrue(snippetMatchesAstTokens(methodContent, methodCU));
 	}
 
+	/**
+	 * Test method for
+	 * {@link codemining.java.codeutils.JavaASTExtractor#getASTs(java.util.Collection, java.util.Set, int, int, java.util.function.BiConsumer)}
+	 * .
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testGetASTs() throws IOException {
+		final List<File> files = Lists.newArrayList();
+		for (final String resource : new String[] { "SampleClass.txt",
+				"SampleClass2.txt", "SampleClass3.txt" }) {
+			final File file = new File(tmpFolder.getRoot(), "src/"
+					+ resource.replace(".txt", ".java"));
+			FileUtils.copyFile(new File(JavaAstExtractorTest.class
+					.getClassLoader().getResource(resource).getFile()), file);
+			files.add(file);
+		}
+		final File missingFile = new File(tmpFolder.getRoot(),
+				"src/Missing.java");
+		files.add(missingFile);
+
+		final JavaASTExtractor ex = new JavaASTExtractor(false);
+		for (final int batchSize : new int[] { 1, 3 }) {
+			for (final int nThreads : new int[] { 1, 2 }) {
+				final Map<File, CompilationUnit> asts = new ConcurrentHashMap<File, CompilationUnit>();
+				final AtomicInteger nCalls = new AtomicInteger();
+				ex.getASTs(files, new HashSet<String>(), batchSize, nThreads,
+						(file, cu) -> {
+							nCalls.incrementAndGet();
+							if (cu != null) {
+								asts.put(file, cu);
+							}
+						});
+
+				// Each file exactly once, the missing one without a unit
+				assertEquals(files.size(), nCalls.get());
+				assertEquals(files.size() - 1, asts.size());
+				assertNull(asts.get(missingFile));
+				for (final File file : files.subList(0, files.size() - 1)) {
+					assertTrue(ex.getAST(file).subtreeMatch(new ASTMatcher(),
+							asts.get(file)));
+				}
+			}
+		}
+	}
+
 	private boolean snippetMatchesAstTokens(final String snippetCode,
 			final ASTNode node) {
 		final JavaTokenizer tokenizer = new JavaTokenizer();
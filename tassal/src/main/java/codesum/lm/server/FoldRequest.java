@@ -0,0 +1,150 @@
+package codesum.lm.server;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.base.Splitter;
+
+import codesum.lm.topicsum.Topic;
+
+/**
+ * Fold request parsed from a URL query string, e.g.
+ *
+ * <pre>
+ * file=/path/to/Foo.java&amp;project=foo&amp;ratio=50&amp;algorithm=topic&amp;lazy=true
+ * </pre>
+ *
+ * The file content may be sent as the request body instead of being read from
+ * disk, in which case the file path is only used to match the file to a
+ * document of the topic model. Several comma separated ratios (e.g.
+ * ratio=10,30,50) fold the file at each ratio, building its tree only once.
+ */
+class FoldRequest {
+
+	/** Folding algorithm */
+	enum Algorithm {
+		TOPIC, VSM
+	}
+
+	/** Format of the folded lines */
+	enum Format {
+		LINES, RANGES
+	}
+
+	final File file;
+	final String project;
+	final int[] compressionRatios;
+	final Algorithm algorithm;
+	final int backoffTopic;
+	final Format format;
+
+	// Use the lazy greedy unfolding (see Settings#lazyGreedy)
+	final boolean lazyGreedy;
+
+	// Working directory of the topic model (null for the server default)
+	final String workingDir;
+
+	// File content (null to read the file from disk)
+	String content;
+
+	private FoldRequest(final Map<String, String> params) {
+
+		final String path = params.get("file");
+		if (path == null)
+			throw new IllegalArgumentException("Missing parameter: file");
+		file = new File(path);
+
+		final String ratio = params.get("ratio");
+		if (ratio == null)
+			throw new IllegalArgumentException("Missing parameter: ratio");
+		final List<String> ratios = Splitter.on(',').trimResults()
+				.splitToList(ratio);
+		compressionRatios = new int[ratios.size()];
+		for (int i = 0; i < compressionRatios.length; i++)
+			compressionRatios[i] = parseInt("ratio", ratios.get(i), 0, 100);
+
+		algorithm = parseEnum(Algorithm.class, "algorithm",
+				get(params, "algorithm", "topic"));
+		format = parseEnum(Format.class, "format",
+				get(params, "format", "lines"));
+		backoffTopic = parseInt("backoff", get(params, "backoff", "2"), 0,
+				Topic.nBackTopics - 1);
+		lazyGreedy = parseBoolean("lazy", get(params, "lazy", "false"));
+
+		project = params.get("project");
+		if (project == null && algorithm == Algorithm.TOPIC)
+			throw new IllegalArgumentException("Missing parameter: project");
+		workingDir = params.get("workingDir");
+	}
+
+	/**
+	 * Parse a fold request from a URL query string
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the request is malformed
+	 */
+	static FoldRequest parse(final String query) {
+		if (query == null)
+			throw new IllegalArgumentException("Missing parameters");
+		final Map<String, String> params = new HashMap<>();
+		for (final String param : Splitter.on('&').omitEmptyStrings()
+				.split(query))
+			params.put(decode(StringUtils.substringBefore(param, "=")),
+					decode(StringUtils.substringAfter(param, "=")));
+		return new FoldRequest(params);
+	}
+
+	private static String decode(final String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static String get(final Map<String, String> params,
+			final String name, final String defaultValue) {
+		final String value = params.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private static <E extends Enum<E>> E parseEnum(final Class<E> type,
+			final String name, final String value) {
+		try {
+			return Enum.valueOf(type, value.toUpperCase());
+		} catch (final IllegalArgumentException e) {
+			throw new IllegalArgumentException(name + " should be one of "
+					+ Arrays.toString(type.getEnumConstants()).toLowerCase());
+		}
+	}
+
+	private static boolean parseBoolean(final String name, final String value) {
+		if (value.equalsIgnoreCase("true"))
+			return true;
+		if (value.equalsIgnoreCase("false"))
+			return false;
+		throw new IllegalArgumentException(name + " should be true or false");
+	}
+
+	private static int parseInt(final String name, final String value,
+			final int min, final int max) {
+		final int n;
+		try {
+			n = Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException(name + " should be an integer");
+		}
+		if (n < min || n > max)
+			throw new IllegalArgumentException(name + " should be in the range "
+					+ min + " to " + max);
+		return n;
+	}
+
+}
@@ -0,0 +1,402 @@
+package codesum.lm.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import codesum.lm.api.FoldCache;
+import codesum.lm.api.FoldSourceFile;
+import codesum.lm.api.FoldSourceFileVSM;
+import codesum.lm.main.SourceBuffer;
+import codesum.lm.server.FoldRequest.Algorithm;
+import codesum.lm.server.FoldRequest.Format;
+import codesum.lm.topicsum.TopicModel;
+
+/**
+ * Long-running folding server that keeps topic models loaded and serves fold
+ * requests over a local HTTP endpoint, avoiding the JVM startup and model
+ * loading cost of the command line tools. Endpoints:
+ *
+ * <ul>
+ * <li><b>/fold?file=...&amp;project=...&amp;ratio=...</b> fold a file (see
+ * {@link FoldRequest} for all parameters), the file content may be POSTed as
+ * the request body. Returns the folded LOC separated by spaces (or the folded
+ * line ranges), one line per ratio if several comma separated ratios are
+ * given.</li>
+ * <li><b>/batch</b> fold several files, POST one query string per line.
+ * Returns one line per file, either the folded LOC or an error.</li>
+ * <li><b>/stats</b> fold cache hit/miss counts</li>
+ * <li><b>/health</b> check the server is running</li>
+ * </ul>
+ *
+ * Folds run on a bounded worker pool: requests beyond the queue capacity are
+ * rejected with 503 rather than queued indefinitely. Topic models are loaded
+ * once per working directory and the least recently used are evicted beyond
+ * the configured no. models. Requests may only use the default working
+ * directory or those allowed at startup. Folded LOC are cached by file
+ * content, model and settings, so unchanged files are not folded again.
+ */
+public class FoldServer {
+
+	/** Command line parameters */
+	public static class Parameters {
+
+		@Parameter(names = { "-w", "--workingDir" }, description = "Default working directory where the topic model creates necessary files")
+		String workingDir = null;
+
+		@Parameter(names = { "-p", "--port" }, description = "Port to listen on (localhost only)")
+		int port = 8642;
+
+		@Parameter(names = { "-t", "--threads" }, description = "No. threads to fold files on")
+		int nThreads = Runtime.getRuntime().availableProcessors();
+
+		@Parameter(names = { "-q", "--queueSize" }, description = "Max. no. fold requests waiting for a thread")
+		int queueSize = 256;
+
+		@Parameter(names = { "-m", "--maxModels" }, description = "Max. no. topic models to keep loaded")
+		int maxModels = 4;
+
+		@Parameter(names = { "-s", "--cacheSize" }, description = "Size of the in-memory fold cache (MB)")
+		int cacheSize = 64;
+
+		@Parameter(names = { "-k", "--cacheDir" }, description = "Directory of the on-disk fold cache (none if not given)")
+		File cacheDir = null;
+
+		@Parameter(names = { "-a", "--allowedDir" }, description = "Other working directory that requests may use (repeatable)")
+		List<String> allowedDirs = new ArrayList<>();
+	}
+
+	private final String defaultWorkingDir;
+
+	// Working directories requests may use, keyed by their canonical path
+	private final Map<String, String> allowedDirs = new HashMap<>();
+	private final LoadingCache<String, TopicModel> models;
+	private final ConcurrentHashMap<String, String> modelIds = new ConcurrentHashMap<>();
+	private final FoldCache cache;
+	private final ThreadPoolExecutor workers;
+	private final ExecutorService handlers;
+	private final HttpServer server;
+
+	public static void main(final String[] args) throws IOException {
+
+		final Parameters params = new Parameters();
+		final JCommander jc = new JCommander(params);
+
+		try {
+			jc.parse(args);
+			System.out.println("TASSAL: Tree-based Autofolding Software Summarization ALgorithm");
+			System.out.println("===============================================================");
+			final FoldServer server = new FoldServer(params.workingDir,
+					params.port, params.nThreads, params.queueSize,
+					params.maxModels, params.allowedDirs,
+					new FoldCache(params.cacheSize * 1024L * 1024L, params.cacheDir));
+			server.start();
+			System.out.println("\nListening on http://localhost:" + params.port + "/");
+		} catch (final ParameterException e) {
+			System.out.println(e.getMessage());
+			jc.usage();
+		}
+
+	}
+
+	/**
+	 * @param workingDir
+	 *            default working directory of the topic model (may be null)
+	 * @param port
+	 *            port to listen on (localhost only)
+	 * @param nThreads
+	 *            no. threads to fold files on
+	 * @param queueSize
+	 *            max. no. fold requests waiting for a thread
+	 * @param maxModels
+	 *            max. no. topic models to keep loaded
+	 */
+	public FoldServer(final String workingDir, final int port,
+			final int nThreads, final int queueSize, final int maxModels)
+			throws IOException {
+		this(workingDir, port, nThreads, queueSize, maxModels,
+				Collections.<String> emptyList(),
+				new FoldCache(FoldCache.DEFAULT_MAX_BYTES, null));
+	}
+
+	/**
+	 * @param allowedDirs
+	 *            other working directories that requests may use
+	 * @param cache
+	 *            cache of folded LOC
+	 *
+	 * @see #FoldServer(String, int, int, int, int)
+	 */
+	public FoldServer(final String workingDir, final int port,
+			final int nThreads, final int queueSize, final int maxModels,
+			final List<String> allowedDirs, final FoldCache cache)
+			throws IOException {
+		defaultWorkingDir = workingDir;
+		if (workingDir != null)
+			this.allowedDirs.put(new File(workingDir).getCanonicalPath(), workingDir);
+		for (final String dir : allowedDirs)
+			this.allowedDirs.put(new File(dir).getCanonicalPath(), dir);
+		this.cache = cache;
+
+		models = CacheBuilder.newBuilder().maximumSize(maxModels)
+				.build(new CacheLoader<String, TopicModel>() {
+					@Override
+					public TopicModel load(final String dir) {
+						System.out.println("Loading the model in " + dir + "...");
+						// Get id first so a newer model file isn't cached as this one
+						final String modelId = FoldSourceFile.getModelId(dir);
+						final TopicModel model = FoldSourceFile.readTopicModel(dir);
+						if (model == null)
+							throw new IllegalArgumentException("No topic model in " + dir);
+						modelIds.put(dir, modelId);
+						return model;
+					}
+				});
+
+		workers = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize));
+		handlers = Executors.newFixedThreadPool(2 * nThreads);
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/fold", new FoldHandler());
+		server.createContext("/batch", new BatchHandler());
+		server.createContext("/stats", new StatsHandler());
+		server.createContext("/health", new HealthHandler());
+		server.setExecutor(handlers);
+	}
+
+	/** Start serving requests (loading the default model first) */
+	public void start() {
+		if (defaultWorkingDir != null)
+			models.getUnchecked(defaultWorkingDir);
+		server.start();
+	}
+
+	/** Stop serving requests, waiting at most delay seconds for open exchanges */
+	public void stop(final int delay) {
+		server.stop(delay);
+		workers.shutdown();
+		handlers.shutdown();
+	}
+
+	/** Fold a single file */
+	private class FoldHandler implements HttpHandler {
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				final FoldRequest request = FoldRequest.parse(exchange.getRequestURI().getRawQuery());
+				final String body = readBody(exchange);
+				if (!body.isEmpty())
+					request.content = body;
+				final String result = submit(request).get();
+				respond(exchange, 200, result);
+			} catch (final IllegalArgumentException e) {
+				respond(exchange, 400, e.getMessage());
+			} catch (final RejectedExecutionException e) {
+				respond(exchange, 503, "Server busy");
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof IllegalArgumentException)
+					respond(exchange, 400, e.getCause().getMessage());
+				else
+					respond(exchange, 500, String.valueOf(e.getCause()));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				respond(exchange, 503, "Interrupted");
+			}
+		}
+	}
+
+	/** Fold several files concurrently */
+	private class BatchHandler implements HttpHandler {
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+
+			// Submit all requests before waiting on any of them
+			final List<Object> pending = new ArrayList<>();
+			for (final String query : Splitter.on('\n').trimResults().omitEmptyStrings()
+					.split(readBody(exchange))) {
+				try {
+					final FoldRequest request = FoldRequest.parse(query);
+					if (request.compressionRatios.length > 1)
+						throw new IllegalArgumentException("Several ratios are only supported by /fold");
+					pending.add(submit(request));
+				} catch (final IllegalArgumentException e) {
+					pending.add("ERROR " + e.getMessage());
+				} catch (final RejectedExecutionException e) {
+					pending.add("ERROR Server busy");
+				}
+			}
+
+			final List<String> results = new ArrayList<>();
+			for (final Object result : pending) {
+				if (result instanceof Future) {
+					try {
+						results.add(((Future<?>) result).get().toString());
+					} catch (final ExecutionException e) {
+						results.add("ERROR " + e.getCause().getMessage());
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						results.add("ERROR Interrupted");
+					}
+				} else {
+					results.add((String) result);
+				}
+			}
+			respond(exchange, 200, Joiner.on('\n').join(results));
+		}
+	}
+
+	private class StatsHandler implements HttpHandler {
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			respond(exchange, 200, cache.toString());
+		}
+	}
+
+	private static class HealthHandler implements HttpHandler {
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			respond(exchange, 200, "OK");
+		}
+	}
+
+	/** Submit fold request to the worker pool */
+	private Future<String> submit(final FoldRequest request) {
+		return workers.submit(new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				return fold(request);
+			}
+		});
+	}
+
+	/** Fold file and return folded LOC in the requested format */
+	private String fold(final FoldRequest request) throws IOException {
+
+		// Fold any file content in memory, otherwise read the file
+		final SourceBuffer source;
+		if (request.content != null) {
+			source = SourceBuffer.of(request.file, request.content);
+		} else if (!request.file.isFile()) {
+			throw new IllegalArgumentException("No such file: " + request.file);
+		} else {
+			source = SourceBuffer.read(request.file);
+		}
+
+		final List<ArrayList<Integer>> foldedLines;
+		final boolean sweep = request.compressionRatios.length > 1;
+		if (request.algorithm == Algorithm.VSM) {
+			if (sweep)
+				foldedLines = FoldSourceFileVSM.foldSourceFileVSM(source, request.compressionRatios, null,
+						request.lazyGreedy, cache);
+			else
+				foldedLines = Collections.singletonList(FoldSourceFileVSM.foldSourceFileVSM(source,
+						request.compressionRatios[0], null, request.lazyGreedy, null, cache));
+		} else {
+			final String dir = getWorkingDir(request);
+			final TopicModel model;
+			try {
+				model = models.getUnchecked(dir);
+			} catch (final UncheckedExecutionException e) {
+				throw new IllegalArgumentException(e.getCause().getMessage());
+			}
+			if (sweep)
+				foldedLines = FoldSourceFile.foldSourceFile(Suppliers.ofInstance(model), modelIds.get(dir), source,
+						request.project, request.compressionRatios, request.backoffTopic, request.lazyGreedy, cache);
+			else
+				foldedLines = Collections.singletonList(FoldSourceFile.foldSourceFile(
+						Suppliers.ofInstance(model), modelIds.get(dir), source, request.project,
+						request.compressionRatios[0], request.backoffTopic, request.lazyGreedy, cache));
+		}
+
+		// One line per ratio
+		final List<String> results = new ArrayList<>();
+		for (final ArrayList<Integer> lines : foldedLines)
+			results.add(request.format == Format.RANGES ? toRanges(lines) : Joiner.on(" ").join(lines));
+		return Joiner.on('\n').join(results);
+	}
+
+	/**
+	 * @return the working directory of the request (as configured at startup)
+	 * @throws IllegalArgumentException
+	 *             if there is none or it was not allowed at startup
+	 */
+	String getWorkingDir(final FoldRequest request) throws IOException {
+		if (request.workingDir == null) {
+			if (defaultWorkingDir == null)
+				throw new IllegalArgumentException("Missing parameter: workingDir");
+			return defaultWorkingDir;
+		}
+		final String dir = allowedDirs.get(new File(request.workingDir).getCanonicalPath());
+		if (dir == null)
+			throw new IllegalArgumentException("workingDir not allowed: " + request.workingDir);
+		return dir;
+	}
+
+	/** Convert folded LOC to ranges of consecutive lines, e.g. 3-5 9-9 */
+	static String toRanges(final List<Integer> lines) {
+		final List<Integer> sorted = new ArrayList<>(lines);
+		Collections.sort(sorted);
+		final List<String> ranges = new ArrayList<>();
+		for (int i = 0; i < sorted.size();) {
+			int j = i;
+			while (j + 1 < sorted.size() && sorted.get(j + 1) <= sorted.get(j) + 1)
+				j++;
+			ranges.add(sorted.get(i) + "-" + sorted.get(j));
+			i = j + 1;
+		}
+		return Joiner.on(" ").join(ranges);
+	}
+
+	private static String readBody(final HttpExchange exchange) throws IOException {
+		try (final InputStream in = exchange.getRequestBody()) {
+			return IOUtils.toString(in, StandardCharsets.UTF_8.name());
+		}
+	}
+
+	private static void respond(final HttpExchange exchange, final int status, final String body)
+			throws IOException {
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		try (final OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package codesum.lm.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import codesum.lm.server.FoldRequest.Algorithm;
+import codesum.lm.server.FoldRequest.Format;
+
+public class FoldRequestTest {
+
+	@Test
+	public void testDefaults() {
+		final FoldRequest request = FoldRequest.parse("file=/src/Foo.java&project=foo&ratio=50");
+		assertEquals(new File("/src/Foo.java"), request.file);
+		assertEquals("foo", request.project);
+		assertArrayEquals(new int[] { 50 }, request.compressionRatios);
+		assertEquals(Algorithm.TOPIC, request.algorithm);
+		assertEquals(Format.LINES, request.format);
+		assertEquals(2, request.backoffTopic);
+		assertFalse(request.lazyGreedy);
+		assertNull(request.workingDir);
+		assertNull(request.content);
+	}
+
+	@Test
+	public void testAllParameters() {
+		final FoldRequest request = FoldRequest.parse("file=%2Fsrc%2FMy%20Foo.java&ratio=10,%2030,50&algorithm=VSM"
+				+ "&format=ranges&backoff=0&lazy=true&workingDir=/models/&&");
+		assertEquals(new File("/src/My Foo.java"), request.file);
+		assertNull(request.project);
+		assertArrayEquals(new int[] { 10, 30, 50 }, request.compressionRatios);
+		assertEquals(Algorithm.VSM, request.algorithm);
+		assertEquals(Format.RANGES, request.format);
+		assertEquals(0, request.backoffTopic);
+		assertTrue(request.lazyGreedy);
+		assertEquals("/models/", request.workingDir);
+	}
+
+	@Test
+	public void testMalformed() {
+		assertInvalid(null, "Missing parameters");
+		assertInvalid("project=foo&ratio=50", "Missing parameter: file");
+		assertInvalid("file=Foo.java&project=foo", "Missing parameter: ratio");
+		assertInvalid("file=Foo.java&ratio=50", "Missing parameter: project");
+		assertInvalid("file=Foo.java&project=foo&ratio=fifty", "ratio should be an integer");
+		assertInvalid("file=Foo.java&project=foo&ratio=10,101", "ratio should be in the range 0 to 100");
+		assertInvalid("file=Foo.java&project=foo&ratio=50&backoff=3", "backoff should be in the range 0 to 2");
+		assertInvalid("file=Foo.java&project=foo&ratio=50&algorithm=lda", "algorithm should be one of [topic, vsm]");
+		assertInvalid("file=Foo.java&project=foo&ratio=50&format=json", "format should be one of [lines, ranges]");
+		assertInvalid("file=Foo.java&project=foo&ratio=50&lazy=yes", "lazy should be true or false");
+	}
+
+	private static void assertInvalid(final String query, final String message) {
+		try {
+			FoldRequest.parse(query);
+			fail("Expected " + query + " to be invalid");
+		} catch (final IllegalArgumentException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+
+}
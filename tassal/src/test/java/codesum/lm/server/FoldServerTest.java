@@ -0,0 +1,87 @@
+package codesum.lm.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codesum.lm.api.FoldCache;
+
+public class FoldServerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String defaultDir;
+	private String allowedDir;
+	private FoldServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		defaultDir = newDir("default");
+		allowedDir = newDir("allowed");
+		newDir("other");
+
+		// Any free port, the server is not started
+		server = new FoldServer(defaultDir, 0, 1, 1, 1, Arrays.asList(allowedDir),
+				new FoldCache(FoldCache.DEFAULT_MAX_BYTES, null));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testToRanges() {
+		assertEquals("", FoldServer.toRanges(Arrays.<Integer> asList()));
+		assertEquals("7-7", FoldServer.toRanges(Arrays.asList(7)));
+		assertEquals("3-5 9-9 11-12", FoldServer.toRanges(Arrays.asList(3, 4, 5, 9, 11, 12)));
+		// Unsorted and repeated lines
+		assertEquals("1-3 8-8", FoldServer.toRanges(Arrays.asList(8, 3, 1, 2, 2)));
+	}
+
+	@Test
+	public void testWorkingDir() throws IOException {
+		assertEquals(defaultDir, getWorkingDir(null));
+		assertEquals(defaultDir, getWorkingDir(defaultDir));
+		assertEquals(allowedDir, getWorkingDir(allowedDir));
+
+		// Same directory by another path
+		assertEquals(allowedDir, getWorkingDir(defaultDir + ".." + File.separator + "allowed"));
+
+		assertNotAllowed(folder.getRoot().getPath() + File.separator + "other" + File.separator);
+		assertNotAllowed(defaultDir + "TopicSum");
+		assertNotAllowed("/");
+	}
+
+	private void assertNotAllowed(final String dir) throws IOException {
+		try {
+			getWorkingDir(dir);
+			fail("Expected " + dir + " not to be allowed");
+		} catch (final IllegalArgumentException e) {
+			assertEquals("workingDir not allowed: " + dir, e.getMessage());
+		}
+	}
+
+	private String getWorkingDir(final String dir) throws IOException {
+		final String query = "file=Foo.java&project=foo&ratio=50" + (dir == null ? "" : "&workingDir=" + dir);
+		return server.getWorkingDir(FoldRequest.parse(query));
+	}
+
+	/** @return path of a new directory, ending with a separator as working dirs do */
+	private String newDir(final String name) {
+		final File dir = new File(folder.getRoot(), name);
+		dir.mkdirs();
+		return dir.getPath() + File.separator;
+	}
+
+}